@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The benchmark state holding a synthetic distribution on disk
+ *
+ * @author Laurent Wouters
+ */
+@State(Scope.Benchmark)
+public class DistributionState {
+    /**
+     * The seed for the synthetic content, fixed so that runs are comparable
+     */
+    private static final long SEED = 0x784F574CL;
+
+    /**
+     * The shape of the distribution
+     */
+    @Param({"SMALL_FILES", "LARGE_JARS", "NESTED", "MIXED"})
+    public SyntheticDistribution.Shape shape;
+
+    /**
+     * The scale factor for the number of files
+     */
+    @Param({"1"})
+    public int scale;
+
+    /**
+     * The working directory for this state
+     */
+    public File workDirectory;
+    /**
+     * The root of the generated distribution
+     */
+    public File distribution;
+    /**
+     * The directory for the outputs of an invocation
+     */
+    public File output;
+
+    /**
+     * Generates the distribution
+     *
+     * @throws IOException When an IO error occurs
+     */
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        workDirectory = Files.createTempDirectory("xowl-bench").toFile();
+        distribution = new File(workDirectory, "distribution");
+        SyntheticDistribution generator = new SyntheticDistribution(SEED);
+        generator.generate(distribution, shape, scale);
+        output = new File(workDirectory, "output");
+    }
+
+    /**
+     * Resets the output directory before each invocation
+     *
+     * @throws IOException When an IO error occurs
+     */
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        delete(output.toPath());
+        if (!output.mkdirs())
+            throw new IOException("Failed to create directory " + output.getAbsolutePath());
+    }
+
+    /**
+     * Deletes the working directory
+     *
+     * @throws IOException When an IO error occurs
+     */
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        delete(workDirectory.toPath());
+    }
+
+    /**
+     * Recursively deletes a file or directory, if it exists
+     *
+     * @param root The file or directory to delete
+     * @throws IOException When an IO error occurs
+     */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS))
+            return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exception) throws IOException {
+                if (exception != null)
+                    throw exception;
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks the packaging goals end-to-end, in a Maven process.
+ * The inputs are synthetic artifacts in a stand-in local repository, chained in front of the usual local repository
+ * (that must contain the plugin) so that Maven runs offline.
+ * The wall-clock time and the peak resident memory (read from {@code /proc}) are recorded for each goal.
+ * When a baseline is given, the run fails when a goal regressed beyond the configured thresholds.
+ *
+ * @author Laurent Wouters
+ */
+public class EndToEndBenchmark {
+    /**
+     * The seed for the synthetic content
+     */
+    private static final long SEED = 0x784F574CL;
+    /**
+     * The groupId of the plugin
+     */
+    private static final String PLUGIN_GROUP_ID = "org.xowl.toolkit";
+    /**
+     * The artifactId of the plugin
+     */
+    private static final String PLUGIN_ARTIFACT_ID = "xowl-packaging-maven-plugin";
+    /**
+     * The interval between two samples of the memory usage, in milliseconds
+     */
+    private static final long SAMPLE_INTERVAL = 20;
+    /**
+     * The pattern for the results of a goal in a results file
+     */
+    private static final Pattern RESULT_PATTERN = Pattern.compile("\\{\"goal\": \"([^\"]+)\", \"timeMs\": (-?\\d+), \"peakRssKb\": (-?\\d+)}");
+    /**
+     * The goals to benchmark, in order
+     */
+    private static final String[] GOALS = new String[]{"xowl-addon-package", "xowl-marketplace-package", "xowl-platform-package"};
+    /**
+     * The plugins of the lifecycles for the xOWL packagings, with pinned versions.
+     * The goals are invoked directly so that these are not executed,
+     * but their versions must be known to build the projects without resolving metadata.
+     */
+    private static final String[][] LIFECYCLE_PLUGINS = new String[][]{
+            {"maven-resources-plugin", "3.3.1"},
+            {"maven-compiler-plugin", "3.13.0"},
+            {"maven-surefire-plugin", "3.2.5"},
+            {"maven-install-plugin", "3.1.2"},
+            {"maven-deploy-plugin", "3.1.2"}
+    };
+
+    /**
+     * The options for this run
+     */
+    private final Map<String, String> options;
+    /**
+     * The working directory
+     */
+    private final File work;
+    /**
+     * The number of runs for each goal
+     */
+    private final int runs;
+
+    /**
+     * Initializes this benchmark
+     *
+     * @param options The options for this run
+     */
+    private EndToEndBenchmark(Map<String, String> options) {
+        this.options = options;
+        this.work = new File(getOption("work", "e2e")).getAbsoluteFile();
+        this.runs = Integer.parseInt(getOption("runs", "3"));
+    }
+
+    /**
+     * The main entry point
+     *
+     * @param args The command line arguments, as {@code --name=value} options
+     * @throws Exception When the benchmark failed
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0)
+            printUsage();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                printUsage();
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new EndToEndBenchmark(options).run());
+    }
+
+    /**
+     * Prints the usage of the harness and exits
+     */
+    private static void printUsage() {
+        System.err.println("Usage: EndToEndBenchmark --name=value...");
+        System.err.println("  --work=<dir>                  The working directory, deleted first (default: e2e)");
+        System.err.println("  --bundles=<n>                 The number of synthetic bundles (default: 50)");
+        System.err.println("  --addons=<n>                  The number of synthetic addons (default: 10)");
+        System.err.println("  --bundle-size=<kb>            The approximate size of the bundles (default: 200)");
+        System.err.println("  --runs=<n>                    The number of runs for each goal (default: 3)");
+        System.err.println("  --maven=<command>             The Maven command (default: mvn)");
+        System.err.println("  --plugin-version=<version>    The version of the plugin (default: the one on the classpath)");
+        System.err.println("  --local-repository=<dir>      The local repository containing the plugin (default: ~/.m2/repository)");
+        System.err.println("  --output=<file>               The file for the results (default: e2e-result.json)");
+        System.err.println("  --baseline=<file>             The results of a previous run to compare with");
+        System.err.println("  --max-time-regression=<%>     The tolerated increase of the time (default: 10)");
+        System.err.println("  --max-rss-regression=<%>      The tolerated increase of the peak memory (default: 10)");
+        System.err.println("At least one option is required, e.g. --runs=3 for a run with the defaults.");
+        System.exit(2);
+    }
+
+    /**
+     * Gets the value of an option
+     *
+     * @param name         The name of the option
+     * @param defaultValue The default value
+     * @return The value
+     */
+    private String getOption(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Executes this benchmark
+     *
+     * @return The exit code
+     * @throws IOException          When an IO error occurs
+     * @throws InterruptedException When the benchmark was interrupted
+     */
+    private int run() throws IOException, InterruptedException {
+        DistributionState.delete(work.toPath());
+        File repositoryRoot = new File(work, "repository");
+        StandInRepository repository = new StandInRepository(repositoryRoot, SEED);
+        int bundleSize = Integer.parseInt(getOption("bundle-size", "200")) * 1024;
+        System.out.println("Generating the stand-in repository in " + repositoryRoot.getAbsolutePath());
+        repository.generateBundles(Integer.parseInt(getOption("bundles", "50")), bundleSize);
+        repository.generateAddons(Integer.parseInt(getOption("addons", "10")), 5, bundleSize);
+        repository.generateFelix(new File(work, "felix"));
+        File settings = writeSettings(repositoryRoot);
+        String pluginVersion = options.containsKey("plugin-version") ? options.get("plugin-version") : getPluginVersion();
+        writeProjects(repository, pluginVersion);
+
+        List<long[]> results = new ArrayList<>();
+        for (String goal : GOALS) {
+            long[] times = new long[runs];
+            long peak = -1;
+            for (int i = 0; i != runs; i++) {
+                long[] measure = runGoal(goal, pluginVersion, settings, i);
+                if (measure == null)
+                    return 1;
+                times[i] = measure[0];
+                peak = Math.max(peak, measure[1]);
+            }
+            Arrays.sort(times);
+            results.add(new long[]{times[runs / 2], peak});
+            System.out.println(goal + ": " + times[runs / 2] + " ms (median of " + runs + "), peak RSS " + (peak < 0 ? "n/a" : peak + " kB"));
+        }
+
+        File output = new File(getOption("output", "e2e-result.json"));
+        writeResults(output, results);
+        System.out.println("Results written to " + output.getAbsolutePath());
+        String baseline = options.get("baseline");
+        if (baseline == null)
+            return 0;
+        return checkRegressions(new File(baseline), results) ? 1 : 0;
+    }
+
+    /**
+     * Gets the version of the plugin on the classpath
+     *
+     * @return The version of the plugin
+     * @throws IOException When the version is not available
+     */
+    private static String getPluginVersion() throws IOException {
+        try (InputStream stream = EndToEndBenchmark.class.getResourceAsStream("/META-INF/maven/" + PLUGIN_GROUP_ID + "/" + PLUGIN_ARTIFACT_ID + "/pom.properties")) {
+            if (stream == null)
+                throw new IOException("The version of the plugin is not available, specify it with --plugin-version");
+            Properties properties = new Properties();
+            properties.load(stream);
+            return properties.getProperty("version");
+        }
+    }
+
+    /**
+     * Writes the Maven settings for the runs
+     *
+     * @param repositoryRoot The root of the stand-in repository
+     * @return The settings file
+     * @throws IOException When an IO error occurs
+     */
+    private File writeSettings(File repositoryRoot) throws IOException {
+        File settings = new File(work, "settings.xml");
+        writeContent(settings, "<settings xmlns=\"http://maven.apache.org/SETTINGS/1.0.0\">\n" +
+                "    <localRepository>" + repositoryRoot.getAbsolutePath() + "</localRepository>\n" +
+                "    <offline>true</offline>\n" +
+                "</settings>\n");
+        return settings;
+    }
+
+    /**
+     * Writes the projects for the benchmarked goals
+     *
+     * @param repository    The stand-in repository
+     * @param pluginVersion The version of the plugin
+     * @throws IOException When an IO error occurs
+     */
+    private void writeProjects(StandInRepository repository, String pluginVersion) throws IOException {
+        StringBuilder bundles = new StringBuilder();
+        for (String bundle : repository.getBundles())
+            appendDependency(bundles, StandInRepository.GROUP_ID, bundle, StandInRepository.VERSION, "jar");
+        StringBuilder addons = new StringBuilder();
+        for (String addon : repository.getAddons())
+            appendDependency(addons, StandInRepository.GROUP_ID, addon, StandInRepository.VERSION, "xowl-addon");
+        StringBuilder platform = new StringBuilder();
+        appendDependency(platform, StandInRepository.FELIX_GROUP_ID, StandInRepository.FELIX_ARTIFACT_ID, StandInRepository.FELIX_VERSION, "tar.gz");
+        platform.append(bundles);
+
+        writeProject(GOALS[0], "xowl-addon", bundles.toString(), "", pluginVersion);
+        writeProject(GOALS[1], "xowl-marketplace", addons.toString(), "", pluginVersion);
+        File resources = new File(getProjectDirectory(GOALS[2]), "resources");
+        new SyntheticDistribution(SEED).generate(resources, SyntheticDistribution.Shape.SMALL_FILES, 1);
+        writeProject(GOALS[2], "xowl-platform", platform.toString(),
+                "<resources><resource>" + new File(resources, "web").getAbsolutePath() + "</resource></resources>",
+                pluginVersion);
+    }
+
+    /**
+     * Appends a dependency to a POM fragment
+     *
+     * @param builder    The builder for the fragment
+     * @param groupId    The groupId of the dependency
+     * @param artifactId The artifactId of the dependency
+     * @param version    The version of the dependency
+     * @param type       The type of the dependency
+     */
+    private static void appendDependency(StringBuilder builder, String groupId, String artifactId, String version, String type) {
+        builder.append("        <dependency><groupId>").append(groupId)
+                .append("</groupId><artifactId>").append(artifactId)
+                .append("</artifactId><version>").append(version)
+                .append("</version><type>").append(type)
+                .append("</type></dependency>\n");
+    }
+
+    /**
+     * Gets the directory of the project for a goal
+     *
+     * @param goal The goal
+     * @return The directory of the project
+     */
+    private File getProjectDirectory(String goal) {
+        return new File(work, "projects/" + goal);
+    }
+
+    /**
+     * Writes the project for a goal
+     *
+     * @param goal          The goal
+     * @param packaging     The packaging of the project
+     * @param dependencies  The dependencies of the project
+     * @param configuration The configuration of the plugin
+     * @param pluginVersion The version of the plugin
+     * @throws IOException When an IO error occurs
+     */
+    private void writeProject(String goal, String packaging, String dependencies, String configuration, String pluginVersion) throws IOException {
+        File directory = getProjectDirectory(goal);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create directory " + directory.getAbsolutePath());
+        StringBuilder lifecycle = new StringBuilder();
+        for (String[] plugin : LIFECYCLE_PLUGINS)
+            lifecycle.append("        <plugin><groupId>org.apache.maven.plugins</groupId><artifactId>").append(plugin[0])
+                    .append("</artifactId><version>").append(plugin[1]).append("</version></plugin>\n");
+        writeContent(new File(directory, "pom.xml"), "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                "    <modelVersion>4.0.0</modelVersion>\n" +
+                "    <groupId>" + StandInRepository.GROUP_ID + "</groupId>\n" +
+                "    <artifactId>benchmark-" + packaging + "</artifactId>\n" +
+                "    <version>" + StandInRepository.VERSION + "</version>\n" +
+                "    <packaging>" + packaging + "</packaging>\n" +
+                "    <name>Benchmark " + packaging + "</name>\n" +
+                "    <description>Synthetic project for benchmarking " + goal + "</description>\n" +
+                "    <url>https://xowl.org/</url>\n" +
+                "    <licenses><license><name>LGPLv3</name><url>http://www.gnu.org/licenses/lgpl.txt</url></license></licenses>\n" +
+                "    <organization><name>Association Cénotélie</name><url>http://cenotelie.fr/</url></organization>\n" +
+                "    <dependencies>\n" + dependencies + "    </dependencies>\n" +
+                "    <build><pluginManagement><plugins>\n" + lifecycle + "    </plugins></pluginManagement><plugins><plugin>\n" +
+                "        <groupId>" + PLUGIN_GROUP_ID + "</groupId>\n" +
+                "        <artifactId>" + PLUGIN_ARTIFACT_ID + "</artifactId>\n" +
+                "        <version>" + pluginVersion + "</version>\n" +
+                "        <extensions>true</extensions>\n" +
+                "        <configuration>" + configuration + "</configuration>\n" +
+                "    </plugin></plugins></build>\n" +
+                "</project>\n");
+    }
+
+    /**
+     * Runs a goal once
+     *
+     * @param goal          The goal to run
+     * @param pluginVersion The version of the plugin
+     * @param settings      The Maven settings
+     * @param index         The index of the run
+     * @return The time in milliseconds and the peak resident memory in kB (-1 if not available), or null when the goal failed
+     * @throws IOException          When an IO error occurs
+     * @throws InterruptedException When the benchmark was interrupted
+     */
+    private long[] runGoal(String goal, String pluginVersion, File settings, int index) throws IOException, InterruptedException {
+        File directory = getProjectDirectory(goal);
+        DistributionState.delete(new File(directory, "target").toPath());
+        File log = new File(work, "logs/" + goal + "-" + index + ".log");
+        if (!log.getParentFile().isDirectory() && !log.getParentFile().mkdirs())
+            throw new IOException("Failed to create directory " + log.getParentFile().getAbsolutePath());
+        String tail = getOption("local-repository", System.getProperty("user.home") + "/.m2/repository");
+        ProcessBuilder builder = new ProcessBuilder(
+                getOption("maven", "mvn"),
+                "-B",
+                "-o",
+                "-s", settings.getAbsolutePath(),
+                "-Dmaven.repo.local.tail=" + tail,
+                PLUGIN_GROUP_ID + ":" + PLUGIN_ARTIFACT_ID + ":" + pluginVersion + ":" + goal);
+        builder.directory(directory);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long peak = -1;
+        while (!process.waitFor(SAMPLE_INTERVAL, java.util.concurrent.TimeUnit.MILLISECONDS))
+            peak = Math.max(peak, samplePeakRss(process.toHandle()));
+        long time = (System.nanoTime() - start) / 1000000;
+        if (process.exitValue() != 0) {
+            System.err.println(goal + " failed, see " + log.getAbsolutePath());
+            return null;
+        }
+        return new long[]{time, peak};
+    }
+
+    /**
+     * Samples the peak resident memory of a process and its descendants
+     *
+     * @param process The process
+     * @return The peak resident memory in kB, or -1 if not available
+     */
+    private static long samplePeakRss(ProcessHandle process) {
+        long result = readPeakRss(process.pid());
+        Iterator<ProcessHandle> descendants = process.descendants().iterator();
+        while (descendants.hasNext())
+            result = Math.max(result, readPeakRss(descendants.next().pid()));
+        return result;
+    }
+
+    /**
+     * Reads the peak resident memory of a process (VmHWM)
+     *
+     * @param pid The identifier of the process
+     * @return The peak resident memory in kB, or -1 if not available
+     */
+    private static long readPeakRss(long pid) {
+        File status = new File("/proc/" + pid + "/status");
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+            }
+        } catch (IOException | NumberFormatException exception) {
+            // the process has exited, or this is not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the results
+     *
+     * @param output  The output file
+     * @param results The results for each goal
+     * @throws IOException When an IO error occurs
+     */
+    private void writeResults(File output, List<long[]> results) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append("  \"bundles\": ").append(getOption("bundles", "50")).append(",\n");
+        builder.append("  \"addons\": ").append(getOption("addons", "10")).append(",\n");
+        builder.append("  \"bundleSizeKb\": ").append(getOption("bundle-size", "200")).append(",\n");
+        builder.append("  \"runs\": ").append(runs).append(",\n");
+        builder.append("  \"goals\": [\n");
+        for (int i = 0; i != GOALS.length; i++) {
+            builder.append("    {\"goal\": \"").append(GOALS[i])
+                    .append("\", \"timeMs\": ").append(results.get(i)[0])
+                    .append(", \"peakRssKb\": ").append(results.get(i)[1])
+                    .append("}").append(i == GOALS.length - 1 ? "\n" : ",\n");
+        }
+        builder.append("  ]\n");
+        builder.append("}\n");
+        writeContent(output, builder.toString());
+    }
+
+    /**
+     * Compares the results with a baseline
+     *
+     * @param baseline The file for the baseline results
+     * @param results  The results for each goal
+     * @return Whether a regression was detected
+     * @throws IOException When an IO error occurs
+     */
+    private boolean checkRegressions(File baseline, List<long[]> results) throws IOException {
+        Map<String, long[]> reference = new HashMap<>();
+        Matcher matcher = RESULT_PATTERN.matcher(new String(Files.readAllBytes(baseline.toPath()), StandardCharsets.UTF_8));
+        while (matcher.find())
+            reference.put(matcher.group(1), new long[]{Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3))});
+        double maxTime = Double.parseDouble(getOption("max-time-regression", "10"));
+        double maxRss = Double.parseDouble(getOption("max-rss-regression", "10"));
+        boolean regressed = false;
+        for (int i = 0; i != GOALS.length; i++) {
+            long[] previous = reference.get(GOALS[i]);
+            if (previous == null) {
+                System.out.println(GOALS[i] + ": no baseline");
+                continue;
+            }
+            regressed |= checkRegression(GOALS[i], "time", previous[0], results.get(i)[0], maxTime);
+            regressed |= checkRegression(GOALS[i], "peak RSS", previous[1], results.get(i)[1], maxRss);
+        }
+        return regressed;
+    }
+
+    /**
+     * Compares a measure with its baseline
+     *
+     * @param goal      The goal
+     * @param measure   The name of the measure
+     * @param baseline  The baseline value
+     * @param value     The current value
+     * @param tolerance The tolerated increase, in percent
+     * @return Whether this is a regression
+     */
+    private static boolean checkRegression(String goal, String measure, long baseline, long value, double tolerance) {
+        if (baseline <= 0 || value < 0)
+            return false;
+        double change = (value - baseline) * 100.0 / baseline;
+        boolean regressed = change > tolerance;
+        System.out.println(String.format(Locale.ROOT, "%s: %s %+.1f%% (%d -> %d)%s", goal, measure, change, baseline, value, regressed ? " REGRESSION" : ""));
+        return regressed;
+    }
+
+    /**
+     * Writes text content to a file
+     *
+     * @param file    The file
+     * @param content The content
+     * @throws IOException When an IO error occurs
+     */
+    private static void writeContent(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.xowl.toolkit.packaging.TarExtractor;
+import org.xowl.toolkit.packaging.TarWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks the extraction of a base distribution
+ *
+ * @author Laurent Wouters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+    /**
+     * The distribution state, with the distribution packaged as a tar.gz archive
+     */
+    public static class Archive extends DistributionState {
+        /**
+         * The archive of the distribution
+         */
+        public File archive;
+
+        /**
+         * Packages the distribution
+         *
+         * @throws IOException When an IO error occurs
+         */
+        @Setup(Level.Trial)
+        public void setupArchive() throws IOException {
+            archive = new File(workDirectory, "distribution.tar.gz");
+            try (TarArchiveOutputStream stream = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(archive)))) {
+                stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                new TarWriter(stream).writeTree(distribution.toPath(), "distribution");
+            }
+        }
+    }
+
+    /**
+     * The state for the extractor parameters
+     */
+    @State(Scope.Benchmark)
+    public static class ExtractorParameters {
+        /**
+         * The number of threads for writing the extracted files
+         */
+        @Param({"1", "4"})
+        public int extractionThreads;
+    }
+
+    /**
+     * The original implementation
+     *
+     * @param archive The archive state
+     * @return The output directory
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public File legacy(Archive archive) throws IOException {
+        LegacyImplementations.extractTarGz(archive.archive, archive.output);
+        return archive.output;
+    }
+
+    /**
+     * The current implementation
+     *
+     * @param archive    The archive state
+     * @param parameters The parameters for the extractor
+     * @return The number of extracted bytes
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long extractor(Archive archive, ExtractorParameters parameters) throws IOException {
+        TarExtractor extractor = new TarExtractor(parameters.extractionThreads);
+        extractor.extract(archive.archive, archive.output);
+        return extractor.getByteCount();
+    }
+}
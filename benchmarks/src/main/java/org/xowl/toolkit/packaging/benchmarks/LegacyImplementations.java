@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The implementations of the archive hot paths as they were in the 2.1.x versions of the plugin.
+ * They are kept here as the baselines for the benchmarks.
+ *
+ * @author Laurent Wouters
+ */
+public final class LegacyImplementations {
+    /**
+     * The mode for executable files in tar archives
+     */
+    private static final int EXECUTABLE_MODE = 0100755;
+
+    /**
+     * Prevents instantiation
+     */
+    private LegacyImplementations() {
+    }
+
+    /**
+     * Adds a file to a zip package, always deflated and fully loaded in memory
+     *
+     * @param stream    The stream to the zip package
+     * @param file      The file to add
+     * @param entryName The name of the zip entry
+     * @throws IOException When an IO operation failed
+     */
+    public static void zipAddFile(ZipOutputStream stream, File file, String entryName) throws IOException {
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setMethod(ZipEntry.DEFLATED);
+        stream.putNextEntry(entry);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        stream.write(bytes, 0, bytes.length);
+        stream.closeEntry();
+    }
+
+    /**
+     * Adds a directory to a tar archive, recursively
+     *
+     * @param outputStream The stream to write to
+     * @param directory    The directory to put into the archive
+     * @param path         The current path in the archive
+     * @throws IOException When an IO error occurs
+     */
+    public static void packageTarGzDirectory(TarArchiveOutputStream outputStream, File directory, String path) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(directory, path);
+        outputStream.putArchiveEntry(entry);
+        outputStream.closeArchiveEntry();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File child : files) {
+            if (child.isDirectory())
+                packageTarGzDirectory(outputStream, child, path + "/" + child.getName());
+            else {
+                entry = new TarArchiveEntry(child, path + "/" + child.getName());
+                if (child.canExecute())
+                    entry.setMode(EXECUTABLE_MODE);
+                outputStream.putArchiveEntry(entry);
+                try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(child))) {
+                    IOUtils.copy(bis, outputStream);
+                }
+                outputStream.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * Extracts a tar.gz file
+     *
+     * @param input  The input tar.gz file
+     * @param output The output directory
+     * @throws IOException When an IO error occurs
+     */
+    public static void extractTarGz(File input, File output) throws IOException {
+        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(input)))) {
+            while (true) {
+                TarArchiveEntry entry = inputStream.getNextTarEntry();
+                if (entry == null)
+                    break;
+                if (entry.isDirectory()) {
+                    File directory = new File(output, entry.getName());
+                    if (!directory.isDirectory() && !directory.mkdirs())
+                        throw new IOException("Failed to extract " + input.getAbsolutePath());
+                } else {
+                    File target = new File(output, entry.getName());
+                    File directory = target.getParentFile();
+                    if (!directory.exists() && !directory.mkdirs())
+                        throw new IOException("Failed to extract " + input.getAbsolutePath());
+                    try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
+                        IOUtils.copy(inputStream, fileOutputStream);
+                    }
+                    if (entry.getMode() == EXECUTABLE_MODE && !target.setExecutable(true, false))
+                        throw new IOException("Failed to set executable bit on " + target.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a resource, recursively for directories
+     *
+     * @param origin The origin file
+     * @param target The target file
+     * @throws IOException When an IO error occurs
+     */
+    public static void copyResource(File origin, File target) throws IOException {
+        if (origin.isDirectory()) {
+            if (!target.exists() && !target.mkdirs())
+                throw new IOException("Failed to copy " + origin.getAbsolutePath() + " to " + target.getAbsolutePath());
+            File[] children = origin.listFiles();
+            if (children == null)
+                return;
+            for (int i = 0; i != children.length; i++)
+                copyResource(children[i], new File(target, children[i].getName()));
+        } else {
+            Files.copy(origin.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.xowl.toolkit.packaging.DeploymentStrategy;
+import org.xowl.toolkit.packaging.FileDeployer;
+import org.xowl.toolkit.packaging.ResourceDeployer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the deployment of resources into a distribution
+ *
+ * @author Laurent Wouters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourceCopyBenchmark {
+    /**
+     * The state for the deployer parameters
+     */
+    @State(Scope.Benchmark)
+    public static class DeployerParameters {
+        /**
+         * The deployment strategy
+         */
+        @Param({"copy", "hardlink"})
+        public String strategy;
+        /**
+         * The number of threads for deploying
+         */
+        @Param({"1", "4"})
+        public int resourceThreads;
+    }
+
+    /**
+     * The original implementation: recursive, sequential copy
+     *
+     * @param distribution The distribution state
+     * @return The output directory
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public File legacy(DistributionState distribution) throws IOException {
+        File target = new File(distribution.output, distribution.distribution.getName());
+        LegacyImplementations.copyResource(distribution.distribution, target);
+        return target;
+    }
+
+    /**
+     * The current implementation
+     *
+     * @param distribution The distribution state
+     * @param parameters   The parameters for the deployer
+     * @return The number of deployed files
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long deployer(DistributionState distribution, DeployerParameters parameters) throws IOException {
+        FileDeployer deployer = new FileDeployer(DeploymentStrategy.fromName(parameters.strategy), false);
+        new ResourceDeployer(deployer, parameters.resourceThreads).deploy(new File[]{distribution.distribution}, distribution.output);
+        return deployer.getFileCount();
+    }
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.xowl.toolkit.packaging.TarWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A stand-in Maven repository populated with synthetic artifacts.
+ * The packaging goals resolve their inputs without remote repositories,
+ * so this uses the layout of a local repository and is meant to be used as one.
+ *
+ * @author Laurent Wouters
+ */
+public class StandInRepository {
+    /**
+     * The groupId of the synthetic artifacts
+     */
+    public static final String GROUP_ID = "org.xowl.synthetic";
+    /**
+     * The version of the synthetic artifacts
+     */
+    public static final String VERSION = "1.0.0";
+    /**
+     * The groupId of the Felix distribution
+     */
+    public static final String FELIX_GROUP_ID = "org.apache.felix";
+    /**
+     * The artifactId of the Felix distribution
+     */
+    public static final String FELIX_ARTIFACT_ID = "org.apache.felix.main.distribution";
+    /**
+     * The version of the synthetic Felix distribution
+     */
+    public static final String FELIX_VERSION = "5.6.1";
+
+    /**
+     * The root of the repository
+     */
+    private final File root;
+    /**
+     * The generator for the content
+     */
+    private final SyntheticDistribution generator;
+    /**
+     * The artifactIds of the generated bundles
+     */
+    private final List<String> bundles;
+    /**
+     * The artifactIds of the generated addons
+     */
+    private final List<String> addons;
+
+    /**
+     * Initializes this repository
+     *
+     * @param root The root of the repository
+     * @param seed The seed for the content
+     */
+    public StandInRepository(File root, long seed) {
+        this.root = root;
+        this.generator = new SyntheticDistribution(seed);
+        this.bundles = new ArrayList<>();
+        this.addons = new ArrayList<>();
+    }
+
+    /**
+     * Gets the root of the repository
+     *
+     * @return The root of the repository
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets the artifactIds of the generated bundles
+     *
+     * @return The artifactIds of the bundles
+     */
+    public List<String> getBundles() {
+        return bundles;
+    }
+
+    /**
+     * Gets the artifactIds of the generated addons
+     *
+     * @return The artifactIds of the addons
+     */
+    public List<String> getAddons() {
+        return addons;
+    }
+
+    /**
+     * Generates the bundles, with their (dummy) signatures
+     *
+     * @param count The number of bundles
+     * @param size  The approximate uncompressed size of each bundle
+     * @throws IOException When an IO error occurs
+     */
+    public void generateBundles(int count, int size) throws IOException {
+        for (int i = 0; i != count; i++) {
+            String artifactId = "bundle" + i;
+            File file = getArtifactFile(GROUP_ID, artifactId, VERSION, "jar");
+            generator.writeJar(file, GROUP_ID + "." + artifactId, VERSION, size);
+            writeContent(getArtifactFile(GROUP_ID, artifactId, VERSION, "jar.asc"), "synthetic signature");
+            writePom(GROUP_ID, artifactId, VERSION, "jar");
+            bundles.add(artifactId);
+        }
+    }
+
+    /**
+     * Generates the addons, with their descriptors and (dummy) signatures
+     *
+     * @param count   The number of addons
+     * @param bundles The number of bundles in each addon
+     * @param size    The approximate uncompressed size of each bundle
+     * @throws IOException When an IO error occurs
+     */
+    public void generateAddons(int count, int bundles, int size) throws IOException {
+        File temp = new File(root, "addon.jar");
+        for (int i = 0; i != count; i++) {
+            String artifactId = "addon" + i;
+            String descriptor = "{\"identifier\": \"" + GROUP_ID + "." + artifactId + "\", \"name\": \"Addon " + i + "\", \"version\": {\"number\": \"" + VERSION + "\"}, \"bundles\": []}";
+            File file = getArtifactFile(GROUP_ID, artifactId, VERSION, "zip");
+            try (ZipOutputStream stream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                stream.putNextEntry(new ZipEntry("descriptor.json"));
+                stream.write(descriptor.getBytes(StandardCharsets.UTF_8));
+                stream.closeEntry();
+                for (int j = 0; j != bundles; j++) {
+                    generator.writeJar(temp, GROUP_ID + "." + artifactId + ".bundle" + j, VERSION, size);
+                    stream.putNextEntry(new ZipEntry(GROUP_ID + "." + artifactId + ".bundle" + j + "-" + VERSION + ".jar"));
+                    Files.copy(temp.toPath(), stream);
+                    stream.closeEntry();
+                }
+            }
+            writeContent(getArtifactFile(GROUP_ID, artifactId, VERSION, "json"), descriptor);
+            writeContent(getArtifactFile(GROUP_ID, artifactId, VERSION, "zip.asc"), "synthetic signature");
+            writeContent(getArtifactFile(GROUP_ID, artifactId, VERSION, "json.asc"), "synthetic signature");
+            writePom(GROUP_ID, artifactId, VERSION, "xowl-addon");
+            addons.add(artifactId);
+        }
+        Files.deleteIfExists(temp.toPath());
+    }
+
+    /**
+     * Generates a distribution with the layout of the Felix framework distribution
+     *
+     * @param work The directory for the temporary files
+     * @throws IOException When an IO error occurs
+     */
+    public void generateFelix(File work) throws IOException {
+        File distribution = new File(work, "felix-framework-" + FELIX_VERSION);
+        generator.writeJar(new File(distribution, "bin/felix.jar"), "org.apache.felix.main", FELIX_VERSION, 600 * 1024);
+        generator.writeJar(new File(distribution, "bundle/org.apache.felix.bundlerepository-2.0.10.jar"), "org.apache.felix.bundlerepository", "2.0.10", 150 * 1024);
+        generator.writeJar(new File(distribution, "bundle/org.apache.felix.gogo.command-1.0.2.jar"), "org.apache.felix.gogo.command", "1.0.2", 50 * 1024);
+        generator.writeJar(new File(distribution, "bundle/org.apache.felix.gogo.runtime-1.0.4.jar"), "org.apache.felix.gogo.runtime", "1.0.4", 100 * 1024);
+        generator.writeJar(new File(distribution, "bundle/org.apache.felix.gogo.shell-1.0.0.jar"), "org.apache.felix.gogo.shell", "1.0.0", 80 * 1024);
+        generator.writeText(new File(distribution, "conf/config.properties"), 2 * 1024);
+        generator.writeText(new File(distribution, "LICENSE"), 12 * 1024);
+        generator.writeText(new File(distribution, "NOTICE"), 1024);
+        File file = getArtifactFile(FELIX_GROUP_ID, FELIX_ARTIFACT_ID, FELIX_VERSION, "tar.gz");
+        try (TarArchiveOutputStream stream = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+            stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            new TarWriter(stream).writeTree(distribution.toPath(), distribution.getName());
+        }
+        writePom(FELIX_GROUP_ID, FELIX_ARTIFACT_ID, FELIX_VERSION, "pom");
+    }
+
+    /**
+     * Gets the file for an artifact in this repository, creating its parent directory
+     *
+     * @param groupId    The groupId of the artifact
+     * @param artifactId The artifactId of the artifact
+     * @param version    The version of the artifact
+     * @param extension  The extension of the artifact file
+     * @return The file for the artifact
+     * @throws IOException When the parent directory could not be created
+     */
+    public File getArtifactFile(String groupId, String artifactId, String version, String extension) throws IOException {
+        File directory = new File(root, groupId.replace('.', '/') + "/" + artifactId + "/" + version);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create directory " + directory.getAbsolutePath());
+        return new File(directory, artifactId + "-" + version + "." + extension);
+    }
+
+    /**
+     * Writes a minimal POM for an artifact
+     *
+     * @param groupId    The groupId of the artifact
+     * @param artifactId The artifactId of the artifact
+     * @param version    The version of the artifact
+     * @param packaging  The packaging of the artifact
+     * @throws IOException When an IO error occurs
+     */
+    private void writePom(String groupId, String artifactId, String version, String packaging) throws IOException {
+        writeContent(getArtifactFile(groupId, artifactId, version, "pom"),
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                        "    <modelVersion>4.0.0</modelVersion>\n" +
+                        "    <groupId>" + groupId + "</groupId>\n" +
+                        "    <artifactId>" + artifactId + "</artifactId>\n" +
+                        "    <version>" + version + "</version>\n" +
+                        "    <packaging>" + packaging + "</packaging>\n" +
+                        "</project>\n");
+    }
+
+    /**
+     * Writes text content to a file
+     *
+     * @param file    The file
+     * @param content The content
+     * @throws IOException When an IO error occurs
+     */
+    private static void writeContent(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
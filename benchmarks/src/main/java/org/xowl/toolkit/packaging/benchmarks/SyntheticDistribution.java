@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic distributions for the benchmarks.
+ * The content is pseudo-random but deterministic for a given seed,
+ * with a mix of compressible (text-like) and incompressible data close to real bundles.
+ *
+ * @author Laurent Wouters
+ */
+public final class SyntheticDistribution {
+    /**
+     * The shapes of synthetic distributions
+     */
+    public enum Shape {
+        /**
+         * Many small text files in a few directories (configuration, web UI)
+         */
+        SMALL_FILES,
+        /**
+         * A few large jars
+         */
+        LARGE_JARS,
+        /**
+         * Deeply nested directories with a few files each
+         */
+        NESTED,
+        /**
+         * A mix close to a real platform: Felix, bundles, configuration and web resources
+         */
+        MIXED
+    }
+
+    /**
+     * The words for the text-like content
+     */
+    private static final String[] WORDS = new String[]{
+            "xowl", "platform", "bundle", "felix", "service", "import", "export", "package", "version", "config",
+            "value", "true", "false", "null", "identifier", "name", "description", "http", "resource", "<div>",
+            "</div>", "function", "return", "var", "class", "org.xowl", "fr.cenotelie", "{", "}", "\n"
+    };
+
+    /**
+     * The random generator
+     */
+    private final Random random;
+    /**
+     * The total number of generated files
+     */
+    private int fileCount;
+    /**
+     * The total size of the generated files
+     */
+    private long byteCount;
+
+    /**
+     * Initializes this generator
+     *
+     * @param seed The seed for the content
+     */
+    public SyntheticDistribution(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Gets the total number of generated files
+     *
+     * @return The number of files
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Gets the total size of the generated files
+     *
+     * @return The size in bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Generates a distribution
+     *
+     * @param root  The root directory for the distribution
+     * @param shape The shape of the distribution
+     * @param scale The scale factor for the number of files
+     * @throws IOException When an IO error occurs
+     */
+    public void generate(File root, Shape shape, int scale) throws IOException {
+        switch (shape) {
+            case SMALL_FILES:
+                generateSmallFiles(new File(root, "web"), 2000 * scale, 20);
+                break;
+            case LARGE_JARS:
+                generateJars(new File(root, "felix/bundle"), 8 * scale, 2 * 1024 * 1024);
+                break;
+            case NESTED:
+                generateNested(new File(root, "doc"), 6, 3, 2 * scale);
+                break;
+            case MIXED:
+                generateJars(new File(root, "felix/bin"), 1, 600 * 1024);
+                generateJars(new File(root, "felix/bundle"), 40 * scale, 200 * 1024);
+                generateSmallFiles(new File(root, "felix/conf"), 5, 1);
+                generateSmallFiles(new File(root, "config"), 200 * scale, 4);
+                generateNested(new File(root, "web"), 3, 4, 10 * scale);
+                File script = new File(root, "admin.sh");
+                writeText(script, 512);
+                if (!script.setExecutable(true, false))
+                    throw new IOException("Failed to set executable bit on " + script.getAbsolutePath());
+                break;
+        }
+    }
+
+    /**
+     * Generates small text files
+     *
+     * @param directory   The parent directory
+     * @param count       The number of files
+     * @param directories The number of directories to spread the files in
+     * @throws IOException When an IO error occurs
+     */
+    private void generateSmallFiles(File directory, int count, int directories) throws IOException {
+        for (int i = 0; i != count; i++) {
+            File folder = directories == 1 ? directory : new File(directory, "d" + (i % directories));
+            writeText(new File(folder, "file" + i + ".txt"), 256 + random.nextInt(8 * 1024));
+        }
+    }
+
+    /**
+     * Generates nested directories with a few files each
+     *
+     * @param directory The parent directory
+     * @param depth     The remaining depth
+     * @param fanout    The number of sub-directories per directory
+     * @param files     The number of files per directory
+     * @throws IOException When an IO error occurs
+     */
+    private void generateNested(File directory, int depth, int fanout, int files) throws IOException {
+        for (int i = 0; i != files; i++)
+            writeText(new File(directory, "page" + i + ".html"), 128 + random.nextInt(4 * 1024));
+        if (depth == 0)
+            return;
+        for (int i = 0; i != fanout; i++)
+            generateNested(new File(directory, "level" + depth + "_" + i), depth - 1, fanout, files);
+    }
+
+    /**
+     * Generates jar files
+     *
+     * @param directory The parent directory
+     * @param count     The number of jars
+     * @param size      The approximate uncompressed size of each jar
+     * @throws IOException When an IO error occurs
+     */
+    private void generateJars(File directory, int count, int size) throws IOException {
+        for (int i = 0; i != count; i++)
+            writeJar(new File(directory, "org.xowl.synthetic.bundle" + i + "-1.0." + i + ".jar"), "org.xowl.synthetic.bundle" + i, "1.0." + i, size);
+    }
+
+    /**
+     * Writes a jar file with a bundle manifest and class-like entries
+     *
+     * @param file         The jar file to write
+     * @param symbolicName The symbolic name of the bundle
+     * @param version      The version of the bundle
+     * @param size         The approximate uncompressed size of the jar
+     * @throws IOException When an IO error occurs
+     */
+    public void writeJar(File file, String symbolicName, String version, int size) throws IOException {
+        ensureParent(file);
+        String path = symbolicName.replace('.', '/');
+        try (ZipOutputStream stream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            stream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            stream.write(("Manifest-Version: 1.0\nBundle-ManifestVersion: 2\nBundle-SymbolicName: " + symbolicName + "\nBundle-Version: " + version + "\n").getBytes(StandardCharsets.UTF_8));
+            stream.closeEntry();
+            int written = 0;
+            for (int j = 0; written < size; j++) {
+                int length = 2 * 1024 + random.nextInt(16 * 1024);
+                stream.putNextEntry(new ZipEntry(path + "/Class" + j + ".class"));
+                stream.write(newClassLike(length));
+                stream.closeEntry();
+                written += length;
+            }
+        }
+        fileCount++;
+        byteCount += file.length();
+    }
+
+    /**
+     * Writes a text-like file
+     *
+     * @param file The file
+     * @param size The size of the file
+     * @throws IOException When an IO error occurs
+     */
+    public void writeText(File file, int size) throws IOException {
+        ensureParent(file);
+        StringBuilder builder = new StringBuilder(size + 16);
+        while (builder.length() < size) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+            builder.append(' ');
+        }
+        byte[] content = builder.toString().getBytes(StandardCharsets.UTF_8);
+        try (OutputStream stream = new FileOutputStream(file)) {
+            stream.write(content);
+        }
+        fileCount++;
+        byteCount += content.length;
+    }
+
+    /**
+     * Creates content that compresses roughly like class files
+     *
+     * @param length The length of the content
+     * @return The content
+     */
+    private byte[] newClassLike(int length) {
+        byte[] result = new byte[length];
+        int i = 0;
+        while (i < length) {
+            if (random.nextBoolean()) {
+                byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.UTF_8);
+                for (int j = 0; j != word.length && i < length; j++)
+                    result[i++] = word[j];
+            } else {
+                int run = Math.min(length - i, 1 + random.nextInt(8));
+                for (int j = 0; j != run; j++)
+                    result[i++] = (byte) random.nextInt(256);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes sure the parent directory of a file exists
+     *
+     * @param file The file
+     * @throws IOException When the directory could not be created
+     */
+    private static void ensureParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create directory " + parent.getAbsolutePath());
+    }
+}
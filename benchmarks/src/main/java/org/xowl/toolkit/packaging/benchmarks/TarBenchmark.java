@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.xowl.toolkit.packaging.ParallelGzipOutputStream;
+import org.xowl.toolkit.packaging.TarWriter;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks the packaging of a distribution directory into a tar archive
+ *
+ * @author Laurent Wouters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TarBenchmark {
+    /**
+     * The state for the compression of the archive
+     */
+    @State(Scope.Benchmark)
+    public static class Compression {
+        /**
+         * The codec: none (plain tar, isolates the tar writing), gzip or pgzip (parallel gzip)
+         */
+        @Param({"none", "gzip", "pgzip"})
+        public String codec;
+        /**
+         * The number of threads for the parallel gzip codec
+         */
+        @Param({"4"})
+        public int gzipThreads;
+
+        /**
+         * Opens the compressing stream
+         *
+         * @param output The stream to the output file
+         * @return The compressing stream
+         * @throws IOException When an IO error occurs
+         */
+        public OutputStream open(OutputStream output) throws IOException {
+            OutputStream buffered = new BufferedOutputStream(output, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+            switch (codec) {
+                case "gzip":
+                    return new GZIPOutputStream(buffered, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+                case "pgzip":
+                    return new ParallelGzipOutputStream(buffered, Deflater.DEFAULT_COMPRESSION, gzipThreads, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+                default:
+                    return buffered;
+            }
+        }
+    }
+
+    /**
+     * The original implementation: recursive, File-based and gzip-compressed
+     *
+     * @param distribution The distribution state
+     * @return The size of the archive
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long legacy(DistributionState distribution) throws IOException {
+        File target = new File(distribution.output, "distribution.tar.gz");
+        try (TarArchiveOutputStream stream = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(target)))) {
+            stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            LegacyImplementations.packageTarGzDirectory(stream, distribution.distribution, "distribution");
+        }
+        return target.length();
+    }
+
+    /**
+     * The current implementation
+     *
+     * @param distribution The distribution state
+     * @param compression  The compression of the archive
+     * @return The size of the archive
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long writer(DistributionState distribution, Compression compression) throws IOException {
+        File target = new File(distribution.output, "distribution.tar");
+        try (TarArchiveOutputStream stream = new TarArchiveOutputStream(compression.open(new FileOutputStream(target)))) {
+            stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            new TarWriter(stream).writeTree(distribution.distribution.toPath(), "distribution");
+        }
+        return target.length();
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.xowl.toolkit.packaging.CompressionPolicy;
+import org.xowl.toolkit.packaging.CompressionStatistics;
+import org.xowl.toolkit.packaging.ZipPackageWriter;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Benchmarks the writing of zip packages (addons and marketplaces)
+ *
+ * @author Laurent Wouters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+    /**
+     * The state for the zip writer parameters
+     */
+    @State(Scope.Benchmark)
+    public static class WriterParameters {
+        /**
+         * The number of compression threads
+         */
+        @Param({"1", "4"})
+        public int zipThreads;
+    }
+
+    /**
+     * The state holding the entries to add to the package
+     */
+    @State(Scope.Benchmark)
+    public static class Entries {
+        /**
+         * The files to add
+         */
+        public final List<File> files = new ArrayList<>();
+        /**
+         * The names of the entries
+         */
+        public final List<String> names = new ArrayList<>();
+
+        /**
+         * Lists the files of the distribution
+         *
+         * @param distribution The distribution state
+         * @throws IOException When an IO error occurs
+         */
+        @Setup(Level.Trial)
+        public void setup(DistributionState distribution) throws IOException {
+            final Path root = distribution.distribution.toPath();
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    files.add(file.toFile());
+                    names.add(root.relativize(file).toString().replace(File.separatorChar, '/'));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * The original implementation: every entry loaded in memory and deflated on a single thread
+     *
+     * @param distribution The distribution state
+     * @param entries      The entries to add
+     * @return The size of the package
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long legacy(DistributionState distribution, Entries entries) throws IOException {
+        File target = new File(distribution.output, "package.zip");
+        try (ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(target))) {
+            for (int i = 0; i != entries.files.size(); i++)
+                LegacyImplementations.zipAddFile(stream, entries.files.get(i), entries.names.get(i));
+        }
+        return target.length();
+    }
+
+    /**
+     * The current implementation with the default compression policy
+     *
+     * @param distribution The distribution state
+     * @param entries      The entries to add
+     * @param parameters   The parameters for the writer
+     * @return The size of the package
+     * @throws IOException When an IO error occurs
+     */
+    @Benchmark
+    public long writer(DistributionState distribution, Entries entries, WriterParameters parameters) throws IOException {
+        File target = new File(distribution.output, "package.zip");
+        CompressionStatistics statistics = new CompressionStatistics();
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(target), ZipPackageWriter.BUFFER_SIZE);
+             ZipPackageWriter writer = new ZipPackageWriter(stream, new CompressionPolicy(9, 512), statistics, null, parameters.zipThreads, distribution.output)) {
+            for (int i = 0; i != entries.files.size(); i++)
+                writer.addFile(entries.files.get(i), entries.names.get(i));
+        }
+        return target.length();
+    }
+}
@@ -17,9 +17,6 @@
 
 package org.xowl.toolkit.packaging;
 
-import fr.cenotelie.commons.utils.Base64;
-import fr.cenotelie.commons.utils.IOUtils;
-import fr.cenotelie.commons.utils.TextUtils;
 import org.apache.maven.artifact.DefaultArtifact;
 import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.model.Dependency;
@@ -28,9 +25,12 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.artifact.Artifact;
 
 import java.io.*;
-import java.util.zip.ZipOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Builds the xOWL addon package that can be deployed onto a marketplace so that xOWL federation platforms can use it.
@@ -94,10 +94,56 @@ public class AddonPackageMojo extends PackagingAbstractMojo {
                 throw new MojoFailureException("Failed to create target directory");
         }
 
-        File fileDescriptor = writeDescriptor();
         File[] fileBundles = retrieveBundles();
-        File filePackage = buildPackage(fileDescriptor, fileBundles);
+        InputDigest inputs = null;
+        if (incremental) {
+            inputs = digestInputs(fileBundles);
+            File filePackage = new File(targetDirectory, getArtifactName() + ".zip");
+            File fileDescriptor = new File(targetDirectory, getArtifactName() + ".json");
+            if (isUpToDate(inputs, getOutputs(filePackage, fileDescriptor))) {
+                attachArtifacts(filePackage, fileDescriptor);
+                writeMetrics();
+                return;
+            }
+        }
+
+        File fileDescriptor = new File(targetDirectory, getArtifactName() + ".json");
+        BundleManifest[] manifests = readManifests(fileBundles);
+        File filePackage = buildPackage(fileDescriptor, fileBundles, manifests);
+        attachArtifacts(filePackage, fileDescriptor);
+        if (inputs != null)
+            recordInputs(inputs);
+        writeMetrics();
+    }
 
+    /**
+     * Computes the digest of the inputs of this packaging
+     *
+     * @param fileBundles The resolved files
+     * @return The digest of the inputs
+     * @throws MojoFailureException When reading an input failed
+     */
+    private InputDigest digestInputs(File[] fileBundles) throws MojoFailureException {
+        InputDigest digest = newInputDigest();
+        digest.addParameter("versionScmTag", versionScmTag);
+        digest.addParameter("versionBuildTag", versionBuildTag);
+        digest.addParameter("versionBuildTimestamp", versionBuildTimestamp);
+        digest.addParameter("pricing", pricing);
+        digest.addParameter("tags", tags);
+        addInputFile(digest, "icon", icon);
+        addInputFile(digest, "licenseFullText", licenseFullText);
+        for (int i = 0; i != fileBundles.length; i++)
+            addInputFile(digest, "bundle." + i, fileBundles[i]);
+        return digest;
+    }
+
+    /**
+     * Attaches the produced artifacts to the project
+     *
+     * @param filePackage    The file for the package
+     * @param fileDescriptor The file for the descriptor
+     */
+    private void attachArtifacts(File filePackage, File fileDescriptor) {
         DefaultArtifactHandler artifactHandler = new DefaultArtifactHandler("xowl-addon");
         artifactHandler.setAddedToClasspath(false);
         artifactHandler.setExtension("zip");
@@ -120,76 +166,50 @@ public class AddonPackageMojo extends PackagingAbstractMojo {
                 "",
                 fileDescriptor
         );
+        attachChecksumFiles(filePackage, "zip");
     }
 
     /**
      * Writes the addon descriptor
      *
-     * @return The file for the descriptor
+     * @param addonDescriptor The file for the descriptor
+     * @param digests         The digests of the bundles in the package
+     * @param manifests       The OSGi manifests of the bundles, in the order of the dependencies
      * @throws MojoFailureException When writing failed
      */
-    private File writeDescriptor() throws MojoFailureException {
-        String iconName = "";
-        String iconContent = "";
-        if (icon != null) {
-            try (InputStream stream = new FileInputStream(icon)) {
-                byte[] bytes = IOUtils.load(stream);
-                iconContent = Base64.encodeBase64(bytes);
-                iconName = icon.getName();
-            } catch (IOException exception) {
-                throw new MojoFailureException("Failed to read the specified icon (" + icon.getAbsolutePath() + ")", exception);
-            }
-        } else {
-            getLog().warn("No icon has been specified");
-        }
-        String licenseText = project.getModel().getLicenses().get(0).getUrl();
-        if (licenseFullText != null) {
-            try (Reader reader = IOUtils.getReader(licenseFullText)) {
-                licenseText = IOUtils.read(reader);
-            } catch (IOException exception) {
-                throw new MojoFailureException("Failed to read the specified license (" + licenseFullText.getAbsolutePath() + ")", exception);
-            }
-        }
-
-        File targetDirectory = new File(project.getModel().getBuild().getDirectory());
-        File addonDescriptor = new File(targetDirectory, getArtifactName() + ".json");
+    private void writeDescriptor(File addonDescriptor, ContentDigests digests, BundleManifest[] manifests) throws MojoFailureException {
+        long start = metrics.getPhase(PackagingMetrics.DESCRIPTOR).begin();
         getLog().info("Writing descriptor for addon: " + addonDescriptor.getName());
-        try (Writer writer = IOUtils.getWriter(addonDescriptor)) {
+        String digest;
+        try (DescriptorWriter writer = new DescriptorWriter(addonDescriptor)) {
             writer.write("{\n");
-            writer.write("\t\"modelVersion\": \"" + TextUtils.escapeStringJSON(MODEL_VERSION) + "\",\n");
-            writer.write("\t\"identifier\": \"" + TextUtils.escapeStringJSON(project.getModel().getGroupId() + "." + project.getModel().getArtifactId() + "-" + project.getModel().getVersion()) + "\",\n");
-            writer.write("\t\"name\": \"" + TextUtils.escapeStringJSON(project.getModel().getName()) + "\",\n");
-            writer.write("\t\"description\": \"" + TextUtils.escapeStringJSON(project.getModel().getDescription()) + "\",\n");
-            writer.write("\t\"version\": {\n");
-            writer.write("\t\t\"number\": \"" + TextUtils.escapeStringJSON(project.getModel().getVersion()) + "\",\n");
-            writer.write("\t\t\"scmTag\": \"" + (versionScmTag == null ? "" : TextUtils.escapeStringJSON(versionScmTag)) + "\",\n");
-            writer.write("\t\t\"buildUser\": \"" + TextUtils.escapeStringJSON(System.getProperty("user.name")) + "\",\n");
-            writer.write("\t\t\"buildTag\": \"" + (versionBuildTag == null ? "" : TextUtils.escapeStringJSON(versionBuildTag)) + "\",\n");
-            writer.write("\t\t\"buildTimestamp\": \"" + (versionBuildTimestamp == null ? "" : TextUtils.escapeStringJSON(versionBuildTimestamp)) + "\"\n");
-            writer.write("\t},\n");
-            writer.write("\t\"copyright\": \"Copyright (c) " + TextUtils.escapeStringJSON(project.getModel().getOrganization().getName()) + "\",\n");
-            writer.write("\t\"iconName\": \"" + iconName + "\",\n");
-            writer.write("\t\"iconContent\": \"" + iconContent + "\",\n");
-            writer.write("\t\"vendor\": \"" + TextUtils.escapeStringJSON(project.getModel().getOrganization().getName()) + "\",\n");
-            writer.write("\t\"vendorLink\": \"" + TextUtils.escapeStringJSON(project.getModel().getOrganization().getUrl()) + "\",\n");
-            writer.write("\t\"link\": \"" + TextUtils.escapeStringJSON(project.getModel().getUrl()) + "\",\n");
-            writer.write("\t\"license\": {\n");
-            if (!project.getModel().getLicenses().isEmpty()) {
-                writer.write("\t\t\"name\": \"" + TextUtils.escapeStringJSON(project.getModel().getLicenses().get(0).getName()) + "\",\n");
-                writer.write("\t\t\"fullText\": \"" + TextUtils.escapeStringJSON(licenseText) + "\"\n");
-            }
-            writer.write("\t},\n");
-            writer.write("\t\"pricing\": \"" + (pricing == null ? "" : TextUtils.escapeStringJSON(pricing)) + "\",\n");
+            writer.write("\t\"modelVersion\": ").writeString(MODEL_VERSION).write(",\n");
+            writeDescriptorCommons(writer, versionScmTag, versionBuildTag, versionBuildTimestamp, icon, licenseFullText);
+            writer.write(",\n");
+            writer.write("\t\"pricing\": ").writeString(pricing).write(",\n");
             writer.write("\t\"bundles\": [\n");
-            boolean first = true;
+            int index = 0;
             for (Dependency dependency : project.getModel().getDependencies()) {
-                if (!first)
+                if (index != 0)
                     writer.write(",\n");
-                first = false;
+                BundleManifest manifest = manifests[index++];
                 writer.write("\t\t{\n");
-                writer.write("\t\t\t\"groupId\": \"" + TextUtils.escapeStringJSON(dependency.getGroupId()) + "\",\n");
-                writer.write("\t\t\t\"artifactId\": \"" + TextUtils.escapeStringJSON(dependency.getArtifactId()) + "\",\n");
-                writer.write("\t\t\t\"version\": \"" + TextUtils.escapeStringJSON(dependency.getVersion()) + "\"\n");
+                writer.write("\t\t\t\"groupId\": ").writeString(dependency.getGroupId()).write(",\n");
+                writer.write("\t\t\t\"artifactId\": ").writeString(dependency.getArtifactId()).write(",\n");
+                writer.write("\t\t\t\"version\": ").writeString(dependency.getVersion());
+                String[] values = digests.get(getBundleEntryName(dependency));
+                if (values != null) {
+                    for (int i = 0; i != values.length; i++) {
+                        writer.write(",\n");
+                        writer.write("\t\t\t\"" + ContentDigests.getExtension(digests.getAlgorithms()[i]) + "\": ").writeString(values[i]);
+                    }
+                }
+                if (manifest != null) {
+                    writer.write(",\n");
+                    writer.write("\t\t\t\"manifest\": ");
+                    manifest.write(writer, "\t\t\t");
+                }
+                writer.write("\n");
                 writer.write("\t\t}");
             }
             writer.write("\n\t],\n");
@@ -198,16 +218,31 @@ public class AddonPackageMojo extends PackagingAbstractMojo {
                 for (int i = 0; i != tags.length; i++) {
                     if (i != 0)
                         writer.write(",\n");
-                    writer.write("\t\t\"" + TextUtils.escapeStringJSON(tags[i]) + "\"");
+                    writer.write("\t\t").writeString(tags[i]);
                 }
                 writer.write("\n");
             }
             writer.write("\t]\n");
             writer.write("}\n");
+            digest = writer.finish();
         } catch (IOException exception) {
             throw new MojoFailureException("Failed to write the addon description", exception);
         }
-        return addonDescriptor;
+        reportDescriptor(addonDescriptor, digest, start);
+    }
+
+    /**
+     * Gets the name of the package entry for the bundle of a dependency
+     *
+     * @param dependency The dependency
+     * @return The name of the package entry
+     */
+    private String getBundleEntryName(Dependency dependency) {
+        String classifier = getDependencyClassifier(dependency);
+        String name = dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion();
+        if (!classifier.isEmpty())
+            name += "-" + classifier;
+        return name + "." + getDependencyExtension(dependency);
     }
 
     /**
@@ -216,60 +251,83 @@ public class AddonPackageMojo extends PackagingAbstractMojo {
      * @throws MojoFailureException When the resolution failed
      */
     private File[] retrieveBundles() throws MojoFailureException {
-        File[] result = new File[project.getDependencies().size() * 2];
-        int i = 0;
+        List<Artifact> artifacts = new ArrayList<>(project.getDependencies().size() * 2);
         for (Dependency dependency : project.getModel().getDependencies()) {
-            result[i++] = resolveArtifact(dependency);
-            result[i++] = resolveArtifact(
+            artifacts.add(getArtifact(dependency));
+            artifacts.add(getArtifact(
                     dependency.getGroupId(),
                     dependency.getArtifactId(),
                     dependency.getVersion(),
                     getDependencyClassifier(dependency),
-                    getDependencyExtension(dependency) + ".asc");
+                    getDependencyExtension(dependency) + ".asc"));
         }
-        return result;
+        return resolveArtifacts(artifacts);
     }
 
     /**
-     * Builds the package for the addon
+     * Reads the OSGi manifests of the bundles, so that they are indexed in the descriptor
+     *
+     * @param fileBundles The files for the bundles and their signatures
+     * @return The manifests, in the order of the dependencies
+     * @throws MojoFailureException When a bundle could not be read
+     */
+    private BundleManifest[] readManifests(File[] fileBundles) throws MojoFailureException {
+        List<Dependency> dependencies = project.getModel().getDependencies();
+        File[] files = new File[dependencies.size()];
+        for (int i = 0; i != files.length; i++) {
+            if ("jar".equals(getDependencyExtension(dependencies.get(i))))
+                files[i] = fileBundles[i * 2];
+        }
+        return readBundleManifests(files);
+    }
+
+    /**
+     * Builds the package for the addon.
+     * The digests of the bundles are computed while they are compressed,
+     * so that the descriptor that records them is written afterwards and added as the last entry.
      *
      * @param fileDescriptor The file for the descriptor
      * @param fileBundles    The files for the bundles
+     * @param manifests      The OSGi manifests of the bundles, in the order of the dependencies
      * @return The file for the package
      * @throws MojoFailureException When the packaging failed
      */
-    private File buildPackage(File fileDescriptor, File[] fileBundles) throws MojoFailureException {
+    private File buildPackage(File fileDescriptor, File[] fileBundles, BundleManifest[] manifests) throws MojoFailureException {
         File targetDirectory = new File(project.getModel().getBuild().getDirectory());
         File addonPackage = new File(targetDirectory, getArtifactName() + ".zip");
         getLog().info("Writing package for addon: " + addonPackage.getName());
+        long start = metrics.getPhase(PackagingMetrics.COMPRESS).begin();
+        ContentDigests digests = newContentDigests();
+        String[] packageDigests;
         try (FileOutputStream fileStream = new FileOutputStream(addonPackage)) {
-            try (ZipOutputStream stream = new ZipOutputStream(fileStream)) {
-                stream.setLevel(9);
-                zipAddFile(
-                        stream,
-                        fileDescriptor,
-                        "descriptor.json");
+            MessageDigest[] packageDigest = digests.newDigests();
+            CompressionStatistics statistics = new CompressionStatistics();
+            try (ZipPackageWriter writer = openZipPackage(ContentDigests.wrap(fileStream, packageDigest), statistics, digests)) {
                 int i = 0;
                 for (Dependency dependency : project.getModel().getDependencies()) {
-                    String classifier = getDependencyClassifier(dependency);
-                    String extension = getDependencyExtension(dependency);
-                    String name = dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion();
-                    if (!classifier.isEmpty())
-                        name += "-" + classifier;
-                    name += "." + extension;
+                    String name = getBundleEntryName(dependency);
                     zipAddFile(
-                            stream,
+                            writer,
                             fileBundles[i++],
                             name);
                     zipAddFile(
-                            stream,
+                            writer,
                             fileBundles[i++],
                             name + ".asc");
                 }
+                writer.flush();
+                writeDescriptor(fileDescriptor, digests, manifests);
+                zipAddFile(
+                        writer,
+                        fileDescriptor,
+                        "descriptor.json");
             }
-            return addonPackage;
+            packageDigests = ContentDigests.complete(packageDigest);
+            reportCompression(statistics, addonPackage, start);
         } catch (IOException exception) {
             throw new MojoFailureException("Failed to write the addon package", exception);
         }
+        writeChecksumFiles(addonPackage, packageDigests);
+        return addonPackage;
     }
 }
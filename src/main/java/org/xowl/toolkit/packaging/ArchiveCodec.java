@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The compression codecs for platform distributions
+ *
+ * @author Laurent Wouters
+ */
+public enum ArchiveCodec {
+    /**
+     * The gzip codec, the default one
+     */
+    GZIP("tar.gz", "xowl-platform", 9),
+    /**
+     * The Zstandard codec
+     */
+    ZSTD("tar.zst", "xowl-platform-zst", 22),
+    /**
+     * The xz codec
+     */
+    XZ("tar.xz", "xowl-platform-xz", 9);
+
+    /**
+     * The prefix of the Maven types for platform distributions
+     */
+    public static final String PLATFORM_TYPE = "xowl-platform";
+
+    /**
+     * The extension of the distribution files
+     */
+    private final String extension;
+    /**
+     * The Maven artifact type for the distributions
+     */
+    private final String artifactType;
+    /**
+     * The maximum compression level
+     */
+    private final int maxLevel;
+
+    /**
+     * Initializes this codec
+     *
+     * @param extension    The extension of the distribution files
+     * @param artifactType The Maven artifact type for the distributions
+     * @param maxLevel     The maximum compression level
+     */
+    ArchiveCodec(String extension, String artifactType, int maxLevel) {
+        this.extension = extension;
+        this.artifactType = artifactType;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Gets the extension of the distribution files
+     *
+     * @return The extension of the distribution files
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Gets the Maven artifact type for the distributions
+     *
+     * @return The Maven artifact type
+     */
+    public String getArtifactType() {
+        return artifactType;
+    }
+
+    /**
+     * Gets the maximum compression level, the levels starting at 0
+     *
+     * @return The maximum compression level
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Gets the codec for the specified name
+     *
+     * @param name The name of the codec (gzip, zstd or xz)
+     * @return The codec, or null if it is not known
+     */
+    public static ArchiveCodec fromName(String name) {
+        if (name == null)
+            return GZIP;
+        switch (name.toLowerCase()) {
+            case "gz":
+            case "gzip":
+                return GZIP;
+            case "zst":
+            case "zstd":
+                return ZSTD;
+            case "xz":
+                return XZ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets whether the specified Maven type is the type of a platform distribution
+     *
+     * @param type A Maven type
+     * @return Whether this is the type of a platform distribution
+     */
+    public static boolean isPlatformType(String type) {
+        return type != null && type.startsWith(PLATFORM_TYPE);
+    }
+
+    /**
+     * Opens a decompressing stream, the codec being detected from the content
+     *
+     * @param input The compressed input
+     * @return The decompressed stream
+     * @throws IOException When the codec could not be detected
+     */
+    public static InputStream decompress(InputStream input) throws IOException {
+        InputStream buffered = new BufferedInputStream(input, 64 * 1024);
+        try {
+            String name = CompressorStreamFactory.detect(buffered);
+            if (CompressorStreamFactory.GZIP.equals(name))
+                return new GZIPInputStream(buffered, 64 * 1024);
+            return new CompressorStreamFactory().createCompressorInputStream(name, buffered);
+        } catch (CompressorException exception) {
+            throw new IOException(exception);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+/**
+ * A filter of the entries of a base distribution
+ *
+ * @author Laurent Wouters
+ */
+public interface ArchiveEntryFilter {
+    /**
+     * Gets whether a file or directory of the base distribution shall be kept.
+     * The content of a directory that is not kept is not kept either.
+     *
+     * @param path The path of the file or directory, relative to the root folder of the distribution
+     * @return Whether to keep the file
+     */
+    boolean accept(String path);
+}
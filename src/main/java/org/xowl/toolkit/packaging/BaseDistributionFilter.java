@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filters out of a base distribution the files that are regenerated for the distribution to build,
+ * such as the manifests of the checksums or the bundle cache of a previous xOWL platform distribution.
+ * The other files are submitted to a further filter, if any.
+ *
+ * @author Laurent Wouters
+ */
+public class BaseDistributionFilter implements ArchiveEntryFilter {
+    /**
+     * The paths of the excluded files, relative to the root folder of the base distribution
+     */
+    private final Set<String> excluded;
+    /**
+     * The prefixes of the paths in the excluded directories
+     */
+    private final List<String> excludedTrees;
+    /**
+     * The further filter, if any
+     */
+    private final ArchiveEntryFilter next;
+
+    /**
+     * Initializes this filter
+     *
+     * @param next The further filter, or null to keep all the files that are not excluded
+     */
+    public BaseDistributionFilter(ArchiveEntryFilter next) {
+        this.excluded = new HashSet<>();
+        this.excludedTrees = new ArrayList<>();
+        this.next = next;
+    }
+
+    /**
+     * Excludes a file
+     *
+     * @param path The path of the file, relative to the root folder of the base distribution
+     */
+    public void exclude(String path) {
+        excluded.add(path);
+    }
+
+    /**
+     * Excludes a directory and all its content
+     *
+     * @param path The path of the directory, relative to the root folder of the base distribution
+     */
+    public void excludeTree(String path) {
+        excluded.add(path);
+        excludedTrees.add(path + "/");
+    }
+
+    @Override
+    public boolean accept(String path) {
+        if (excluded.contains(path))
+            return false;
+        for (int i = 0; i != excludedTrees.size(); i++) {
+            if (path.startsWith(excludedTrees.get(i)))
+                return false;
+        }
+        return next == null || next.accept(path);
+    }
+}
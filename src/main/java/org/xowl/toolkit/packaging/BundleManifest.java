@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.commons.compress.utils.CloseShieldFilterInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.*;
+
+/**
+ * The OSGi headers of the manifest of a bundle, parsed at packaging time
+ * so that a platform can plan the installation of bundles without opening them.
+ *
+ * @author Laurent Wouters
+ */
+public class BundleManifest {
+    /**
+     * The Bundle-SymbolicName header
+     */
+    public static final String SYMBOLIC_NAME = "Bundle-SymbolicName";
+    /**
+     * The Bundle-Version header
+     */
+    public static final String VERSION = "Bundle-Version";
+    /**
+     * The Import-Package header
+     */
+    public static final String IMPORT_PACKAGE = "Import-Package";
+    /**
+     * The Export-Package header
+     */
+    public static final String EXPORT_PACKAGE = "Export-Package";
+    /**
+     * The Require-Bundle header
+     */
+    public static final String REQUIRE_BUNDLE = "Require-Bundle";
+    /**
+     * The Fragment-Host header
+     */
+    public static final String FRAGMENT_HOST = "Fragment-Host";
+    /**
+     * The indexed headers, in the order they are written
+     */
+    public static final String[] HEADERS = new String[]{
+            SYMBOLIC_NAME,
+            VERSION,
+            IMPORT_PACKAGE,
+            EXPORT_PACKAGE,
+            REQUIRE_BUNDLE,
+            FRAGMENT_HOST,
+            "Require-Capability",
+            "Provide-Capability"
+    };
+
+    /**
+     * The values of the headers that are present in the manifest
+     */
+    private final Map<String, String> headers;
+
+    /**
+     * Initializes this manifest
+     *
+     * @param headers The values of the headers that are present in the manifest
+     */
+    private BundleManifest(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Gets the value of a header
+     *
+     * @param name The name of the header
+     * @return The value, or null if the header is not present
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Reads the manifest of a bundle.
+     * Only the manifest is read, through the central directory of the jar.
+     *
+     * @param file The file for the bundle
+     * @return The manifest, or null if the file is not an OSGi bundle (no manifest or no symbolic name)
+     * @throws IOException When the file could not be read as a jar
+     */
+    public static BundleManifest read(File file) throws IOException {
+        Manifest manifest;
+        try (JarFile jar = new JarFile(file, false)) {
+            manifest = jar.getManifest();
+        }
+        return read(manifest);
+    }
+
+    /**
+     * Reads the manifest of a bundle from the content of its jar, as it is streamed out of an archive.
+     * The stream is read only up to the manifest.
+     *
+     * @param input The content of the jar, left open
+     * @return The manifest, or null if the content is not an OSGi bundle (no manifest or no symbolic name)
+     * @throws IOException When the content could not be read as a jar
+     */
+    public static BundleManifest read(InputStream input) throws IOException {
+        Manifest manifest;
+        try (JarInputStream jar = new JarInputStream(new CloseShieldFilterInputStream(input), false)) {
+            manifest = jar.getManifest();
+            while (manifest == null) {
+                // the manifest is not one of the first entries, look for it
+                JarEntry entry = jar.getNextJarEntry();
+                if (entry == null)
+                    break;
+                if (entry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME))
+                    manifest = new Manifest(jar);
+            }
+        }
+        return read(manifest);
+    }
+
+    /**
+     * Gets the OSGi headers of a manifest
+     *
+     * @param manifest The manifest of a jar, if any
+     * @return The manifest, or null if the jar is not an OSGi bundle (no manifest or no symbolic name)
+     */
+    private static BundleManifest read(Manifest manifest) {
+        if (manifest == null)
+            return null;
+        Attributes attributes = manifest.getMainAttributes();
+        if (attributes.getValue(SYMBOLIC_NAME) == null)
+            return null;
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i != HEADERS.length; i++) {
+            String value = attributes.getValue(HEADERS[i]);
+            if (value != null)
+                headers.put(HEADERS[i], value);
+        }
+        return new BundleManifest(headers);
+    }
+
+    /**
+     * Writes the headers as a JSON object whose members are the headers that are present
+     *
+     * @param writer The writer for the descriptor
+     * @param indent The indentation of the object
+     * @throws IOException When an IO error occurs
+     */
+    public void write(DescriptorWriter writer, String indent) throws IOException {
+        writer.write("{\n");
+        boolean first = true;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!first)
+                writer.write(",\n");
+            first = false;
+            writer.write(indent).write("\t").writeString(header.getKey()).write(": ").writeString(header.getValue());
+        }
+        writer.write("\n").write(indent).write("}");
+    }
+}
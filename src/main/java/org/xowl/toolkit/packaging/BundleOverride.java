@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.util.*;
+
+/**
+ * Filters out of a base distribution the bundles that are superseded by the bundles of the distribution to build.
+ * A bundle of the base is superseded when its file name is the key of a new bundle (groupId.artifactId, or
+ * only the artifactId for Felix bundles), followed by a dash and a version, whatever the version.
+ *
+ * @author Laurent Wouters
+ */
+public class BundleOverride implements ArchiveEntryFilter {
+    /**
+     * The directory of the bundles, relative to the root folder of the base distribution
+     */
+    private final String bundleDirectory;
+    /**
+     * The keys of the new bundles
+     */
+    private final Set<String> keys;
+    /**
+     * The paths of the superseded bundles that have been filtered out
+     */
+    private final Collection<String> superseded;
+
+    /**
+     * Initializes this filter
+     *
+     * @param bundleDirectory The directory of the bundles, relative to the root folder of the base distribution
+     */
+    public BundleOverride(String bundleDirectory) {
+        this.bundleDirectory = bundleDirectory + "/";
+        this.keys = new HashSet<>();
+        this.superseded = Collections.synchronizedSortedSet(new TreeSet<String>());
+    }
+
+    /**
+     * Registers a new bundle
+     *
+     * @param key The key of the new bundle (groupId.artifactId, or only the artifactId for Felix bundles)
+     */
+    public void addBundle(String key) {
+        keys.add(key);
+    }
+
+    /**
+     * Gets the paths of the superseded bundles that have been filtered out
+     *
+     * @return The paths of the superseded bundles
+     */
+    public Collection<String> getSuperseded() {
+        return Collections.unmodifiableCollection(superseded);
+    }
+
+    @Override
+    public boolean accept(String path) {
+        if (!path.startsWith(bundleDirectory) || !path.endsWith(".jar") || path.indexOf('/', bundleDirectory.length()) >= 0)
+            return true;
+        String name = path.substring(bundleDirectory.length());
+        // the key is the part of the name before a dash followed by a digit
+        for (int i = name.indexOf('-'); i >= 0 && i + 1 < name.length(); i = name.indexOf('-', i + 1)) {
+            if (Character.isDigit(name.charAt(i + 1)) && keys.contains(name.substring(0, i))) {
+                superseded.add(path);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.util.*;
+
+/**
+ * Resolves the wiring of the bundles of a distribution at packaging time and computes their start levels.
+ * An import is wired to the exporting bundle with the highest version that matches the range of the import,
+ * or to the system bundle when only the framework exports the package.
+ * The start level of a bundle is one more than the highest start level of the bundles it is wired to,
+ * so that the bundles on a same level do not depend on each other.
+ * The bundles that depend on each other in a cycle are put on the same level.
+ * Fragments are not started, they are installed on the level of their host.
+ *
+ * @author Laurent Wouters
+ */
+public class BundleResolver {
+    /**
+     * A bundle to resolve
+     */
+    private static class Bundle {
+        /**
+         * The location of the bundle
+         */
+        private final String location;
+        /**
+         * The manifest of the bundle
+         */
+        private final BundleManifest manifest;
+        /**
+         * The symbolic name of the bundle
+         */
+        private final String symbolicName;
+        /**
+         * The version of the bundle
+         */
+        private final String version;
+        /**
+         * The bundles this one is wired to
+         */
+        private final Set<Bundle> dependencies;
+        /**
+         * The host of this bundle if it is a fragment
+         */
+        private Bundle host;
+        /**
+         * The start level of this bundle
+         */
+        private int level;
+        /**
+         * The index of this bundle in the traversal of the graph, -1 when not visited
+         */
+        private int index;
+        /**
+         * The lowest index of a bundle reachable from this one on the traversal stack
+         */
+        private int lowLink;
+        /**
+         * Whether this bundle is on the traversal stack
+         */
+        private boolean onStack;
+
+        /**
+         * Initializes this bundle
+         *
+         * @param location The location of the bundle
+         * @param manifest The manifest of the bundle
+         */
+        private Bundle(String location, BundleManifest manifest) {
+            this.location = location;
+            this.manifest = manifest;
+            List<ManifestHeader.Clause> clauses = ManifestHeader.parse(manifest.getHeader(BundleManifest.SYMBOLIC_NAME));
+            this.symbolicName = clauses.isEmpty() ? "" : clauses.get(0).getNames().get(0);
+            String value = manifest.getHeader(BundleManifest.VERSION);
+            this.version = value == null ? "0.0.0" : value.trim();
+            this.dependencies = new LinkedHashSet<>();
+            this.index = -1;
+        }
+
+        /**
+         * Gets whether this bundle is a fragment
+         *
+         * @return Whether this bundle is a fragment
+         */
+        private boolean isFragment() {
+            return manifest.getHeader(BundleManifest.FRAGMENT_HOST) != null;
+        }
+
+        /**
+         * Gets the bundle that owns the wiring of this one, i.e. the host for a fragment
+         *
+         * @return The owner of the wiring
+         */
+        private Bundle getOwner() {
+            return host == null ? this : host;
+        }
+    }
+
+    /**
+     * An exported package
+     */
+    private static class Export {
+        /**
+         * The exporting bundle, or null for the system bundle
+         */
+        private final Bundle bundle;
+        /**
+         * The version of the package
+         */
+        private final String version;
+
+        /**
+         * Initializes this export
+         *
+         * @param bundle  The exporting bundle, or null for the system bundle
+         * @param version The version of the package
+         */
+        private Export(Bundle bundle, String version) {
+            this.bundle = bundle;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The bundles to resolve
+     */
+    private final List<Bundle> bundles;
+    /**
+     * The exports for each package
+     */
+    private final Map<String, List<Export>> exports;
+    /**
+     * The problems found during the resolution
+     */
+    private final List<String> problems;
+    /**
+     * The number of start levels
+     */
+    private int levelCount;
+
+    /**
+     * Initializes this resolver
+     */
+    public BundleResolver() {
+        this.bundles = new ArrayList<>();
+        this.exports = new HashMap<>();
+        this.problems = new ArrayList<>();
+    }
+
+    /**
+     * Adds packages that are exported by the framework (system bundle)
+     *
+     * @param header The packages, in the syntax of the Export-Package header
+     */
+    public void addSystemPackages(String header) {
+        addExports(null, header);
+    }
+
+    /**
+     * Adds a bundle to resolve
+     *
+     * @param location The location of the bundle
+     * @param manifest The manifest of the bundle
+     */
+    public void addBundle(String location, BundleManifest manifest) {
+        bundles.add(new Bundle(location, manifest));
+    }
+
+    /**
+     * Resolves the bundles and computes their start levels
+     *
+     * @return The problems found during the resolution, empty when all the bundles are resolved
+     */
+    public List<String> resolve() {
+        Map<String, List<Bundle>> bySymbolicName = new HashMap<>();
+        for (Bundle bundle : bundles) {
+            List<Bundle> homonyms = bySymbolicName.get(bundle.symbolicName);
+            if (homonyms == null) {
+                homonyms = new ArrayList<>(1);
+                bySymbolicName.put(bundle.symbolicName, homonyms);
+            }
+            for (Bundle homonym : homonyms) {
+                if (ManifestHeader.compareVersions(homonym.version, bundle.version) == 0)
+                    problems.add(bundle.location + ": same symbolic name and version as " + homonym.location + " (" + bundle.symbolicName + " " + bundle.version + ")");
+            }
+            homonyms.add(bundle);
+        }
+        for (Bundle bundle : bundles) {
+            if (bundle.isFragment()) {
+                ManifestHeader.Clause clause = ManifestHeader.parse(bundle.manifest.getHeader(BundleManifest.FRAGMENT_HOST)).get(0);
+                bundle.host = findBundle(bySymbolicName, clause.getNames().get(0), clause.getAttribute("bundle-version"));
+                if (bundle.host == null || bundle.host.isFragment()) {
+                    problems.add(bundle.location + ": no host bundle " + clause.getNames().get(0) + " for the fragment");
+                    bundle.host = null;
+                    continue;
+                }
+            }
+            addExports(bundle.getOwner(), bundle.manifest.getHeader(BundleManifest.EXPORT_PACKAGE));
+        }
+        for (Bundle bundle : bundles)
+            resolveRequirements(bundle, bySymbolicName);
+        if (problems.isEmpty())
+            computeLevels();
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * Gets the number of start levels
+     *
+     * @return The number of start levels
+     */
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Gets the locations of the bundles to start on a level
+     *
+     * @param level The start level, from 1
+     * @return The locations
+     */
+    public List<String> getStartLocations(int level) {
+        List<String> result = new ArrayList<>();
+        for (Bundle bundle : bundles) {
+            if (bundle.level == level && !bundle.isFragment())
+                result.add(bundle.location);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Gets the locations of the fragments to install on a level
+     *
+     * @param level The start level, from 1
+     * @return The locations
+     */
+    public List<String> getInstallLocations(int level) {
+        List<String> result = new ArrayList<>();
+        for (Bundle bundle : bundles) {
+            if (bundle.level == level && bundle.isFragment())
+                result.add(bundle.location);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Gets the locations of the bundles that are not reachable from root bundles through the wiring.
+     * The wiring of the imported packages (including the optional ones that can be wired) and required bundles is followed.
+     * A fragment is reachable when its host is, and a root fragment makes its host reachable.
+     *
+     * @param roots The locations or symbolic names of the root bundles
+     * @return The locations of the unreachable bundles
+     */
+    public List<String> getUnreachableLocations(Collection<String> roots) {
+        Set<Bundle> reachable = new HashSet<>();
+        Deque<Bundle> queue = new ArrayDeque<>();
+        for (Bundle bundle : bundles) {
+            if ((roots.contains(bundle.location) || roots.contains(bundle.symbolicName)) && reachable.add(bundle.getOwner()))
+                queue.push(bundle.getOwner());
+        }
+        while (!queue.isEmpty()) {
+            for (Bundle dependency : queue.pop().dependencies) {
+                if (reachable.add(dependency))
+                    queue.push(dependency);
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (Bundle bundle : bundles) {
+            if (!reachable.contains(bundle.getOwner()))
+                result.add(bundle.location);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Registers the packages exported by a bundle
+     *
+     * @param bundle The exporting bundle, or null for the system bundle
+     * @param header The value of the Export-Package header
+     */
+    private void addExports(Bundle bundle, String header) {
+        for (ManifestHeader.Clause clause : ManifestHeader.parse(header)) {
+            String version = clause.getAttribute("version");
+            if (version == null)
+                version = clause.getAttribute("specification-version");
+            for (String name : clause.getNames()) {
+                List<Export> list = exports.get(name);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    exports.put(name, list);
+                }
+                list.add(new Export(bundle, version == null ? "0.0.0" : version));
+            }
+        }
+    }
+
+    /**
+     * Resolves the imported packages and required bundles of a bundle
+     *
+     * @param bundle         The bundle
+     * @param bySymbolicName The bundles by symbolic name
+     */
+    private void resolveRequirements(Bundle bundle, Map<String, List<Bundle>> bySymbolicName) {
+        if (bundle.isFragment() && bundle.host == null)
+            return;
+        Bundle owner = bundle.getOwner();
+        for (ManifestHeader.Clause clause : ManifestHeader.parse(bundle.manifest.getHeader(BundleManifest.IMPORT_PACKAGE))) {
+            String range = clause.getAttribute("version");
+            for (String name : clause.getNames()) {
+                if (name.startsWith("java."))
+                    continue;
+                Export export = findExport(owner, name, range);
+                if (export == null) {
+                    if (!clause.isOptional())
+                        problems.add(bundle.location + ": no bundle exports the imported package " + name + (range == null ? "" : " " + range));
+                } else if (export.bundle != null && export.bundle != owner) {
+                    owner.dependencies.add(export.bundle);
+                }
+            }
+        }
+        for (ManifestHeader.Clause clause : ManifestHeader.parse(bundle.manifest.getHeader(BundleManifest.REQUIRE_BUNDLE))) {
+            String range = clause.getAttribute("bundle-version");
+            for (String name : clause.getNames()) {
+                Bundle required = findBundle(bySymbolicName, name, range);
+                if (required == null || required.isFragment()) {
+                    if (!clause.isOptional() && !"system.bundle".equals(name))
+                        problems.add(bundle.location + ": no bundle matches the required bundle " + name + (range == null ? "" : " " + range));
+                } else if (required != owner) {
+                    owner.dependencies.add(required);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the export that an import is wired to
+     *
+     * @param importer The importing bundle
+     * @param name     The name of the package
+     * @param range    The version range of the import, or null
+     * @return The export, or null if no export matches
+     */
+    private Export findExport(Bundle importer, String name, String range) {
+        List<Export> list = exports.get(name);
+        if (list == null)
+            return null;
+        Export result = null;
+        for (Export export : list) {
+            if (!ManifestHeader.isInRange(export.version, range))
+                continue;
+            if (export.bundle == importer)
+                return export;
+            if (result == null
+                    || (result.bundle == null && export.bundle != null)
+                    || (export.bundle != null && ManifestHeader.compareVersions(export.version, result.version) > 0))
+                result = export;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the bundle with the highest version for a symbolic name and a version range
+     *
+     * @param bySymbolicName The bundles by symbolic name
+     * @param name           The symbolic name
+     * @param range          The version range, or null
+     * @return The bundle, or null if none matches
+     */
+    private static Bundle findBundle(Map<String, List<Bundle>> bySymbolicName, String name, String range) {
+        List<Bundle> candidates = bySymbolicName.get(name);
+        if (candidates == null)
+            return null;
+        Bundle result = null;
+        for (Bundle candidate : candidates) {
+            if (ManifestHeader.isInRange(candidate.version, range) && (result == null || ManifestHeader.compareVersions(candidate.version, result.version) > 0))
+                result = candidate;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the start levels from the strongly connected components of the wiring graph.
+     * The components are found in reverse topological order, so that the levels of the dependencies are known first.
+     */
+    private void computeLevels() {
+        Deque<Bundle> stack = new ArrayDeque<>();
+        int[] counter = new int[1];
+        for (Bundle bundle : bundles) {
+            if (!bundle.isFragment() && bundle.index < 0)
+                visit(bundle, stack, counter);
+        }
+        for (Bundle bundle : bundles) {
+            if (bundle.isFragment())
+                bundle.level = bundle.host.level;
+            levelCount = Math.max(levelCount, bundle.level);
+        }
+    }
+
+    /**
+     * Visits a bundle in the wiring graph (Tarjan's algorithm)
+     *
+     * @param bundle  The bundle to visit
+     * @param stack   The traversal stack
+     * @param counter The counter for the indices of the bundles
+     */
+    private void visit(Bundle bundle, Deque<Bundle> stack, int[] counter) {
+        bundle.index = counter[0];
+        bundle.lowLink = counter[0];
+        counter[0]++;
+        stack.push(bundle);
+        bundle.onStack = true;
+        for (Bundle dependency : bundle.dependencies) {
+            if (dependency.index < 0) {
+                visit(dependency, stack, counter);
+                bundle.lowLink = Math.min(bundle.lowLink, dependency.lowLink);
+            } else if (dependency.onStack) {
+                bundle.lowLink = Math.min(bundle.lowLink, dependency.index);
+            }
+        }
+        if (bundle.lowLink != bundle.index)
+            return;
+        List<Bundle> component = new ArrayList<>();
+        while (true) {
+            Bundle member = stack.pop();
+            member.onStack = false;
+            component.add(member);
+            if (member == bundle)
+                break;
+        }
+        int level = 1;
+        for (Bundle member : component) {
+            for (Bundle dependency : member.dependencies) {
+                if (!component.contains(dependency))
+                    level = Math.max(level, dependency.level + 1);
+            }
+        }
+        for (Bundle member : component)
+            member.level = level;
+    }
+}
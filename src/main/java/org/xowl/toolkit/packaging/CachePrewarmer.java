@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Pre-warms the bundle cache of a Felix distribution.
+ * This program is run in a forked JVM, in the felix directory of the distribution, with the Felix main jar on the class path.
+ * It initializes the framework without starting it, installs the bundles of the felix.auto.install.N and felix.auto.start.N
+ * properties at their start level, resolves them and stops the framework, so that the bundles are in the cache at the first boot.
+ * The bundles are not started so that no activator runs at packaging time.
+ * The OSGi API is only accessed through reflection, so that this class does not depend on it.
+ *
+ * @author Laurent Wouters
+ */
+public class CachePrewarmer {
+    /**
+     * The exit code when a bundle could not be resolved
+     */
+    public static final int EXIT_UNRESOLVED = 2;
+    /**
+     * The exit code when the pre-warming timed out
+     */
+    public static final int EXIT_TIMEOUT = 3;
+    /**
+     * The property for the bundle cache directory
+     */
+    static final String STORAGE = "org.osgi.framework.storage";
+    /**
+     * The property for the cleaning of the bundle cache
+     */
+    static final String STORAGE_CLEAN = "org.osgi.framework.storage.clean";
+    /**
+     * The prefix of the properties for the bundles to install on a level
+     */
+    private static final String AUTO_INSTALL = "felix.auto.install.";
+    /**
+     * The prefix of the properties for the bundles to install and start on a level
+     */
+    private static final String AUTO_START = "felix.auto.start.";
+    /**
+     * The INSTALLED state of a bundle, i.e. not resolved
+     */
+    private static final int STATE_INSTALLED = 2;
+
+    /**
+     * The entry point
+     *
+     * @param args The arguments: the timeout in milliseconds
+     */
+    public static void main(String[] args) {
+        long timeout = Long.parseLong(args[0]);
+        startWatchdog(timeout);
+        int code;
+        try {
+            code = prewarm(timeout);
+        } catch (Exception exception) {
+            exception.printStackTrace();
+            code = 1;
+        }
+        System.exit(code);
+    }
+
+    /**
+     * Starts a watchdog that terminates the JVM after a timeout
+     *
+     * @param timeout The timeout in milliseconds
+     */
+    static void startWatchdog(final long timeout) {
+        Thread watchdog = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(timeout);
+                } catch (InterruptedException exception) {
+                    return;
+                }
+                System.err.println("Timed out after " + timeout + " ms");
+                System.exit(EXIT_TIMEOUT);
+            }
+        }, "prewarm-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Pre-warms the bundle cache
+     *
+     * @param timeout The timeout in milliseconds for the framework to stop
+     * @return The exit code
+     * @throws Exception When the framework failed
+     */
+    private static int prewarm(long timeout) throws Exception {
+        Map<String, String> configuration = loadConfiguration();
+        if (!configuration.containsKey(STORAGE))
+            configuration.put(STORAGE, "felix-cache");
+        configuration.put(STORAGE_CLEAN, "onFirstInit");
+        configuration.put("felix.shutdown.hook", "false");
+
+        Class<?> classFactory = Class.forName("org.osgi.framework.launch.FrameworkFactory");
+        Class<?> classFramework = Class.forName("org.osgi.framework.launch.Framework");
+        Class<?> classBundle = Class.forName("org.osgi.framework.Bundle");
+        Class<?> classContext = Class.forName("org.osgi.framework.BundleContext");
+        Class<?> classStartLevel = Class.forName("org.osgi.framework.startlevel.BundleStartLevel");
+        Class<?> classWiring = Class.forName("org.osgi.framework.wiring.FrameworkWiring");
+
+        Iterator<?> factories = ServiceLoader.load(classFactory).iterator();
+        if (!factories.hasNext())
+            throw new IllegalStateException("No OSGi framework found");
+        Object framework = invoke(classFactory, factories.next(), "newFramework", new Class<?>[]{Map.class}, configuration);
+        invoke(classFramework, framework, "init", new Class<?>[0]);
+        Object context = invoke(classBundle, framework, "getBundleContext", new Class<?>[0]);
+
+        int count = 0;
+        for (Map.Entry<Integer, List<String>> level : getLocations(configuration).entrySet()) {
+            for (String location : level.getValue()) {
+                Object bundle = invoke(classContext, context, "installBundle", new Class<?>[]{String.class}, location);
+                Object startLevel = invoke(classBundle, bundle, "adapt", new Class<?>[]{Class.class}, classStartLevel);
+                invoke(classStartLevel, startLevel, "setStartLevel", new Class<?>[]{int.class}, level.getKey());
+                count++;
+            }
+        }
+        Object wiring = invoke(classBundle, framework, "adapt", new Class<?>[]{Class.class}, classWiring);
+        boolean resolved = (Boolean) invoke(classWiring, wiring, "resolveBundles", new Class<?>[]{Collection.class}, (Object) null);
+        if (!resolved) {
+            for (Object bundle : (Object[]) invoke(classContext, context, "getBundles", new Class<?>[0])) {
+                if ((Integer) invoke(classBundle, bundle, "getState", new Class<?>[0]) == STATE_INSTALLED)
+                    System.err.println("Unresolved bundle " + invoke(classBundle, bundle, "getLocation", new Class<?>[0]));
+            }
+        }
+        invoke(classBundle, framework, "stop", new Class<?>[0]);
+        invoke(classFramework, framework, "waitForStop", new Class<?>[]{long.class}, timeout);
+        System.out.println("Installed " + count + " bundles into " + configuration.get(STORAGE));
+        return resolved ? 0 : EXIT_UNRESOLVED;
+    }
+
+    /**
+     * Loads the configuration of the framework.
+     * The configuration is loaded as the Felix launcher does when it is available, otherwise from conf/config.properties.
+     *
+     * @return The configuration
+     * @throws Exception When the configuration could not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> loadConfiguration() throws Exception {
+        Map<String, String> result = new HashMap<>();
+        Class<?> classMain;
+        try {
+            classMain = Class.forName("org.apache.felix.main.Main");
+        } catch (ClassNotFoundException exception) {
+            classMain = null;
+        }
+        if (classMain != null) {
+            Map<String, String> configuration = (Map<String, String>) classMain.getMethod("loadConfigProperties").invoke(null);
+            if (configuration != null)
+                result.putAll(configuration);
+            classMain.getMethod("copySystemProperties", Map.class).invoke(null, result);
+            return result;
+        }
+        File file = new File(new File("conf"), "config.properties");
+        if (file.exists()) {
+            Properties properties = new Properties();
+            try (InputStream stream = new FileInputStream(file)) {
+                properties.load(stream);
+            }
+            for (String name : properties.stringPropertyNames())
+                result.put(name, properties.getProperty(name));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the locations of the bundles to install for each start level
+     *
+     * @param configuration The configuration of the framework
+     * @return The locations for each start level
+     */
+    private static SortedMap<Integer, List<String>> getLocations(Map<String, String> configuration) {
+        SortedMap<Integer, List<String>> result = new TreeMap<>();
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            String suffix;
+            if (entry.getKey().startsWith(AUTO_INSTALL))
+                suffix = entry.getKey().substring(AUTO_INSTALL.length());
+            else if (entry.getKey().startsWith(AUTO_START))
+                suffix = entry.getKey().substring(AUTO_START.length());
+            else
+                continue;
+            int level;
+            try {
+                level = Integer.parseInt(suffix);
+            } catch (NumberFormatException exception) {
+                continue;
+            }
+            List<String> locations = result.get(level);
+            if (locations == null) {
+                locations = new ArrayList<>();
+                result.put(level, locations);
+            }
+            for (String location : entry.getValue().trim().split("\\s+")) {
+                if (!location.isEmpty())
+                    locations.add(location);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Invokes a method of an OSGi interface
+     *
+     * @param type       The interface
+     * @param target     The target object
+     * @param name       The name of the method
+     * @param parameters The types of the parameters
+     * @param arguments  The arguments
+     * @return The returned value
+     * @throws Exception When the invocation failed
+     */
+    static Object invoke(Class<?> type, Object target, String name, Class<?>[] parameters, Object... arguments) throws Exception {
+        Method method = type.getMethod(name, parameters);
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException exception) {
+            if (exception.getCause() instanceof Exception)
+                throw (Exception) exception.getCause();
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Performs a training start of a Felix distribution for recording the classes to put in a class data sharing archive.
+ * This program is run in a forked JVM, in the felix directory of the distribution, with the Felix main jar on the class path.
+ * It starts the framework as the Felix launcher does, with a temporary bundle cache,
+ * waits for the beginning start level to be reached and stops the framework.
+ *
+ * @author Laurent Wouters
+ */
+public class ClassDataTrainer {
+    /**
+     * The property for the beginning start level of the framework
+     */
+    private static final String BEGINNING_LEVEL = "org.osgi.framework.startlevel.beginning";
+
+    /**
+     * The entry point
+     *
+     * @param args The arguments: the timeout in milliseconds, the directory of the temporary bundle cache
+     */
+    public static void main(String[] args) {
+        long timeout = Long.parseLong(args[0]);
+        CachePrewarmer.startWatchdog(timeout);
+        int code;
+        try {
+            code = train(args[1], timeout);
+        } catch (Exception exception) {
+            exception.printStackTrace();
+            code = 1;
+        }
+        System.exit(code);
+    }
+
+    /**
+     * Performs the training start
+     *
+     * @param storage The directory of the temporary bundle cache
+     * @param timeout The timeout in milliseconds for the framework to stop
+     * @return The exit code
+     * @throws Exception When the framework failed
+     */
+    private static int train(String storage, long timeout) throws Exception {
+        long start = System.nanoTime();
+        Map<String, String> configuration = CachePrewarmer.loadConfiguration();
+        configuration.put(CachePrewarmer.STORAGE, storage);
+        configuration.put(CachePrewarmer.STORAGE_CLEAN, "onFirstInit");
+        configuration.put("felix.shutdown.hook", "false");
+        // no interactive shell in the training start
+        if (System.getProperty("gosh.args") == null)
+            System.setProperty("gosh.args", "--nointeractive");
+
+        Class<?> classFactory = Class.forName("org.osgi.framework.launch.FrameworkFactory");
+        Class<?> classFramework = Class.forName("org.osgi.framework.launch.Framework");
+        Class<?> classBundle = Class.forName("org.osgi.framework.Bundle");
+        Class<?> classContext = Class.forName("org.osgi.framework.BundleContext");
+        Class<?> classStartLevel = Class.forName("org.osgi.framework.startlevel.FrameworkStartLevel");
+
+        Iterator<?> factories = ServiceLoader.load(classFactory).iterator();
+        if (!factories.hasNext())
+            throw new IllegalStateException("No OSGi framework found");
+        Object framework = CachePrewarmer.invoke(classFactory, factories.next(), "newFramework", new Class<?>[]{Map.class}, configuration);
+        CachePrewarmer.invoke(classFramework, framework, "init", new Class<?>[0]);
+        Object context = CachePrewarmer.invoke(classBundle, framework, "getBundleContext", new Class<?>[0]);
+        Class<?> classProcessor;
+        try {
+            classProcessor = Class.forName("org.apache.felix.main.AutoProcessor");
+        } catch (ClassNotFoundException exception) {
+            classProcessor = null;
+        }
+        if (classProcessor != null)
+            classProcessor.getMethod("process", Map.class, classContext).invoke(null, configuration, context);
+        CachePrewarmer.invoke(classFramework, framework, "start", new Class<?>[0]);
+
+        String value = configuration.get(BEGINNING_LEVEL);
+        int beginning = value == null ? 1 : Integer.parseInt(value.trim());
+        Object startLevel = CachePrewarmer.invoke(classBundle, framework, "adapt", new Class<?>[]{Class.class}, classStartLevel);
+        while ((Integer) CachePrewarmer.invoke(classStartLevel, startLevel, "getStartLevel", new Class<?>[0]) < beginning)
+            Thread.sleep(10);
+        System.out.println("Started the framework in " + (System.nanoTime() - start) / 1000000 + " ms");
+        CachePrewarmer.invoke(classBundle, framework, "stop", new Class<?>[0]);
+        CachePrewarmer.invoke(classFramework, framework, "waitForStop", new Class<?>[]{long.class}, timeout);
+        return 0;
+    }
+}
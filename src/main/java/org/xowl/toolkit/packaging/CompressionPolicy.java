@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Represents the policy that decides how the entries of a zip package are compressed.
+ * Already compressed content, detected from the file extension or the magic bytes at the start of the file,
+ * as well as tiny files are stored as is because deflating them costs CPU for almost no gain.
+ *
+ * @author Laurent Wouters
+ */
+public class CompressionPolicy {
+    /**
+     * The default extensions of files that are stored without compression
+     */
+    public static final String[] DEFAULT_STORED_EXTENSIONS = new String[]{
+            "jar", "war", "zip", "asc",
+            "gz", "tgz", "bz2", "xz", "zst", "7z",
+            "png", "jpg", "jpeg", "gif"
+    };
+    /**
+     * The known magic bytes of compressed formats
+     */
+    private static final byte[][] MAGIC_BYTES = new byte[][]{
+            {0x50, 0x4B, 0x03, 0x04},                                       // zip, jar
+            {0x50, 0x4B, 0x05, 0x06},                                       // empty zip
+            {0x1F, (byte) 0x8B},                                            // gzip
+            {0x42, 0x5A, 0x68},                                             // bzip2
+            {(byte) 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00},                    // xz
+            {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD},                         // zstd
+            {0x37, 0x7A, (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C},             // 7z
+            {(byte) 0x89, 0x50, 0x4E, 0x47},                                // png
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},                        // jpeg
+            {0x47, 0x49, 0x46, 0x38}                                        // gif
+    };
+    /**
+     * The maximum length of the known magic bytes
+     */
+    private static final int MAGIC_LENGTH = 6;
+
+    /**
+     * The compression level for the deflated entries
+     */
+    private final int level;
+    /**
+     * The extensions (lower case, without the dot) of files that are stored
+     */
+    private final Set<String> storedExtensions;
+    /**
+     * The size under which a file is stored
+     */
+    private final long storedMaxSize;
+
+    /**
+     * Initializes this policy
+     *
+     * @param level            The compression level for the deflated entries
+     * @param storedExtensions The extensions of files that are stored
+     * @param storedMaxSize    The size under which a file is stored
+     */
+    public CompressionPolicy(int level, Collection<String> storedExtensions, long storedMaxSize) {
+        this.level = level;
+        this.storedExtensions = new HashSet<>();
+        for (String extension : storedExtensions) {
+            String value = extension.toLowerCase();
+            this.storedExtensions.add(value.startsWith(".") ? value.substring(1) : value);
+        }
+        this.storedMaxSize = storedMaxSize;
+    }
+
+    /**
+     * Initializes this policy with the default stored extensions
+     *
+     * @param level         The compression level for the deflated entries
+     * @param storedMaxSize The size under which a file is stored
+     */
+    public CompressionPolicy(int level, long storedMaxSize) {
+        this(level, Arrays.asList(DEFAULT_STORED_EXTENSIONS), storedMaxSize);
+    }
+
+    /**
+     * Gets the compression level for the deflated entries
+     *
+     * @return The compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets whether the specified file should be stored without compression
+     *
+     * @param file      The file
+     * @param entryName The name of the entry for the file
+     * @return Whether the file should be stored
+     * @throws IOException When reading the file failed
+     */
+    public boolean isStored(File file, String entryName) throws IOException {
+        if (file.length() < storedMaxSize)
+            return true;
+        int index = entryName.lastIndexOf('.');
+        if (index >= 0 && storedExtensions.contains(entryName.substring(index + 1).toLowerCase()))
+            return true;
+        byte[] header = new byte[MAGIC_LENGTH];
+        int length = 0;
+        try (InputStream stream = new FileInputStream(file)) {
+            while (length < header.length) {
+                int read = stream.read(header, length, header.length - length);
+                if (read < 0)
+                    break;
+                length += read;
+            }
+        }
+        for (byte[] magic : MAGIC_BYTES) {
+            if (startsWith(header, length, magic))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets whether the header of a file starts with the specified magic bytes
+     *
+     * @param header The header of a file
+     * @param length The length of the header
+     * @param magic  The magic bytes
+     * @return Whether the header starts with the magic bytes
+     */
+    private static boolean startsWith(byte[] header, int length, byte[] magic) {
+        if (length < magic.length)
+            return false;
+        for (int i = 0; i != magic.length; i++) {
+            if (header[i] != magic[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Accumulates statistics about the compression of the entries of a zip package
+ *
+ * @author Laurent Wouters
+ */
+public class CompressionStatistics {
+    /**
+     * The number of stored entries
+     */
+    private int storedEntries;
+    /**
+     * The total size of the stored entries
+     */
+    private long storedBytes;
+    /**
+     * The time spent writing stored entries, in nanoseconds
+     */
+    private long storedTime;
+    /**
+     * The number of deflated entries
+     */
+    private int deflatedEntries;
+    /**
+     * The total uncompressed size of the deflated entries
+     */
+    private long deflatedBytes;
+    /**
+     * The total compressed size of the deflated entries
+     */
+    private long deflatedCompressedBytes;
+    /**
+     * The time spent writing deflated entries, in nanoseconds
+     */
+    private long deflatedTime;
+
+    /**
+     * Records a stored entry
+     *
+     * @param size The size of the entry
+     * @param time The time spent writing the entry, in nanoseconds
+     */
+    public synchronized void onStored(long size, long time) {
+        storedEntries++;
+        storedBytes += size;
+        storedTime += time;
+    }
+
+    /**
+     * Records a deflated entry
+     *
+     * @param size           The uncompressed size of the entry
+     * @param compressedSize The compressed size of the entry
+     * @param time           The time spent writing the entry, in nanoseconds
+     */
+    public synchronized void onDeflated(long size, long compressedSize, long time) {
+        deflatedEntries++;
+        deflatedBytes += size;
+        deflatedCompressedBytes += compressedSize;
+        deflatedTime += time;
+    }
+
+    /**
+     * Gets the total number of entries
+     *
+     * @return The number of entries
+     */
+    public synchronized int getEntries() {
+        return storedEntries + deflatedEntries;
+    }
+
+    /**
+     * Gets the total uncompressed size of the entries
+     *
+     * @return The uncompressed size
+     */
+    public synchronized long getUncompressedBytes() {
+        return storedBytes + deflatedBytes;
+    }
+
+    /**
+     * Reports these statistics for a package
+     *
+     * @param log         The log to report to
+     * @param packageName The name of the package
+     */
+    public synchronized void report(Log log, String packageName) {
+        log.info("Compression of " + packageName + ": " +
+                storedEntries + " entries stored (" + storedBytes + " bytes in " + (storedTime / 1000000) + " ms), " +
+                deflatedEntries + " entries deflated (" + deflatedBytes + " -> " + deflatedCompressedBytes + " bytes, " +
+                (deflatedBytes - deflatedCompressedBytes) + " bytes saved, in " + (deflatedTime / 1000000) + " ms)");
+        if (storedBytes > 0 && deflatedBytes > 0) {
+            // estimate the time that deflating the stored entries would have cost at the observed throughput
+            long estimate = (long) ((double) deflatedTime / deflatedBytes * storedBytes) - storedTime;
+            log.info("Compression of " + packageName + ": storing already compressed entries saved about " + Math.max(0, estimate / 1000000) + " ms");
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The digests of the entries of a package, computed while the entries are written.
+ * SHA-256 digests are always computed, SHA-512 digests optionally.
+ * This class is thread-safe.
+ *
+ * @author Laurent Wouters
+ */
+public class ContentDigests {
+    /**
+     * The prefix of the names of the manifests of the digests, followed by the extension of the algorithm
+     */
+    public static final String MANIFEST_PREFIX = "checksums.";
+
+    /**
+     * The algorithms for the digests
+     */
+    private final String[] algorithms;
+    /**
+     * The hexadecimal digests of the entries, for each algorithm
+     */
+    private final SortedMap<String, String[]> entries;
+    /**
+     * The latest modification time of the entries, in milliseconds
+     */
+    private long lastModified;
+
+    /**
+     * Initializes the digests
+     *
+     * @param sha512 Whether to compute SHA-512 digests in addition to the SHA-256 ones
+     */
+    public ContentDigests(boolean sha512) {
+        this.algorithms = sha512 ? new String[]{DigestUtils.SHA256, DigestUtils.SHA512} : new String[]{DigestUtils.SHA256};
+        this.entries = new TreeMap<>();
+    }
+
+    /**
+     * Gets the algorithms for the digests
+     *
+     * @return The algorithms
+     */
+    public String[] getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Gets the file extension for the digests of an algorithm, e.g. sha256 for SHA-256
+     *
+     * @param algorithm The algorithm
+     * @return The file extension
+     */
+    public static String getExtension(String algorithm) {
+        return algorithm.replace("-", "").toLowerCase();
+    }
+
+    /**
+     * Gets whether a path is the one of a manifest of the digests (checksums.sha256 or checksums.sha512)
+     *
+     * @param path The path, relative to the root folder of a distribution
+     * @return Whether this is the path of a manifest
+     */
+    public static boolean isManifest(String path) {
+        return path.equals(MANIFEST_PREFIX + getExtension(DigestUtils.SHA256)) || path.equals(MANIFEST_PREFIX + getExtension(DigestUtils.SHA512));
+    }
+
+    /**
+     * Creates the message digests for an entry
+     *
+     * @return The message digests, in the order of the algorithms
+     * @throws IOException When an algorithm is not supported
+     */
+    public MessageDigest[] newDigests() throws IOException {
+        MessageDigest[] result = new MessageDigest[algorithms.length];
+        for (int i = 0; i != algorithms.length; i++)
+            result[i] = DigestUtils.newDigest(algorithms[i]);
+        return result;
+    }
+
+    /**
+     * Updates message digests with a chunk of content
+     *
+     * @param digests The message digests
+     * @param buffer  The buffer with the content
+     * @param offset  The offset of the content in the buffer
+     * @param length  The length of the content
+     */
+    public static void update(MessageDigest[] digests, byte[] buffer, int offset, int length) {
+        for (int i = 0; i != digests.length; i++)
+            digests[i].update(buffer, offset, length);
+    }
+
+    /**
+     * Wraps an input stream so that the read content updates message digests
+     *
+     * @param input   The input stream
+     * @param digests The message digests
+     * @return The wrapping stream
+     */
+    public static InputStream wrap(InputStream input, MessageDigest[] digests) {
+        InputStream result = input;
+        for (int i = 0; i != digests.length; i++)
+            result = new DigestInputStream(result, digests[i]);
+        return result;
+    }
+
+    /**
+     * Wraps an output stream so that the written content updates message digests
+     *
+     * @param output  The output stream
+     * @param digests The message digests
+     * @return The wrapping stream
+     */
+    public static OutputStream wrap(OutputStream output, MessageDigest[] digests) {
+        OutputStream result = output;
+        for (int i = 0; i != digests.length; i++)
+            result = new DigestOutputStream(result, digests[i]);
+        return result;
+    }
+
+    /**
+     * Completes message digests into their hexadecimal representations
+     *
+     * @param digests The message digests
+     * @return The hexadecimal digests
+     */
+    public static String[] complete(MessageDigest[] digests) {
+        String[] result = new String[digests.length];
+        for (int i = 0; i != digests.length; i++)
+            result[i] = DigestUtils.toHex(digests[i].digest());
+        return result;
+    }
+
+    /**
+     * Records the digests of an entry, once its content has been completely written
+     *
+     * @param name    The name of the entry
+     * @param digests The message digests for the entry
+     */
+    public void put(String name, MessageDigest[] digests) {
+        String[] values = complete(digests);
+        synchronized (entries) {
+            entries.put(name, values);
+        }
+    }
+
+    /**
+     * Records the modification time of an entry
+     *
+     * @param time The modification time of the entry, in milliseconds
+     */
+    public void addModified(long time) {
+        synchronized (entries) {
+            lastModified = Math.max(lastModified, time);
+        }
+    }
+
+    /**
+     * Gets the latest modification time of the entries, so that the manifests do not depend on the time of the build
+     *
+     * @return The latest modification time of the entries, in milliseconds
+     */
+    public long getLastModified() {
+        synchronized (entries) {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Gets the hexadecimal digests of an entry
+     *
+     * @param name The name of the entry
+     * @return The digests in the order of the algorithms, or null if the entry is not known
+     */
+    public String[] get(String name) {
+        synchronized (entries) {
+            return entries.get(name);
+        }
+    }
+
+    /**
+     * Writes a manifest of the digests for an algorithm, in the format of the sha256sum tool.
+     * Only the entries under a prefix are written, their paths being relative to the prefix.
+     *
+     * @param writer The writer for the manifest
+     * @param index  The index of the algorithm
+     * @param prefix The prefix of the entries to write
+     * @throws IOException When an IO error occurs
+     */
+    public void writeManifest(Writer writer, int index, String prefix) throws IOException {
+        synchronized (entries) {
+            for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+                if (!entry.getKey().startsWith(prefix))
+                    continue;
+                writer.write(entry.getValue()[index]);
+                writer.write("  ");
+                writer.write(entry.getKey().substring(prefix.length()));
+                writer.write("\n");
+            }
+        }
+    }
+}
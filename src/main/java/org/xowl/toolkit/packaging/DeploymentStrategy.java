@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+/**
+ * The strategies for deploying files into a distribution that is staged on disk
+ *
+ * @author Laurent Wouters
+ */
+public enum DeploymentStrategy {
+    /**
+     * The files are fully copied, the default
+     */
+    COPY,
+    /**
+     * The files are hard linked
+     */
+    HARDLINK,
+    /**
+     * The files are symbolically linked, the links being resolved when the distribution is archived
+     */
+    SYMLINK,
+    /**
+     * The files are cloned with copy-on-write (reflink) when the file system supports it.
+     * The resource directories are cloned by a single cp process each, the bundles file by file.
+     */
+    REFLINK;
+
+    /**
+     * Gets the strategy for the specified name
+     *
+     * @param name The name of the strategy (copy, hardlink, symlink or reflink)
+     * @return The strategy, or null if it is not known
+     */
+    public static DeploymentStrategy fromName(String name) {
+        if (name == null)
+            return COPY;
+        switch (name.toLowerCase()) {
+            case "copy":
+                return COPY;
+            case "hardlink":
+                return HARDLINK;
+            case "symlink":
+                return SYMLINK;
+            case "reflink":
+                return REFLINK;
+            default:
+                return null;
+        }
+    }
+}
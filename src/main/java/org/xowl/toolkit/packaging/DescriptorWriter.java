@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Writes JSON descriptors in a streaming fashion.
+ * Strings are escaped while being written and the content of files (icons, license texts) is streamed
+ * into the output without being loaded in memory.
+ * The SHA-256 digest of the descriptor is computed while it is written.
+ *
+ * @author Laurent Wouters
+ */
+public class DescriptorWriter implements Closeable {
+    /**
+     * The size of the buffers
+     */
+    private static final int BUFFER_SIZE = 48 * 1024;
+    /**
+     * The Base64 alphabet
+     */
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    /**
+     * The hexadecimal characters for the escaped control characters
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The digest of the descriptor
+     */
+    private final MessageDigest digest;
+    /**
+     * The writer for the descriptor
+     */
+    private final Writer writer;
+    /**
+     * The buffer for the characters to escape or encode
+     */
+    private final char[] chars;
+    /**
+     * The computed digest, once this writer is closed
+     */
+    private String result;
+
+    /**
+     * Initializes this writer
+     *
+     * @param file The file for the descriptor
+     * @throws IOException When the file could not be opened
+     */
+    public DescriptorWriter(File file) throws IOException {
+        this.digest = DigestUtils.newDigest(DigestUtils.SHA256);
+        this.writer = new OutputStreamWriter(
+                new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), digest),
+                Charset.forName("UTF-8"));
+        this.chars = new char[BUFFER_SIZE / 3 * 4];
+    }
+
+    /**
+     * Writes raw JSON text
+     *
+     * @param text The text to write
+     * @return This writer
+     * @throws IOException When an IO error occurs
+     */
+    public DescriptorWriter write(String text) throws IOException {
+        writer.write(text);
+        return this;
+    }
+
+    /**
+     * Writes a JSON string
+     *
+     * @param value The value of the string, null is written as an empty string
+     * @return This writer
+     * @throws IOException When an IO error occurs
+     */
+    public DescriptorWriter writeString(String value) throws IOException {
+        writer.write('"');
+        if (value != null) {
+            int length = value.length();
+            for (int i = 0; i < length; i += chars.length) {
+                int count = Math.min(chars.length, length - i);
+                value.getChars(i, i + count, chars, 0);
+                escape(count);
+            }
+        }
+        writer.write('"');
+        return this;
+    }
+
+    /**
+     * Writes the text content of a file as a JSON string
+     *
+     * @param file The file (UTF-8)
+     * @return This writer
+     * @throws IOException When an IO error occurs
+     */
+    public DescriptorWriter writeText(File file) throws IOException {
+        writer.write('"');
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))) {
+            while (true) {
+                int read = reader.read(chars, 0, chars.length);
+                if (read < 0)
+                    break;
+                escape(read);
+            }
+        }
+        writer.write('"');
+        return this;
+    }
+
+    /**
+     * Writes the binary content of a file as a Base64-encoded JSON string
+     *
+     * @param file The file
+     * @return This writer
+     * @throws IOException When an IO error occurs
+     */
+    public DescriptorWriter writeBase64(File file) throws IOException {
+        writer.write('"');
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int pending = 0;
+        try (InputStream stream = new FileInputStream(file)) {
+            while (true) {
+                int read = stream.read(bytes, pending, bytes.length - pending);
+                if (read < 0)
+                    break;
+                pending += read;
+                int complete = pending - pending % 3;
+                encode(bytes, complete);
+                // keep the remaining bytes for the next chunk
+                for (int i = complete; i != pending; i++)
+                    bytes[i - complete] = bytes[i];
+                pending -= complete;
+            }
+        }
+        if (pending == 1) {
+            int value = (bytes[0] & 0xFF) << 16;
+            writer.write(BASE64[(value >> 18) & 0x3F]);
+            writer.write(BASE64[(value >> 12) & 0x3F]);
+            writer.write("==");
+        } else if (pending == 2) {
+            int value = ((bytes[0] & 0xFF) << 16) | ((bytes[1] & 0xFF) << 8);
+            writer.write(BASE64[(value >> 18) & 0x3F]);
+            writer.write(BASE64[(value >> 12) & 0x3F]);
+            writer.write(BASE64[(value >> 6) & 0x3F]);
+            writer.write('=');
+        }
+        writer.write('"');
+        return this;
+    }
+
+    /**
+     * Encodes complete 3-byte groups in Base64 and writes them
+     *
+     * @param bytes  The bytes to encode
+     * @param length The number of bytes to encode, a multiple of 3
+     * @throws IOException When an IO error occurs
+     */
+    private void encode(byte[] bytes, int length) throws IOException {
+        int count = 0;
+        for (int i = 0; i != length; i += 3) {
+            int value = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+            chars[count++] = BASE64[(value >> 18) & 0x3F];
+            chars[count++] = BASE64[(value >> 12) & 0x3F];
+            chars[count++] = BASE64[(value >> 6) & 0x3F];
+            chars[count++] = BASE64[value & 0x3F];
+        }
+        writer.write(chars, 0, count);
+    }
+
+    /**
+     * Escapes and writes the characters in the buffer.
+     * The runs of characters that need no escaping are written as is.
+     *
+     * @param length The number of characters in the buffer
+     * @throws IOException When an IO error occurs
+     */
+    private void escape(int length) throws IOException {
+        int start = 0;
+        for (int i = 0; i != length; i++) {
+            char c = chars[i];
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            writer.write(chars, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                case '\b':
+                    writer.write("\\b");
+                    break;
+                case '\f':
+                    writer.write("\\f");
+                    break;
+                default:
+                    writer.write("\\u00");
+                    writer.write(HEX[c >> 4]);
+                    writer.write(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        writer.write(chars, start, length - start);
+    }
+
+    /**
+     * Finishes the descriptor and closes this writer
+     *
+     * @return The hexadecimal SHA-256 digest of the descriptor
+     * @throws IOException When an IO error occurs
+     */
+    public String finish() throws IOException {
+        close();
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (result != null)
+            return;
+        writer.close();
+        result = DigestUtils.toHex(digest.digest());
+    }
+}
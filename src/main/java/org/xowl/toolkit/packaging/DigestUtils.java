@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility methods for computing message digests
+ *
+ * @author Laurent Wouters
+ */
+public class DigestUtils {
+    /**
+     * The SHA-256 algorithm
+     */
+    public static final String SHA256 = "SHA-256";
+    /**
+     * The SHA-512 algorithm
+     */
+    public static final String SHA512 = "SHA-512";
+    /**
+     * The hexadecimal characters
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Creates a new message digest
+     *
+     * @param algorithm The algorithm
+     * @return The message digest
+     * @throws IOException When the algorithm is not supported
+     */
+    public static MessageDigest newDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException(exception);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file
+     *
+     * @param file The file
+     * @return The hexadecimal digest
+     * @throws IOException When an IO error occurs
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest messageDigest = newDigest(SHA256);
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream stream = new FileInputStream(file)) {
+            while (true) {
+                int read = stream.read(buffer, 0, buffer.length);
+                if (read < 0)
+                    break;
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Gets the hexadecimal representation of bytes
+     *
+     * @param bytes The bytes
+     * @return The hexadecimal representation
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i != bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import fr.cenotelie.commons.utils.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.UUID;
+
+/**
+ * Represents a cache of extracted base distributions that is shared between builds.
+ * The extracted distributions are keyed by the SHA-256 of their archive.
+ * An archive is extracted into a private temporary directory that is then atomically renamed,
+ * so that concurrent builds never see a partially extracted distribution.
+ * The cached distributions are never modified, they are hard linked into the distributions to build.
+ *
+ * @author Laurent Wouters
+ */
+public class DistributionCache {
+    /**
+     * The name of the directory for the stamps of the archives
+     */
+    private static final String STAMPS = "stamps";
+
+    /**
+     * The root directory of the cache
+     */
+    private final File root;
+    /**
+     * The extractor for the archives
+     */
+    private final TarExtractor extractor;
+    /**
+     * The deployer for populating the distributions to build
+     */
+    private final FileDeployer deployer;
+    /**
+     * Whether the file system supports POSIX permissions
+     */
+    private boolean posixSupported;
+
+    /**
+     * Initializes this cache
+     *
+     * @param root      The root directory of the cache
+     * @param extractor The extractor for the archives
+     */
+    public DistributionCache(File root, TarExtractor extractor) {
+        this.root = root;
+        this.extractor = extractor;
+        this.deployer = new FileDeployer(DeploymentStrategy.HARDLINK, true);
+        this.posixSupported = true;
+    }
+
+    /**
+     * Gets the extracted content of an archive, extracting it into the cache if necessary
+     *
+     * @param archive The archive of a base distribution
+     * @return The directory with the extracted content (must not be modified)
+     * @throws IOException When an IO error occurs
+     */
+    public File get(File archive) throws IOException {
+        String key = getKey(archive);
+        File directory = new File(root, key);
+        if (directory.isDirectory())
+            return directory;
+        File temp = new File(root, key + ".tmp-" + UUID.randomUUID().toString());
+        if (!temp.mkdirs())
+            throw new IOException("Failed to create directory " + temp.getAbsolutePath());
+        try {
+            extractor.extract(archive, temp);
+            try {
+                Files.move(temp.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException exception) {
+                // another build extracted the same archive concurrently, use its result
+                if (!directory.isDirectory())
+                    throw exception;
+            }
+        } finally {
+            if (temp.exists())
+                IOUtils.deleteFolder(temp);
+        }
+        return directory;
+    }
+
+    /**
+     * Gets the key of an archive in this cache, i.e. the SHA-256 of its content.
+     * The key is memorized for the path, size and last modification time of the archive so that it is not recomputed.
+     *
+     * @param archive The archive
+     * @return The key for the archive
+     * @throws IOException When an IO error occurs
+     */
+    private String getKey(File archive) throws IOException {
+        String stamp = archive.getAbsolutePath() + ":" + archive.length() + ":" + archive.lastModified();
+        File stampFile = new File(new File(root, STAMPS), DigestUtils.toHex(DigestUtils.newDigest(DigestUtils.SHA256).digest(stamp.getBytes(StandardCharsets.UTF_8))));
+        if (stampFile.exists()) {
+            byte[] content = Files.readAllBytes(stampFile.toPath());
+            return new String(content, StandardCharsets.UTF_8).trim();
+        }
+        String key = DigestUtils.sha256(archive);
+        File stampDirectory = stampFile.getParentFile();
+        if (!stampDirectory.isDirectory() && !stampDirectory.mkdirs())
+            throw new IOException("Failed to create directory " + stampDirectory.getAbsolutePath());
+        File temp = new File(stampDirectory, stampFile.getName() + ".tmp-" + UUID.randomUUID().toString());
+        Files.write(temp.toPath(), key.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), stampFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return key;
+    }
+
+    /**
+     * Populates a directory with the content of a cached directory.
+     * The files are hard linked when possible, copied otherwise.
+     *
+     * @param source The cached directory
+     * @param target The directory to populate
+     * @param filter The filter for the files, or null to populate all of them
+     * @return The number of populated files
+     * @throws IOException When an IO error occurs
+     */
+    public long populate(final File source, final File target, final ArchiveEntryFilter filter) throws IOException {
+        final Path sourcePath = source.toPath();
+        final Path targetPath = target.toPath();
+        long before = deployer.getFileCount();
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                Path relative = sourcePath.relativize(directory);
+                if (filter != null && !directory.equals(sourcePath) && !filter.accept(relative.toString().replace(File.separatorChar, '/')))
+                    return FileVisitResult.SKIP_SUBTREE;
+                Files.createDirectories(targetPath.resolve(relative));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exception) throws IOException {
+                if (exception != null)
+                    throw exception;
+                // the permissions of the extracted directory, as for the files that are linked or copied with their attributes
+                if (posixSupported) {
+                    try {
+                        Files.setPosixFilePermissions(targetPath.resolve(sourcePath.relativize(directory)), Files.getPosixFilePermissions(directory));
+                    } catch (UnsupportedOperationException unsupported) {
+                        posixSupported = false;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Path relative = sourcePath.relativize(file);
+                if (filter != null && !filter.accept(relative.toString().replace(File.separatorChar, '/')))
+                    return FileVisitResult.CONTINUE;
+                deployer.deploy(file, targetPath.resolve(relative));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deployer.getFileCount() - before;
+    }
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads and updates the configuration of the Felix framework in a distribution (felix/bin/felix.jar and felix/conf/config.properties)
+ *
+ * @author Laurent Wouters
+ */
+public class FelixConfiguration {
+    /**
+     * The property for the packages exported by the framework
+     */
+    private static final String SYSTEM_PACKAGES = "org.osgi.framework.system.packages";
+    /**
+     * The property for the additional packages exported by the framework
+     */
+    private static final String SYSTEM_PACKAGES_EXTRA = "org.osgi.framework.system.packages.extra";
+    /**
+     * The property for the beginning start level of the framework
+     */
+    private static final String BEGINNING_LEVEL = "org.osgi.framework.startlevel.beginning";
+    /**
+     * The property for the action on the bundles of the auto-deploy directory
+     */
+    private static final String AUTO_DEPLOY_ACTION = "felix.auto.deploy.action";
+    /**
+     * The prefix of the properties for the bundles to install and start on a level
+     */
+    private static final String AUTO_START = "felix.auto.start.";
+    /**
+     * The prefix of the properties for the bundles to install on a level
+     */
+    private static final String AUTO_INSTALL = "felix.auto.install.";
+
+    /**
+     * The felix directory of the distribution
+     */
+    private final File directory;
+
+    /**
+     * Initializes this configuration
+     *
+     * @param directory The felix directory of the distribution
+     */
+    public FelixConfiguration(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the file for the configuration properties
+     *
+     * @return The file for the configuration properties
+     */
+    public File getConfigFile() {
+        return new File(new File(directory, "conf"), "config.properties");
+    }
+
+    /**
+     * Adds the packages exported by the framework to a resolver.
+     * Because the exports of the framework depend on the Java runtime, all the known runtimes are considered:
+     * the packages are the ones exported by the manifest of the framework jar, listed in its default properties
+     * for any runtime, and configured as system packages in the configuration properties.
+     *
+     * @param resolver The resolver
+     * @throws IOException When the framework jar or the configuration could not be read
+     */
+    public void addSystemPackages(BundleResolver resolver) throws IOException {
+        File fileFramework = new File(new File(directory, "bin"), "felix.jar");
+        if (fileFramework.exists()) {
+            BundleManifest manifest = BundleManifest.read(fileFramework);
+            if (manifest != null)
+                resolver.addSystemPackages(manifest.getHeader(BundleManifest.EXPORT_PACKAGE));
+            Properties defaults = new Properties();
+            try (JarFile jar = new JarFile(fileFramework, false)) {
+                ZipEntry entry = jar.getEntry("default.properties");
+                if (entry != null) {
+                    try (InputStream stream = jar.getInputStream(entry)) {
+                        defaults.load(stream);
+                    }
+                }
+            }
+            for (String name : defaults.stringPropertyNames()) {
+                if (name.equals(SYSTEM_PACKAGES) || name.startsWith("jre-"))
+                    resolver.addSystemPackages(removePlaceholders(defaults.getProperty(name)));
+            }
+        }
+        File fileConfig = getConfigFile();
+        if (fileConfig.exists()) {
+            Properties config = new Properties();
+            try (InputStream stream = new FileInputStream(fileConfig)) {
+                config.load(stream);
+            }
+            resolver.addSystemPackages(removePlaceholders(config.getProperty(SYSTEM_PACKAGES)));
+            resolver.addSystemPackages(removePlaceholders(config.getProperty(SYSTEM_PACKAGES_EXTRA)));
+        }
+    }
+
+    /**
+     * Removes the ${...} placeholders in a property value
+     *
+     * @param value The value, may be null
+     * @return The value without the placeholders
+     */
+    private static String removePlaceholders(String value) {
+        return value == null ? null : value.replaceAll("\\$\\{[^}]*\\}", "");
+    }
+
+    /**
+     * Writes the start levels computed by a resolver into the configuration properties.
+     * The existing auto-start, auto-install and beginning level properties are replaced and
+     * the auto-deploy action is removed, so that the bundles are only installed through their levels.
+     * The other lines of the configuration are kept as they are.
+     * The configuration is written into a new file that replaces the existing one,
+     * so that a configuration that is hard linked from a shared cache is not modified.
+     *
+     * @param resolver The resolver with the computed start levels
+     * @param prefix   The prefix of the bundle locations in the configuration, e.g. file:
+     * @throws IOException When an IO error occurs
+     */
+    public void writeStartLevels(BundleResolver resolver, String prefix) throws IOException {
+        File fileConfig = getConfigFile();
+        List<String> lines = new ArrayList<>();
+        if (fileConfig.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileConfig), "ISO-8859-1"))) {
+                boolean continuation = false;
+                boolean skipping = false;
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!continuation) {
+                        skipping = isReplaced(line);
+                        continuation = !isComment(line) && isContinued(line);
+                    } else {
+                        continuation = isContinued(line);
+                    }
+                    if (!skipping)
+                        lines.add(line);
+                }
+            }
+        }
+
+        File fileTemp = new File(fileConfig.getParentFile(), fileConfig.getName() + ".tmp");
+        if (!fileConfig.getParentFile().exists() && !fileConfig.getParentFile().mkdirs())
+            throw new IOException("Failed to create directory " + fileConfig.getParentFile().getAbsolutePath());
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fileTemp), "ISO-8859-1")) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+            writer.write("\n");
+            writer.write("# Start levels generated at packaging time from the wiring of the bundles,\n");
+            writer.write("# the bundles on a level do not depend on each other\n");
+            writer.write(BEGINNING_LEVEL + "=" + Math.max(1, resolver.getLevelCount()) + "\n");
+            for (int level = 1; level <= resolver.getLevelCount(); level++) {
+                writeLocations(writer, AUTO_INSTALL + level, resolver.getInstallLocations(level), prefix);
+                writeLocations(writer, AUTO_START + level, resolver.getStartLocations(level), prefix);
+            }
+        }
+        Files.move(fileTemp.toPath(), fileConfig.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes a property for a list of bundle locations
+     *
+     * @param writer    The writer for the configuration
+     * @param property  The name of the property
+     * @param locations The locations of the bundles
+     * @param prefix    The prefix of the bundle locations
+     * @throws IOException When an IO error occurs
+     */
+    private static void writeLocations(Writer writer, String property, List<String> locations, String prefix) throws IOException {
+        if (locations.isEmpty())
+            return;
+        writer.write(property);
+        writer.write("=");
+        for (String location : locations) {
+            writer.write(" \\\n ");
+            writer.write(prefix);
+            writer.write(location);
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * Gets whether a line of the configuration continues on the next line
+     *
+     * @param line The line
+     * @return Whether the line is continued
+     */
+    private static boolean isContinued(String line) {
+        int count = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--)
+            count++;
+        return count % 2 == 1;
+    }
+
+    /**
+     * Gets whether a line of the configuration is blank or a comment
+     *
+     * @param line The line
+     * @return Whether the line is blank or a comment
+     */
+    private static boolean isComment(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() || trimmed.charAt(0) == '#' || trimmed.charAt(0) == '!';
+    }
+
+    /**
+     * Gets whether a line of the configuration defines a property that is replaced by the generated start levels
+     *
+     * @param line The line
+     * @return Whether the property is replaced
+     */
+    private static boolean isReplaced(String line) {
+        if (isComment(line))
+            return false;
+        String trimmed = line.trim();
+        int end = 0;
+        while (end < trimmed.length() && "=: \t".indexOf(trimmed.charAt(end)) < 0)
+            end++;
+        String key = trimmed.substring(0, end);
+        return key.equals(BEGINNING_LEVEL)
+                || key.equals(AUTO_DEPLOY_ACTION)
+                || key.startsWith(AUTO_START)
+                || key.startsWith(AUTO_INSTALL);
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deploys files into a distribution according to a deployment strategy.
+ * When the strategy is not supported (different file systems, no reflink support, etc.),
+ * the deployer falls back to plain copies for all the subsequent files.
+ * The target files must never be modified in place because they may share their content with the source.
+ *
+ * @author Laurent Wouters
+ */
+public class FileDeployer {
+    /**
+     * The requested strategy
+     */
+    private final DeploymentStrategy strategy;
+    /**
+     * Whether to preserve the attributes of the files when copying
+     */
+    private final boolean copyAttributes;
+    /**
+     * Whether the deployer fell back to plain copies
+     */
+    private volatile boolean fallback;
+    /**
+     * The number of deployed files
+     */
+    private final AtomicLong fileCount;
+    /**
+     * The total size of the deployed files
+     */
+    private final AtomicLong byteCount;
+
+    /**
+     * Initializes this deployer
+     *
+     * @param strategy       The requested strategy
+     * @param copyAttributes Whether to preserve the attributes of the files when copying
+     */
+    public FileDeployer(DeploymentStrategy strategy, boolean copyAttributes) {
+        this.strategy = strategy;
+        this.copyAttributes = copyAttributes;
+        this.fallback = (strategy == DeploymentStrategy.COPY);
+        this.fileCount = new AtomicLong();
+        this.byteCount = new AtomicLong();
+    }
+
+    /**
+     * Gets whether the requested strategy was not supported and the files were copied instead
+     *
+     * @return Whether the deployer fell back to plain copies
+     */
+    public boolean hasFallenBack() {
+        return strategy != DeploymentStrategy.COPY && fallback;
+    }
+
+    /**
+     * Gets the number of files deployed by this deployer
+     *
+     * @return The number of deployed files
+     */
+    public long getFileCount() {
+        return fileCount.get();
+    }
+
+    /**
+     * Gets the total size of the files deployed by this deployer
+     *
+     * @return The total size of the deployed files
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * Deploys a file, replacing any existing target
+     *
+     * @param source The source file
+     * @param target The target file
+     * @throws IOException When an IO error occurs
+     */
+    public void deploy(Path source, Path target) throws IOException {
+        fileCount.incrementAndGet();
+        byteCount.addAndGet(Files.size(source));
+        // never write through an existing target, it may be a link to a file that must not be modified
+        Files.deleteIfExists(target);
+        if (!fallback) {
+            try {
+                switch (strategy) {
+                    case HARDLINK:
+                        Files.createLink(target, source);
+                        return;
+                    case SYMLINK:
+                        Files.createSymbolicLink(target, source.toAbsolutePath());
+                        return;
+                    case REFLINK:
+                        if (reflink(source, target))
+                            return;
+                        break;
+                }
+            } catch (UnsupportedOperationException | FileSystemException exception) {
+                // typically the source and the target are on different file systems
+            }
+            fallback = true;
+            Files.deleteIfExists(target);
+        }
+        if (copyAttributes)
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        else
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deploys a directory tree at once when the strategy supports it.
+     * With reflink, the whole tree is cloned by a single cp process, instead of one process for each file.
+     * The existing target files are removed first, not written through, and the links in the source are followed.
+     *
+     * @param source The source directory
+     * @param target The target directory
+     * @return Whether the tree was deployed, otherwise its files must be deployed one by one
+     * @throws IOException When an IO error occurs
+     */
+    public boolean deployTree(Path source, Path target) throws IOException {
+        if (fallback || strategy != DeploymentStrategy.REFLINK)
+            return false;
+        Files.createDirectories(target);
+        if (!runCopy("cp", "-R", "-L", "--reflink=always", "--remove-destination",
+                source.toAbsolutePath().toString() + "/.", target.toAbsolutePath().toString())) {
+            // the files are then deployed one by one, as plain copies
+            fallback = true;
+            return false;
+        }
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                fileCount.incrementAndGet();
+                byteCount.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Clones a file with copy-on-write through the cp command
+     *
+     * @param source The source file
+     * @param target The target file
+     * @return Whether the operation succeeded
+     * @throws IOException When an IO error occurs
+     */
+    private static boolean reflink(Path source, Path target) throws IOException {
+        return runCopy("cp", "--reflink=always", source.toAbsolutePath().toString(), target.toAbsolutePath().toString());
+    }
+
+    /**
+     * Runs a copy command
+     *
+     * @param command The command and its arguments
+     * @return Whether the command succeeded
+     * @throws IOException When an IO error occurs
+     */
+    private static boolean runCopy(String... command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException exception) {
+            // cp is not available on this platform
+            return false;
+        }
+        try {
+            // the error message of cp is not relevant, the file is then copied
+            process.getInputStream().close();
+            return process.waitFor() == 0;
+        } catch (InterruptedException exception) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        }
+    }
+}
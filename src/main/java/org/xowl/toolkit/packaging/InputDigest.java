@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Represents the digest of all the inputs of a packaging execution.
+ * The digest is recorded as a manifest in the target directory so that a later execution with the same inputs can be skipped.
+ * The digest of a file is reused from the previous manifest when its size and last modification time did not change.
+ *
+ * @author Laurent Wouters
+ */
+public class InputDigest {
+    /**
+     * The prefix of the keys for the parameters
+     */
+    private static final String PREFIX_PARAMETER = "parameter.";
+    /**
+     * The prefix of the keys for the files
+     */
+    private static final String PREFIX_FILE = "file.";
+    /**
+     * The prefix of the keys for the file stamps (size and last modification time)
+     */
+    private static final String PREFIX_STAMP = "stamp.";
+
+    /**
+     * The manifest file
+     */
+    private final File manifest;
+    /**
+     * The entries of the previous manifest, if any
+     */
+    private final Properties previous;
+    /**
+     * The entries of the current digest
+     */
+    private final Properties current;
+
+    /**
+     * Initializes this digest
+     *
+     * @param manifest The manifest file
+     */
+    public InputDigest(File manifest) {
+        this.manifest = manifest;
+        this.previous = new Properties();
+        this.current = new Properties();
+        if (manifest.exists()) {
+            try (InputStream stream = new FileInputStream(manifest)) {
+                previous.load(stream);
+            } catch (IOException exception) {
+                previous.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds a parameter to this digest
+     *
+     * @param name  The name of the parameter
+     * @param value The value of the parameter
+     */
+    public void addParameter(String name, Object value) {
+        String text;
+        if (value == null)
+            text = "";
+        else if (value instanceof Object[])
+            text = Arrays.deepToString((Object[]) value);
+        else
+            text = value.toString();
+        current.setProperty(PREFIX_PARAMETER + name, text);
+    }
+
+    /**
+     * Adds a file to this digest.
+     * If the file is a directory, all its content is added.
+     *
+     * @param name The name of the input
+     * @param file The file
+     * @throws IOException When reading the file failed
+     */
+    public void addFile(String name, File file) throws IOException {
+        if (file == null) {
+            current.setProperty(PREFIX_FILE + name, "");
+            return;
+        }
+        if (file.isDirectory()) {
+            current.setProperty(PREFIX_FILE + name, "directory");
+            String[] children = file.list();
+            if (children == null)
+                return;
+            Arrays.sort(children);
+            for (String child : children)
+                addFile(name + "/" + child, new File(file, child));
+            return;
+        }
+        if (!file.exists()) {
+            current.setProperty(PREFIX_FILE + name, "missing");
+            return;
+        }
+        String stamp = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        String digest = previous.getProperty(PREFIX_FILE + name);
+        if (digest == null || !stamp.equals(previous.getProperty(PREFIX_STAMP + name)))
+            digest = DigestUtils.sha256(file);
+        current.setProperty(PREFIX_FILE + name, digest);
+        current.setProperty(PREFIX_STAMP + name, stamp);
+    }
+
+    /**
+     * Gets whether the inputs are the same as the ones recorded in the previous manifest.
+     * The stamps of the files are not compared, only their digests.
+     *
+     * @return Whether the inputs did not change
+     */
+    public boolean isUnchanged() {
+        if (previous.isEmpty())
+            return false;
+        Set<String> keys = new HashSet<>();
+        for (String key : current.stringPropertyNames()) {
+            if (!key.startsWith(PREFIX_STAMP))
+                keys.add(key);
+        }
+        for (String key : previous.stringPropertyNames()) {
+            if (!key.startsWith(PREFIX_STAMP))
+                keys.add(key);
+        }
+        for (String key : keys) {
+            if (!Objects.equals(current.getProperty(key), previous.getProperty(key)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the previous manifest
+     *
+     * @throws IOException When deleting the manifest failed
+     */
+    public void invalidate() throws IOException {
+        if (manifest.exists() && !manifest.delete())
+            throw new IOException("Failed to delete " + manifest.getAbsolutePath());
+    }
+
+    /**
+     * Records this digest as the manifest
+     *
+     * @throws IOException When writing the manifest failed
+     */
+    public void record() throws IOException {
+        try (OutputStream stream = new FileOutputStream(manifest)) {
+            current.store(stream, "Digest of the packaging inputs");
+        }
+    }
+}
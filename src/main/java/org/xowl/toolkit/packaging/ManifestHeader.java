@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.util.*;
+
+/**
+ * Parses the values of OSGi manifest headers such as Import-Package or Export-Package.
+ * A header is a list of clauses separated by commas, a clause being a list of names
+ * followed by attributes (name=value) and directives (name:=value), all separated by semicolons.
+ *
+ * @author Laurent Wouters
+ */
+public class ManifestHeader {
+    /**
+     * A clause of a header
+     */
+    public static class Clause {
+        /**
+         * The names in this clause (packages, symbolic names)
+         */
+        private final List<String> names;
+        /**
+         * The attributes of this clause
+         */
+        private final Map<String, String> attributes;
+        /**
+         * The directives of this clause
+         */
+        private final Map<String, String> directives;
+
+        /**
+         * Initializes this clause
+         */
+        private Clause() {
+            this.names = new ArrayList<>(1);
+            this.attributes = new HashMap<>();
+            this.directives = new HashMap<>();
+        }
+
+        /**
+         * Gets the names in this clause
+         *
+         * @return The names
+         */
+        public List<String> getNames() {
+            return Collections.unmodifiableList(names);
+        }
+
+        /**
+         * Gets the value of an attribute
+         *
+         * @param name The name of the attribute
+         * @return The value, or null if the attribute is not present
+         */
+        public String getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        /**
+         * Gets the value of a directive
+         *
+         * @param name The name of the directive
+         * @return The value, or null if the directive is not present
+         */
+        public String getDirective(String name) {
+            return directives.get(name);
+        }
+
+        /**
+         * Gets whether this clause is optional, i.e. has the resolution:=optional directive
+         *
+         * @return Whether this clause is optional
+         */
+        public boolean isOptional() {
+            return "optional".equals(directives.get("resolution"));
+        }
+    }
+
+    /**
+     * Parses the value of a header
+     *
+     * @param value The value of the header, may be null
+     * @return The clauses of the header
+     */
+    public static List<Clause> parse(String value) {
+        List<Clause> result = new ArrayList<>();
+        if (value == null)
+            return result;
+        for (String part : split(value, ',')) {
+            Clause clause = new Clause();
+            for (String element : split(part, ';')) {
+                int index = element.indexOf('=');
+                if (index < 0) {
+                    if (!element.isEmpty())
+                        clause.names.add(element);
+                } else if (index > 0 && element.charAt(index - 1) == ':') {
+                    clause.directives.put(element.substring(0, index - 1).trim(), unquote(element.substring(index + 1)));
+                } else {
+                    clause.attributes.put(element.substring(0, index).trim(), unquote(element.substring(index + 1)));
+                }
+            }
+            if (!clause.names.isEmpty())
+                result.add(clause);
+        }
+        return result;
+    }
+
+    /**
+     * Splits a value on a separator that is not within quotes
+     *
+     * @param value     The value to split
+     * @param separator The separator
+     * @return The trimmed parts
+     */
+    private static List<String> split(String value, char separator) {
+        List<String> result = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i != value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == separator && !quoted) {
+                result.add(value.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        result.add(value.substring(start).trim());
+        return result;
+    }
+
+    /**
+     * Removes the quotes around a value
+     *
+     * @param value The value
+     * @return The value without quotes
+     */
+    private static String unquote(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+            return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    /**
+     * Compares two OSGi versions (major.minor.micro.qualifier), the missing parts being 0 or empty
+     *
+     * @param left  The left version
+     * @param right The right version
+     * @return A negative value, 0 or a positive value when the left version is lower, equal or greater
+     */
+    public static int compareVersions(String left, String right) {
+        String[] partsLeft = splitVersion(left);
+        String[] partsRight = splitVersion(right);
+        for (int i = 0; i != 3; i++) {
+            int result = Integer.compare(parseNumber(partsLeft[i]), parseNumber(partsRight[i]));
+            if (result != 0)
+                return result;
+        }
+        return partsLeft[3].compareTo(partsRight[3]);
+    }
+
+    /**
+     * Gets whether a version is within a version range, such as [1.0,2.0) or 1.0 (at least 1.0)
+     *
+     * @param version The version, null for 0.0.0
+     * @param range   The version range, null for any version
+     * @return Whether the version is within the range
+     */
+    public static boolean isInRange(String version, String range) {
+        if (range == null)
+            return true;
+        if (version == null)
+            version = "0.0.0";
+        range = range.trim();
+        if (range.isEmpty())
+            return true;
+        char first = range.charAt(0);
+        if (first != '[' && first != '(')
+            return compareVersions(version, range) >= 0;
+        char last = range.charAt(range.length() - 1);
+        int comma = range.indexOf(',');
+        if (comma < 0)
+            return compareVersions(version, range.substring(1, range.length() - 1)) == 0;
+        int compareFloor = compareVersions(version, range.substring(1, comma));
+        int compareCeiling = compareVersions(version, range.substring(comma + 1, range.length() - 1));
+        return (first == '[' ? compareFloor >= 0 : compareFloor > 0) && (last == ']' ? compareCeiling <= 0 : compareCeiling < 0);
+    }
+
+    /**
+     * Splits a version into its four parts
+     *
+     * @param version The version
+     * @return The parts
+     */
+    private static String[] splitVersion(String version) {
+        String[] result = new String[]{"0", "0", "0", ""};
+        String[] parts = version.trim().split("\\.", 4);
+        System.arraycopy(parts, 0, result, 0, parts.length);
+        return result;
+    }
+
+    /**
+     * Parses a numeric part of a version
+     *
+     * @param value The part
+     * @return The number, 0 if it is not a number
+     */
+    private static int parseNumber(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+}
@@ -17,8 +17,6 @@
 
 package org.xowl.toolkit.packaging;
 
-import fr.cenotelie.commons.utils.IOUtils;
-import fr.cenotelie.commons.utils.TextUtils;
 import org.apache.maven.artifact.DefaultArtifact;
 import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.model.Dependency;
@@ -26,12 +24,14 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.eclipse.aether.artifact.Artifact;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Writer;
-import java.util.zip.ZipOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Builds a static marketplace that contains addons for the the xOWL federation platform
@@ -53,10 +53,48 @@ public class MarketplacePackageMojo extends PackagingAbstractMojo {
                 throw new MojoFailureException("Failed to create target directory");
         }
 
-        File fileDescriptor = writeDescriptor();
         File[] fileAddons = retrieveAddons();
+        InputDigest inputs = null;
+        if (incremental) {
+            inputs = digestInputs(fileAddons);
+            File filePackage = new File(targetDirectory, getArtifactName() + ".zip");
+            File fileDescriptor = new File(targetDirectory, getArtifactName() + ".json");
+            if (isUpToDate(inputs, getOutputs(filePackage, fileDescriptor))) {
+                attachArtifacts(filePackage, fileDescriptor);
+                writeMetrics();
+                return;
+            }
+        }
+
+        File fileDescriptor = writeDescriptor();
         File filePackage = buildPackage(fileDescriptor, fileAddons);
+        attachArtifacts(filePackage, fileDescriptor);
+        if (inputs != null)
+            recordInputs(inputs);
+        writeMetrics();
+    }
 
+    /**
+     * Computes the digest of the inputs of this packaging
+     *
+     * @param fileAddons The resolved files
+     * @return The digest of the inputs
+     * @throws MojoFailureException When reading an input failed
+     */
+    private InputDigest digestInputs(File[] fileAddons) throws MojoFailureException {
+        InputDigest digest = newInputDigest();
+        for (int i = 0; i != fileAddons.length; i++)
+            addInputFile(digest, "addon." + i, fileAddons[i]);
+        return digest;
+    }
+
+    /**
+     * Attaches the produced artifacts to the project
+     *
+     * @param filePackage    The file for the package
+     * @param fileDescriptor The file for the descriptor
+     */
+    private void attachArtifacts(File filePackage, File fileDescriptor) {
         DefaultArtifactHandler artifactHandler = new DefaultArtifactHandler("xowl-marketplace");
         artifactHandler.setAddedToClasspath(false);
         artifactHandler.setExtension("zip");
@@ -79,6 +117,7 @@ public class MarketplacePackageMojo extends PackagingAbstractMojo {
                 "",
                 fileDescriptor
         );
+        attachChecksumFiles(filePackage, "zip");
     }
 
     /**
@@ -88,25 +127,29 @@ public class MarketplacePackageMojo extends PackagingAbstractMojo {
      * @throws MojoFailureException When writing failed
      */
     private File writeDescriptor() throws MojoFailureException {
+        long start = metrics.getPhase(PackagingMetrics.DESCRIPTOR).begin();
         File targetDirectory = new File(project.getModel().getBuild().getDirectory());
         File marketplaceDescriptor = new File(targetDirectory, getArtifactName() + ".json");
         getLog().info("Writing descriptor for marketplace: " + marketplaceDescriptor.getName());
-        try (Writer writer = IOUtils.getWriter(marketplaceDescriptor)) {
+        String digest;
+        try (DescriptorWriter writer = new DescriptorWriter(marketplaceDescriptor)) {
             writer.write("{\n");
-            writer.write("\t\"modelVersion\": \"" + TextUtils.escapeStringJSON(MODEL_VERSION) + "\",\n");
+            writer.write("\t\"modelVersion\": ").writeString(MODEL_VERSION).write(",\n");
             writer.write("\t\"addons\": [\n");
             boolean first = true;
             for (Dependency dependency : project.getModel().getDependencies()) {
                 if (!first)
                     writer.write(",\n");
                 first = false;
-                writer.write("\t\t\"" + TextUtils.escapeStringJSON(dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion()) + "\"");
+                writer.write("\t\t").writeString(dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion());
             }
             writer.write("\n\t]\n");
             writer.write("}\n");
+            digest = writer.finish();
         } catch (IOException exception) {
             throw new MojoFailureException("Failed to write the marketplace description", exception);
         }
+        reportDescriptor(marketplaceDescriptor, digest, start);
         return marketplaceDescriptor;
     }
 
@@ -116,15 +159,14 @@ public class MarketplacePackageMojo extends PackagingAbstractMojo {
      * @throws MojoFailureException When the resolution failed
      */
     private File[] retrieveAddons() throws MojoFailureException {
-        File[] result = new File[project.getDependencies().size() * 4];
-        int i = 0;
+        List<Artifact> artifacts = new ArrayList<>(project.getDependencies().size() * 4);
         for (Dependency dependency : project.getModel().getDependencies()) {
-            result[i++] = resolveArtifact(dependency);
-            result[i++] = resolveArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "zip.asc");
-            result[i++] = resolveArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "json");
-            result[i++] = resolveArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "json.asc");
+            artifacts.add(getArtifact(dependency));
+            artifacts.add(getArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "zip.asc"));
+            artifacts.add(getArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "json"));
+            artifacts.add(getArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(), "", "json.asc"));
         }
-        return result;
+        return resolveArtifacts(artifacts);
     }
 
     /**
@@ -139,36 +181,42 @@ public class MarketplacePackageMojo extends PackagingAbstractMojo {
         File targetDirectory = new File(project.getModel().getBuild().getDirectory());
         File marketplacePackage = new File(targetDirectory, getArtifactName() + ".zip");
         getLog().info("Writing package for marketplace: " + marketplacePackage.getName());
+        long start = metrics.getPhase(PackagingMetrics.COMPRESS).begin();
+        String[] packageDigests;
         try (FileOutputStream fileStream = new FileOutputStream(marketplacePackage)) {
-            try (ZipOutputStream stream = new ZipOutputStream(fileStream)) {
-                stream.setLevel(9);
+            MessageDigest[] packageDigest = newContentDigests().newDigests();
+            CompressionStatistics statistics = new CompressionStatistics();
+            try (ZipPackageWriter writer = openZipPackage(ContentDigests.wrap(fileStream, packageDigest), statistics, null)) {
                 zipAddFile(
-                        stream,
+                        writer,
                         fileDescriptor,
                         "marketplace.json");
                 int i = 0;
                 for (Dependency dependency : project.getModel().getDependencies()) {
                     zipAddFile(
-                            stream,
+                            writer,
                             fileAddons[i++],
                             dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion() + ".zip");
                     zipAddFile(
-                            stream,
+                            writer,
                             fileAddons[i++],
                             dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion() + ".zip.asc");
                     zipAddFile(
-                            stream,
+                            writer,
                             fileAddons[i++],
                             dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion() + ".descriptor");
                     zipAddFile(
-                            stream,
+                            writer,
                             fileAddons[i++],
                             dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion() + ".descriptor.asc");
                 }
             }
-            return marketplacePackage;
+            packageDigests = ContentDigests.complete(packageDigest);
+            reportCompression(statistics, marketplacePackage, start);
         } catch (IOException exception) {
             throw new MojoFailureException("Failed to write the addon package", exception);
         }
+        writeChecksumFiles(marketplacePackage, packageDigests);
+        return marketplacePackage;
     }
 }
@@ -17,10 +17,11 @@
 
 package org.xowl.toolkit.packaging;
 
-import fr.cenotelie.commons.utils.IOUtils;
 import org.apache.maven.artifact.handler.ArtifactHandler;
 import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
 import org.apache.maven.model.Dependency;
+import org.apache.maven.model.License;
+import org.apache.maven.model.Model;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -36,12 +37,12 @@ import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
 
 import javax.inject.Inject;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents an abstract Mojo that defines some useful components as parameters
@@ -49,6 +50,11 @@ import java.util.zip.ZipOutputStream;
  * @author Laurent Wouters
  */
 public abstract class PackagingAbstractMojo extends AbstractMojo {
+    /**
+     * The number of zip entries between two progress messages
+     */
+    private static final int ZIP_PROGRESS_INTERVAL = 100;
+
     /**
      * The current artifact resolve
      */
@@ -79,6 +85,70 @@ public abstract class PackagingAbstractMojo extends AbstractMojo {
     @Parameter(readonly = true, defaultValue = "${project}", required = true)
     protected MavenProject project;
 
+    /**
+     * The maximum number of artifacts that are resolved concurrently
+     */
+    @Parameter(defaultValue = "4")
+    protected int resolutionThreads;
+
+    /**
+     * Whether to skip the packaging when its inputs did not change since the last execution.
+     * The existing artifacts are then attached to the project again.
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * The version of this plugin
+     */
+    @Parameter(readonly = true, defaultValue = "${plugin.version}")
+    protected String pluginVersion;
+
+    /**
+     * The compression level for the deflated entries of zip packages
+     */
+    @Parameter(defaultValue = "9")
+    protected int compressionLevel;
+
+    /**
+     * The extensions of files that are stored without compression in zip packages
+     */
+    @Parameter
+    protected String[] storedExtensions;
+
+    /**
+     * The size (in bytes) under which files are stored without compression in zip packages
+     */
+    @Parameter(defaultValue = "512")
+    protected long storedMaxSize;
+
+    /**
+     * The number of threads for compressing the entries of zip packages.
+     * 1 writes the entries sequentially, 0 uses all the available processors.
+     */
+    @Parameter(defaultValue = "1")
+    protected int zipThreads;
+
+    /**
+     * Whether to compute SHA-512 checksums in addition to the SHA-256 ones
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean sha512Checksums;
+
+    /**
+     * The metrics of the current packaging
+     */
+    protected final PackagingMetrics metrics = new PackagingMetrics();
+    /**
+     * The number of entries added to zip packages so far
+     */
+    private final AtomicInteger zipEntries = new AtomicInteger();
+
+    /**
+     * The compression policy for zip packages
+     */
+    private CompressionPolicy compressionPolicy;
+
 
     /**
      * Gets the prefix name of artifacts
@@ -97,12 +167,7 @@ public abstract class PackagingAbstractMojo extends AbstractMojo {
      * @throws MojoFailureException When the resolution failed
      */
     protected File resolveArtifact(Dependency dependency) throws MojoFailureException {
-        return resolveArtifact(
-                dependency.getGroupId(),
-                dependency.getArtifactId(),
-                dependency.getVersion(),
-                getDependencyClassifier(dependency),
-                getDependencyExtension(dependency));
+        return resolveArtifact(getArtifact(dependency));
     }
 
     /**
@@ -150,18 +215,57 @@ public abstract class PackagingAbstractMojo extends AbstractMojo {
      * @throws MojoFailureException When the resolution failed
      */
     protected File resolveArtifact(String groupId, String artifactId, String version, String classifier, String extension) throws MojoFailureException {
-        String name = groupId + "." + artifactId + "-" + version;
-        if (!classifier.isEmpty())
-            name += "-" + classifier;
-        name += "." + extension;
+        return resolveArtifact(getArtifact(groupId, artifactId, version, classifier, extension));
+    }
 
-        getLog().info("Resolving artifact: " + name);
-        Artifact artifact = new DefaultArtifact(
+    /**
+     * Gets the artifact to resolve for a dependency
+     *
+     * @param dependency The artifact specification
+     * @return The artifact to resolve
+     */
+    protected Artifact getArtifact(Dependency dependency) {
+        return getArtifact(
+                dependency.getGroupId(),
+                dependency.getArtifactId(),
+                dependency.getVersion(),
+                getDependencyClassifier(dependency),
+                getDependencyExtension(dependency));
+    }
+
+    /**
+     * Gets the artifact to resolve for the specified coordinates
+     *
+     * @param groupId    The groupId of the artifact
+     * @param artifactId The artifactId of the artifact
+     * @param version    The version of the artifact
+     * @param classifier The classifier of the artifact
+     * @param extension  The extension of the artifact
+     * @return The artifact to resolve
+     */
+    protected Artifact getArtifact(String groupId, String artifactId, String version, String classifier, String extension) {
+        return new DefaultArtifact(
                 groupId,
                 artifactId,
                 classifier,
                 extension,
                 version);
+    }
+
+    /**
+     * Resolves an artifact
+     *
+     * @param artifact The artifact to resolve
+     * @return The file for the artifact
+     * @throws MojoFailureException When the resolution failed
+     */
+    protected File resolveArtifact(Artifact artifact) throws MojoFailureException {
+        String name = artifact.getGroupId() + "." + artifact.getArtifactId() + "-" + artifact.getVersion();
+        if (!artifact.getClassifier().isEmpty())
+            name += "-" + artifact.getClassifier();
+        name += "." + artifact.getExtension();
+
+        getLog().info("Resolving artifact: " + name);
         try {
             ArtifactResult result = artifactResolver.resolveArtifact(repositorySystemSession, new ArtifactRequest(artifact, null, null));
             if (!result.isResolved()) {
@@ -173,27 +277,428 @@ public abstract class PackagingAbstractMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Resolves a batch of artifacts.
+     * The artifacts are resolved concurrently on at most resolutionThreads threads.
+     * The resulting files are in the same order as the requested artifacts.
+     * When several resolutions fail, the reported failure is the one for the first artifact in the batch.
+     *
+     * @param artifacts The artifacts to resolve
+     * @return The files for the artifacts
+     * @throws MojoFailureException When the resolution of an artifact failed
+     */
+    protected File[] resolveArtifacts(List<Artifact> artifacts) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.RESOLVE);
+        long start = phase.begin();
+        File[] result = doResolveArtifacts(artifacts);
+        phase.end(start);
+        phase.addEntries(result.length);
+        for (int i = 0; i != result.length; i++)
+            phase.addRead(result[i].length());
+        return result;
+    }
+
+    /**
+     * Resolves a batch of artifacts
+     *
+     * @param artifacts The artifacts to resolve
+     * @return The files for the artifacts
+     * @throws MojoFailureException When the resolution of an artifact failed
+     */
+    private File[] doResolveArtifacts(List<Artifact> artifacts) throws MojoFailureException {
+        File[] result = new File[artifacts.size()];
+        int threads = Math.min(resolutionThreads, artifacts.size());
+        if (threads <= 1) {
+            for (int i = 0; i != result.length; i++)
+                result[i] = resolveArtifact(artifacts.get(i));
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> futures = new ArrayList<>(artifacts.size());
+            for (final Artifact artifact : artifacts) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws MojoFailureException {
+                        return resolveArtifact(artifact);
+                    }
+                }));
+            }
+            for (int i = 0; i != result.length; i++) {
+                try {
+                    result[i] = futures.get(i).get();
+                } catch (ExecutionException exception) {
+                    if (exception.getCause() instanceof MojoFailureException)
+                        throw (MojoFailureException) exception.getCause();
+                    throw new MojoFailureException("Failed to resolve artifacts", exception.getCause());
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoFailureException("Interrupted while resolving artifacts", exception);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the OSGi manifests of bundles
+     *
+     * @param files The files for the bundles, null for the files that are not bundles
+     * @return The manifests, null for the files that are not OSGi bundles
+     * @throws MojoFailureException When a bundle could not be read
+     */
+    protected BundleManifest[] readBundleManifests(File[] files) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.INDEX);
+        long start = phase.begin();
+        BundleManifest[] result = new BundleManifest[files.length];
+        for (int i = 0; i != files.length; i++) {
+            if (files[i] == null)
+                continue;
+            try {
+                result[i] = BundleManifest.read(files[i]);
+            } catch (IOException exception) {
+                throw new MojoFailureException("Failed to read the manifest of bundle " + files[i].getAbsolutePath(), exception);
+            }
+            if (result[i] == null)
+                getLog().warn("Not an OSGi bundle: " + files[i].getName());
+            else
+                phase.addEntries(1);
+        }
+        phase.end(start);
+        return result;
+    }
+
+    /**
+     * Creates the digest of the inputs for this packaging with the inputs that are common to all packaging
+     *
+     * @return The digest of the inputs
+     */
+    protected InputDigest newInputDigest() {
+        File targetDirectory = new File(project.getModel().getBuild().getDirectory());
+        InputDigest digest = new InputDigest(new File(targetDirectory, getArtifactName() + ".inputs"));
+        digest.addParameter("pluginVersion", pluginVersion);
+        digest.addParameter("mojo", getClass().getName());
+        digest.addParameter("buildUser", System.getProperty("user.name"));
+        digest.addParameter("groupId", project.getModel().getGroupId());
+        digest.addParameter("artifactId", project.getModel().getArtifactId());
+        digest.addParameter("version", project.getModel().getVersion());
+        digest.addParameter("name", project.getModel().getName());
+        digest.addParameter("description", project.getModel().getDescription());
+        digest.addParameter("url", project.getModel().getUrl());
+        if (project.getModel().getOrganization() != null) {
+            digest.addParameter("organization.name", project.getModel().getOrganization().getName());
+            digest.addParameter("organization.url", project.getModel().getOrganization().getUrl());
+        }
+        for (int i = 0; i != project.getModel().getLicenses().size(); i++) {
+            digest.addParameter("license." + i + ".name", project.getModel().getLicenses().get(i).getName());
+            digest.addParameter("license." + i + ".url", project.getModel().getLicenses().get(i).getUrl());
+        }
+        for (int i = 0; i != project.getModel().getDependencies().size(); i++)
+            digest.addParameter("dependency." + i, project.getModel().getDependencies().get(i).getManagementKey() + ":" + project.getModel().getDependencies().get(i).getVersion());
+        digest.addParameter("compressionLevel", compressionLevel);
+        digest.addParameter("storedExtensions", storedExtensions);
+        digest.addParameter("storedMaxSize", storedMaxSize);
+        digest.addParameter("sha512Checksums", sha512Checksums);
+        return digest;
+    }
+
+    /**
+     * Adds a file to the digest of the inputs
+     *
+     * @param digest The digest of the inputs
+     * @param name   The name of the input
+     * @param file   The file
+     * @throws MojoFailureException When reading the file failed
+     */
+    protected void addInputFile(InputDigest digest, String name, File file) throws MojoFailureException {
+        try {
+            digest.addFile(name, file);
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to compute the digest of " + file.getAbsolutePath(), exception);
+        }
+    }
+
+    /**
+     * Gets whether the outputs of this packaging are up to date with respect to its inputs.
+     * When they are not, the recorded digest of the previous inputs is discarded.
+     *
+     * @param digest  The digest of the current inputs
+     * @param outputs The expected outputs
+     * @return Whether the outputs are up to date
+     * @throws MojoFailureException When the recorded digest could not be discarded
+     */
+    protected boolean isUpToDate(InputDigest digest, File... outputs) throws MojoFailureException {
+        boolean upToDate = digest.isUnchanged();
+        for (File output : outputs)
+            upToDate = upToDate && output.exists();
+        if (upToDate) {
+            getLog().info("Packaging inputs did not change, reusing the existing artifacts");
+            return true;
+        }
+        try {
+            digest.invalidate();
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to discard the digest of the previous inputs", exception);
+        }
+        return false;
+    }
+
+    /**
+     * Records the digest of the inputs of a successful packaging
+     *
+     * @param digest The digest of the inputs
+     * @throws MojoFailureException When writing the digest failed
+     */
+    protected void recordInputs(InputDigest digest) throws MojoFailureException {
+        try {
+            digest.record();
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to record the digest of the inputs", exception);
+        }
+    }
+
+    /**
+     * Gets the compression policy for zip packages
+     *
+     * @return The compression policy
+     */
+    protected CompressionPolicy getCompressionPolicy() {
+        if (compressionPolicy == null) {
+            compressionPolicy = storedExtensions == null ?
+                    new CompressionPolicy(compressionLevel, storedMaxSize) :
+                    new CompressionPolicy(compressionLevel, Arrays.asList(storedExtensions), storedMaxSize);
+        }
+        return compressionPolicy;
+    }
+
+    /**
+     * Creates the digests for the entries of a package
+     *
+     * @return The digests
+     */
+    protected ContentDigests newContentDigests() {
+        return new ContentDigests(sha512Checksums);
+    }
+
+    /**
+     * Opens a zip package for writing
+     *
+     * @param stream     The stream to the zip package
+     * @param statistics The statistics to update
+     * @param digests    The digests of the entries to update, or null to not compute them
+     * @return The writer for the package
+     * @throws IOException When an IO operation failed
+     */
+    protected ZipPackageWriter openZipPackage(OutputStream stream, CompressionStatistics statistics, ContentDigests digests) throws IOException {
+        int threads = zipThreads <= 0 ? Runtime.getRuntime().availableProcessors() : zipThreads;
+        return new ZipPackageWriter(
+                stream,
+                getCompressionPolicy(),
+                statistics,
+                digests,
+                threads,
+                new File(project.getModel().getBuild().getDirectory()));
+    }
+
     /**
      * Adds a file to the zip package
      *
-     * @param stream    The stream to the zip package
+     * @param writer    The writer for the zip package
      * @param file      The file to add
      * @param entryName The name of the zip entry
      * @throws IOException          When an IO operation failed
      * @throws MojoFailureException When the packaging failed
      */
-    protected void zipAddFile(ZipOutputStream stream, File file, String entryName) throws IOException, MojoFailureException {
-        getLog().info("Adding package entry " + entryName + " for file " + file.getAbsolutePath());
-        ZipEntry entry = new ZipEntry(entryName);
-        entry.setMethod(ZipEntry.DEFLATED);
-        stream.putNextEntry(entry);
-        byte[] bytes;
-        try (FileInputStream fileInputStream = new FileInputStream(file)) {
-            bytes = IOUtils.load(fileInputStream);
+    protected void zipAddFile(ZipPackageWriter writer, File file, String entryName) throws IOException, MojoFailureException {
+        if (getLog().isDebugEnabled())
+            getLog().debug("Adding package entry " + entryName + " for file " + file.getAbsolutePath());
+        try {
+            writer.addFile(file, entryName);
         } catch (FileNotFoundException exception) {
             throw new MojoFailureException("Cannot read file " + file.getAbsolutePath());
         }
-        stream.write(bytes, 0, bytes.length);
-        stream.closeEntry();
+        int count = zipEntries.incrementAndGet();
+        if (count % ZIP_PROGRESS_INTERVAL == 0)
+            getLog().info("Added " + count + " package entries ...");
+    }
+
+    /**
+     * Reports the compression of a zip package
+     *
+     * @param statistics  The statistics of the compression
+     * @param filePackage The written package
+     * @param start       The start time of the compression, as returned by the begin method of the phase
+     */
+    protected void reportCompression(CompressionStatistics statistics, File filePackage, long start) {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.COMPRESS);
+        phase.end(start);
+        phase.addEntries(statistics.getEntries());
+        phase.addRead(statistics.getUncompressedBytes());
+        phase.addWritten(filePackage.length());
+        statistics.report(getLog(), filePackage.getName());
+    }
+
+    /**
+     * Gets the checksum files that accompany a package
+     *
+     * @param filePackage The file for the package
+     * @return The checksum files, in the order of the algorithms of the digests
+     */
+    protected File[] getChecksumFiles(File filePackage) {
+        String[] algorithms = newContentDigests().getAlgorithms();
+        File[] result = new File[algorithms.length];
+        for (int i = 0; i != algorithms.length; i++)
+            result[i] = new File(filePackage.getParentFile(), filePackage.getName() + "." + ContentDigests.getExtension(algorithms[i]));
+        return result;
+    }
+
+    /**
+     * Gets the outputs of a packaging, that is a package with its checksum files and other files
+     *
+     * @param filePackage The file for the package
+     * @param others      The other outputs
+     * @return The outputs
+     */
+    protected File[] getOutputs(File filePackage, File... others) {
+        File[] checksums = getChecksumFiles(filePackage);
+        File[] result = new File[1 + checksums.length + others.length];
+        result[0] = filePackage;
+        System.arraycopy(checksums, 0, result, 1, checksums.length);
+        System.arraycopy(others, 0, result, 1 + checksums.length, others.length);
+        return result;
+    }
+
+    /**
+     * Writes the checksum files that accompany a package, in the format of the sha256sum tool
+     *
+     * @param filePackage The file for the package
+     * @param digests     The hexadecimal digests of the package, in the order of the algorithms of the digests
+     * @throws MojoFailureException When writing failed
+     */
+    protected void writeChecksumFiles(File filePackage, String[] digests) throws MojoFailureException {
+        File[] files = getChecksumFiles(filePackage);
+        for (int i = 0; i != files.length; i++) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(files[i]), "UTF-8")) {
+                writer.write(digests[i]);
+                writer.write("  ");
+                writer.write(filePackage.getName());
+                writer.write("\n");
+            } catch (IOException exception) {
+                throw new MojoFailureException("Failed to write the checksum file " + files[i].getAbsolutePath(), exception);
+            }
+        }
+        getLog().info("Wrote checksums for " + filePackage.getName() + " (SHA-256 " + digests[0] + ")");
+    }
+
+    /**
+     * Attaches the checksum files that accompany a package to the project
+     *
+     * @param filePackage The file for the package
+     * @param extension   The extension of the package artifact
+     */
+    protected void attachChecksumFiles(File filePackage, String extension) {
+        String[] algorithms = newContentDigests().getAlgorithms();
+        File[] files = getChecksumFiles(filePackage);
+        for (int i = 0; i != files.length; i++) {
+            projectHelper.attachArtifact(
+                    project,
+                    extension + "." + ContentDigests.getExtension(algorithms[i]),
+                    "",
+                    files[i]
+            );
+        }
+    }
+
+    /**
+     * Writes the members of a descriptor that are common to addons and platforms, from the identifier to the license.
+     * The icon and the full text of the license are streamed into the descriptor.
+     *
+     * @param writer                The writer for the descriptor
+     * @param versionScmTag         The SCM tag for the version, or null
+     * @param versionBuildTag       The build tag for the version, or null
+     * @param versionBuildTimestamp The build timestamp for the version, or null
+     * @param icon                  The file for the icon, or null
+     * @param licenseFullText       The file for the full text of the license, or null to use the URL of the license
+     * @throws IOException          When writing the descriptor failed
+     * @throws MojoFailureException When the icon or the license could not be read
+     */
+    protected void writeDescriptorCommons(DescriptorWriter writer, String versionScmTag, String versionBuildTag, String versionBuildTimestamp, File icon, File licenseFullText) throws IOException, MojoFailureException {
+        Model model = project.getModel();
+        writer.write("\t\"identifier\": ").writeString(model.getGroupId() + "." + model.getArtifactId() + "-" + model.getVersion()).write(",\n");
+        writer.write("\t\"name\": ").writeString(model.getName()).write(",\n");
+        writer.write("\t\"description\": ").writeString(model.getDescription()).write(",\n");
+        writer.write("\t\"version\": {\n");
+        writer.write("\t\t\"number\": ").writeString(model.getVersion()).write(",\n");
+        writer.write("\t\t\"scmTag\": ").writeString(versionScmTag).write(",\n");
+        writer.write("\t\t\"buildUser\": ").writeString(System.getProperty("user.name")).write(",\n");
+        writer.write("\t\t\"buildTag\": ").writeString(versionBuildTag).write(",\n");
+        writer.write("\t\t\"buildTimestamp\": ").writeString(versionBuildTimestamp).write("\n");
+        writer.write("\t},\n");
+        writer.write("\t\"copyright\": ").writeString("Copyright (c) " + model.getOrganization().getName()).write(",\n");
+        writer.write("\t\"iconName\": ").writeString(icon == null ? "" : icon.getName()).write(",\n");
+        writer.write("\t\"iconContent\": ");
+        if (icon == null) {
+            getLog().warn("No icon has been specified");
+            writer.writeString("");
+        } else {
+            try {
+                writer.writeBase64(icon);
+            } catch (IOException exception) {
+                throw new MojoFailureException("Failed to read the specified icon (" + icon.getAbsolutePath() + ")", exception);
+            }
+        }
+        writer.write(",\n");
+        writer.write("\t\"vendor\": ").writeString(model.getOrganization().getName()).write(",\n");
+        writer.write("\t\"vendorLink\": ").writeString(model.getOrganization().getUrl()).write(",\n");
+        writer.write("\t\"link\": ").writeString(model.getUrl()).write(",\n");
+        writer.write("\t\"license\": {\n");
+        if (!model.getLicenses().isEmpty()) {
+            License license = model.getLicenses().get(0);
+            writer.write("\t\t\"name\": ").writeString(license.getName()).write(",\n");
+            writer.write("\t\t\"fullText\": ");
+            if (licenseFullText == null) {
+                writer.writeString(license.getUrl());
+            } else {
+                try {
+                    writer.writeText(licenseFullText);
+                } catch (IOException exception) {
+                    throw new MojoFailureException("Failed to read the specified license (" + licenseFullText.getAbsolutePath() + ")", exception);
+                }
+            }
+            writer.write("\n");
+        }
+        writer.write("\t}");
+    }
+
+    /**
+     * Records the writing of a descriptor
+     *
+     * @param fileDescriptor The written descriptor
+     * @param digest         The SHA-256 digest of the descriptor
+     * @param start          The start time of the writing, as returned by the begin method of the phase
+     */
+    protected void reportDescriptor(File fileDescriptor, String digest, long start) {
+        getLog().info("Wrote descriptor " + fileDescriptor.getName() + " (SHA-256 " + digest + ")");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.DESCRIPTOR);
+        phase.end(start);
+        phase.addEntries(1);
+        phase.addWritten(fileDescriptor.length());
+    }
+
+    /**
+     * Writes the metrics of this packaging into the target directory and logs a summary.
+     * A failure to write the metrics does not fail the build.
+     */
+    protected void writeMetrics() {
+        File fileMetrics = new File(new File(project.getModel().getBuild().getDirectory()), PackagingMetrics.FILE_NAME);
+        try {
+            metrics.write(fileMetrics, getArtifactName());
+        } catch (IOException exception) {
+            getLog().warn("Failed to write the packaging metrics " + fileMetrics.getAbsolutePath(), exception);
+        }
+        metrics.report(getLog());
     }
 }
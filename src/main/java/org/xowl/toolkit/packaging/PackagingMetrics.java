@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import fr.cenotelie.commons.utils.IOUtils;
+import fr.cenotelie.commons.utils.TextUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records metrics about the phases of a packaging: wall time, bytes read and written, number of entries.
+ * The phases may be recorded from multiple threads and multiple times,
+ * the wall time of a phase spans from its first start to its last end.
+ *
+ * @author Laurent Wouters
+ */
+public class PackagingMetrics {
+    /**
+     * The name of the file for the metrics in the target directory
+     */
+    public static final String FILE_NAME = "xowl-packaging-metrics.json";
+    /**
+     * The phase for the resolution of the artifacts
+     */
+    public static final String RESOLVE = "resolve";
+    /**
+     * The phase for the extraction of a base distribution
+     */
+    public static final String EXTRACT = "extract";
+    /**
+     * The phase for the deployment of the files into a distribution
+     */
+    public static final String DEPLOY = "deploy";
+    /**
+     * The phase for the writing of the descriptor
+     */
+    public static final String DESCRIPTOR = "descriptor";
+    /**
+     * The phase for the indexing of the manifests of the bundles
+     */
+    public static final String INDEX = "index";
+    /**
+     * The phase for the resolution of the wiring of the bundles
+     */
+    public static final String WIRING = "wiring";
+    /**
+     * The phase for the pruning of the unreachable bundles
+     */
+    public static final String PRUNE = "prune";
+    /**
+     * The phase for the pre-warming of the bundle cache
+     */
+    public static final String PREWARM = "prewarm";
+    /**
+     * The phase for the generation of the class data sharing archive
+     */
+    public static final String CLASS_DATA = "class-data";
+    /**
+     * The phase for the compression of the package
+     */
+    public static final String COMPRESS = "compress";
+
+    /**
+     * The metrics for a phase
+     */
+    public static class Phase {
+        /**
+         * The name of this phase
+         */
+        private final String name;
+        /**
+         * The first start time of this phase, in nanoseconds
+         */
+        private long firstStart;
+        /**
+         * The last end time of this phase, in nanoseconds
+         */
+        private long lastEnd;
+        /**
+         * The cumulated time spent in this phase, in nanoseconds
+         */
+        private long busyTime;
+        /**
+         * The number of bytes read
+         */
+        private long bytesRead;
+        /**
+         * The number of bytes written
+         */
+        private long bytesWritten;
+        /**
+         * The number of entries (files, artifacts)
+         */
+        private long entries;
+
+        /**
+         * Initializes this phase
+         *
+         * @param name The name of this phase
+         */
+        private Phase(String name) {
+            this.name = name;
+            this.firstStart = -1;
+        }
+
+        /**
+         * Begins a run of this phase
+         *
+         * @return The start time to be passed to the end method
+         */
+        public long begin() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Ends a run of this phase
+         *
+         * @param start The start time returned by the begin method
+         */
+        public synchronized void end(long start) {
+            long now = System.nanoTime();
+            if (firstStart < 0 || start < firstStart)
+                firstStart = start;
+            lastEnd = Math.max(lastEnd, now);
+            busyTime += now - start;
+        }
+
+        /**
+         * Records bytes that have been read
+         *
+         * @param bytes The number of bytes
+         */
+        public synchronized void addRead(long bytes) {
+            bytesRead += bytes;
+        }
+
+        /**
+         * Records bytes that have been written
+         *
+         * @param bytes The number of bytes
+         */
+        public synchronized void addWritten(long bytes) {
+            bytesWritten += bytes;
+        }
+
+        /**
+         * Records processed entries
+         *
+         * @param count The number of entries
+         */
+        public synchronized void addEntries(long count) {
+            entries += count;
+        }
+
+        /**
+         * Gets the wall time of this phase, in milliseconds
+         *
+         * @return The wall time
+         */
+        private long getWallTime() {
+            return firstStart < 0 ? 0 : (lastEnd - firstStart) / 1000000;
+        }
+
+        /**
+         * Gets the ratio of the written bytes over the read bytes, or -1 when it is not relevant
+         *
+         * @return The ratio
+         */
+        private double getRatio() {
+            return bytesRead > 0 && bytesWritten > 0 ? (double) bytesWritten / bytesRead : -1;
+        }
+    }
+
+    /**
+     * The start time of the packaging, in nanoseconds
+     */
+    private final long origin;
+    /**
+     * The phases, in the order of their first use
+     */
+    private final Map<String, Phase> phases;
+
+    /**
+     * Initializes the metrics for a packaging starting now
+     */
+    public PackagingMetrics() {
+        this.origin = System.nanoTime();
+        this.phases = new LinkedHashMap<>();
+    }
+
+    /**
+     * Gets the metrics for a phase
+     *
+     * @param name The name of the phase
+     * @return The metrics for the phase
+     */
+    public synchronized Phase getPhase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            phase = new Phase(name);
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Gets a snapshot of the phases
+     *
+     * @return The phases
+     */
+    private synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases.values());
+    }
+
+    /**
+     * Writes these metrics as JSON
+     *
+     * @param file     The file to write to
+     * @param artifact The name of the packaged artifact
+     * @throws IOException When an IO error occurs
+     */
+    public void write(File file, String artifact) throws IOException {
+        List<Phase> phases = getPhases();
+        try (Writer writer = IOUtils.getWriter(file)) {
+            writer.write("{\n");
+            writer.write("\t\"artifact\": \"" + TextUtils.escapeStringJSON(artifact) + "\",\n");
+            writer.write("\t\"totalTime\": " + (System.nanoTime() - origin) / 1000000 + ",\n");
+            writer.write("\t\"phases\": [");
+            for (int i = 0; i != phases.size(); i++) {
+                Phase phase = phases.get(i);
+                synchronized (phase) {
+                    writer.write(i == 0 ? "\n" : ",\n");
+                    writer.write("\t\t{\n");
+                    writer.write("\t\t\t\"name\": \"" + TextUtils.escapeStringJSON(phase.name) + "\",\n");
+                    writer.write("\t\t\t\"wallTime\": " + phase.getWallTime() + ",\n");
+                    writer.write("\t\t\t\"busyTime\": " + phase.busyTime / 1000000 + ",\n");
+                    writer.write("\t\t\t\"bytesRead\": " + phase.bytesRead + ",\n");
+                    writer.write("\t\t\t\"bytesWritten\": " + phase.bytesWritten + ",\n");
+                    writer.write("\t\t\t\"entries\": " + phase.entries + ",\n");
+                    writer.write("\t\t\t\"ratio\": " + (phase.getRatio() < 0 ? "null" : String.format(Locale.ROOT, "%.4f", phase.getRatio())) + "\n");
+                    writer.write("\t\t}");
+                }
+            }
+            writer.write("\n\t]\n");
+            writer.write("}\n");
+        }
+    }
+
+    /**
+     * Logs a summary of these metrics
+     *
+     * @param log The log to use
+     */
+    public void report(Log log) {
+        for (Phase phase : getPhases()) {
+            StringBuilder builder = new StringBuilder("Metrics for ");
+            synchronized (phase) {
+                builder.append(phase.name);
+                builder.append(": ");
+                builder.append(phase.getWallTime());
+                builder.append(" ms, ");
+                builder.append(phase.entries);
+                builder.append(" entries, ");
+                builder.append(toMegabytes(phase.bytesRead));
+                builder.append(" MB read, ");
+                builder.append(toMegabytes(phase.bytesWritten));
+                builder.append(" MB written");
+                if (phase.getRatio() >= 0) {
+                    builder.append(", ratio ");
+                    builder.append(String.format(Locale.ROOT, "%.2f", phase.getRatio()));
+                }
+            }
+            log.info(builder.toString());
+        }
+    }
+
+    /**
+     * Formats a number of bytes in megabytes
+     *
+     * @param bytes The number of bytes
+     * @return The formatted value
+     */
+    private static String toMegabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+    }
+}
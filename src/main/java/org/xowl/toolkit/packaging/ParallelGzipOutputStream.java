@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that produces a standard gzip stream by compressing independent blocks on multiple threads, in the manner of pigz.
+ * The data is split into blocks that are deflated concurrently, each block being primed with the last 32 KiB of the previous one
+ * so that the compression ratio stays close to the one of a single stream.
+ * All blocks but the last end with a sync flush so that the raw deflate outputs can simply be concatenated.
+ *
+ * @author Laurent Wouters
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    /**
+     * The default size of the blocks
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /**
+     * The size of the dictionary used to prime the compression of a block (the deflate window)
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    /**
+     * The gzip header (no file name, no modification time)
+     */
+    private static final byte[] HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * The underlying stream
+     */
+    private final OutputStream output;
+    /**
+     * The compression level
+     */
+    private final int level;
+    /**
+     * The size of the blocks
+     */
+    private final int blockSize;
+    /**
+     * The executor for the compression of blocks
+     */
+    private final ExecutorService executor;
+    /**
+     * The maximum number of blocks being compressed at the same time
+     */
+    private final int maxPending;
+    /**
+     * The blocks being compressed, in order
+     */
+    private final Deque<Future<byte[]>> pending;
+    /**
+     * The deflater for each thread
+     */
+    private final ThreadLocal<Deflater> deflaters;
+    /**
+     * All the created deflaters, to be released when closing
+     */
+    private final Queue<Deflater> allDeflaters;
+    /**
+     * The CRC-32 of the uncompressed data
+     */
+    private final CRC32 crc;
+    /**
+     * The total size of the uncompressed data
+     */
+    private long totalSize;
+    /**
+     * The current block being filled
+     */
+    private byte[] block;
+    /**
+     * The length of the data in the current block
+     */
+    private int blockLength;
+    /**
+     * The previous block, used as dictionary for the current one
+     */
+    private byte[] previous;
+    /**
+     * Whether this stream is closed
+     */
+    private boolean closed;
+
+    /**
+     * Initializes this stream
+     *
+     * @param output    The underlying stream
+     * @param level     The compression level
+     * @param threads   The number of compression threads
+     * @param blockSize The size of the blocks
+     * @throws IOException When writing the header failed
+     */
+    public ParallelGzipOutputStream(OutputStream output, final int level, int threads, int blockSize) throws IOException {
+        this.output = output;
+        this.level = level;
+        this.blockSize = Math.max(blockSize, DICTIONARY_SIZE);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxPending = threads * 2;
+        this.pending = new ArrayDeque<>();
+        this.allDeflaters = new ConcurrentLinkedQueue<>();
+        this.deflaters = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                Deflater deflater = new Deflater(level, true);
+                allDeflaters.add(deflater);
+                return deflater;
+            }
+        };
+        this.crc = new CRC32();
+        this.block = new byte[this.blockSize];
+        this.output.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+        crc.update(buffer, offset, length);
+        totalSize += length;
+        while (length > 0) {
+            int count = Math.min(length, block.length - blockLength);
+            System.arraycopy(buffer, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == block.length)
+                submitBlock(false);
+        }
+    }
+
+    /**
+     * Submits the current block for compression
+     *
+     * @param last Whether this is the last block
+     * @throws IOException When writing a compressed block failed
+     */
+    private void submitBlock(final boolean last) throws IOException {
+        final byte[] data = block;
+        final int dataLength = blockLength;
+        final byte[] dictionary = previous;
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, dataLength, dictionary, last);
+            }
+        }));
+        previous = data;
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (pending.size() > maxPending || (!pending.isEmpty() && pending.peekFirst().isDone()))
+            writeBlock(pending.removeFirst());
+    }
+
+    /**
+     * Compresses a block
+     *
+     * @param data       The data of the block
+     * @param length     The length of the data
+     * @param dictionary The previous block, if any
+     * @param last       Whether this is the last block
+     * @return The raw deflated data
+     */
+    private byte[] compress(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null)
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        deflater.setInput(data, 0, length);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[Math.min(length + 64, 64 * 1024)];
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer, 0, buffer.length);
+                result.write(buffer, 0, count);
+            }
+        } else {
+            // sync flush so that the block ends on a byte boundary without the final bit
+            while (true) {
+                int count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                result.write(buffer, 0, count);
+                if (count < buffer.length)
+                    break;
+            }
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes a compressed block to the underlying stream
+     *
+     * @param future The future for the compressed block
+     * @throws IOException When writing failed
+     */
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        try {
+            output.write(future.get());
+        } catch (ExecutionException exception) {
+            throw new IOException(exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!pending.isEmpty())
+                writeBlock(pending.removeFirst());
+            writeInt((int) crc.getValue());
+            writeInt((int) totalSize);
+            output.flush();
+        } finally {
+            executor.shutdownNow();
+            output.close();
+            for (Deflater deflater : allDeflaters)
+                deflater.end();
+        }
+    }
+
+    /**
+     * Writes an integer in little endian order
+     *
+     * @param value The value to write
+     * @throws IOException When writing failed
+     */
+    private void writeInt(int value) throws IOException {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+        output.write((value >>> 16) & 0xFF);
+        output.write((value >>> 24) & 0xFF);
+    }
+}
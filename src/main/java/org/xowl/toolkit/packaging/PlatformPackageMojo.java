@@ -17,12 +17,13 @@
 
 package org.xowl.toolkit.packaging;
 
-import fr.cenotelie.commons.utils.Base64;
 import fr.cenotelie.commons.utils.IOUtils;
-import fr.cenotelie.commons.utils.TextUtils;
+import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 import org.apache.maven.artifact.DefaultArtifact;
 import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.model.Dependency;
@@ -31,11 +32,16 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.artifact.Artifact;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.zip.GZIPInputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -54,9 +60,21 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
      */
     private static final String FELIX_DISTRIB_ARTIFACT_ID = "org.apache.felix.main.distribution";
     /**
-     * File mode for executable files in a tar package
+     * The name of the index of the OSGi manifests of the bundles in the distribution
      */
-    private static final int EXECUTABLE_MODE = 0100755;
+    private static final String BUNDLES_INDEX = "bundles-index.json";
+    /**
+     * The name of the class data sharing archive in the felix directory of the distribution
+     */
+    private static final String FELIX_ARCHIVE = "felix.jsa";
+    /**
+     * The name of the script setting the options for the class data sharing archive in the felix directory of the distribution
+     */
+    private static final String FELIX_ARCHIVE_SCRIPT = "cds-opts.sh";
+    /**
+     * The properties of the release file of a Java runtime that must match for using the class data sharing archive
+     */
+    private static final String[] RUNTIME_PROPERTIES = new String[]{"IMPLEMENTOR", "JAVA_VERSION", "JAVA_RUNTIME_VERSION", "OS_ARCH", "OS_NAME"};
 
 
     /**
@@ -95,52 +113,391 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
     @Parameter
     protected File[] resources;
 
+    /**
+     * Whether to use the shared cache of extracted base distributions
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean useBaseCache;
+
+    /**
+     * The directory for the shared cache of extracted base distributions
+     */
+    @Parameter(defaultValue = "${user.home}/.m2/xowl-cache")
+    protected File baseCacheDirectory;
+
+    /**
+     * The codec for compressing the platform distribution: gzip, zstd or xz
+     */
+    @Parameter(defaultValue = "gzip")
+    protected String distributionCodec;
+
+    /**
+     * The compression level for the platform distribution, -1 for the default level of the codec, up to 9 for gzip and xz and 22 for zstd
+     */
+    @Parameter(defaultValue = "-1")
+    protected int distributionLevel;
+
+    /**
+     * The number of threads for compressing the platform distribution with gzip.
+     * 1 uses a single gzip stream, 0 uses all the available processors.
+     */
+    @Parameter(defaultValue = "1")
+    protected int gzipThreads;
+
+    /**
+     * The size (in bytes) of the blocks that are compressed in parallel when gzipThreads is not 1
+     */
+    @Parameter(defaultValue = "131072")
+    protected int gzipBlockSize;
+
+    /**
+     * Whether to derive the distribution by streaming the entries of the base archive into the output archive,
+     * instead of extracting the base distribution on disk
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean streamingDerivation;
+
+    /**
+     * The strategy for deploying the bundles and resources into the staged distribution: copy, hardlink, symlink or reflink
+     */
+    @Parameter(defaultValue = "copy")
+    protected String deploymentStrategy;
+
+    /**
+     * The number of threads for deploying the resources into the staged distribution, 0 for all the available processors
+     */
+    @Parameter(defaultValue = "1")
+    protected int resourceThreads;
+
+    /**
+     * The number of threads for writing the files when extracting the base distribution, 0 for all the available processors
+     */
+    @Parameter(defaultValue = "1")
+    protected int extractionThreads;
+
+    /**
+     * Whether the bundles of the base distribution that are superseded by a dependency
+     * (same groupId and artifactId, any version) are left out of the distribution
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean overrideBundles;
+
+    /**
+     * The maximum number of packaging stages running concurrently, 0 for all the available processors
+     */
+    @Parameter(defaultValue = "1")
+    protected int stageThreads;
+
+    /**
+     * Whether to resolve the wiring of the bundles at packaging time and generate their start levels in conf/config.properties.
+     * The build fails when an import cannot be resolved. This requires the staged distribution (no streaming derivation).
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean resolveBundles;
+
+    /**
+     * The pruning of the bundles of the distribution that are not reachable from the root bundles through Import-Package and Require-Bundle:
+     * none, report (list them as a dry run) or remove.
+     * The bundles deployed by the dependencies of the module are always roots. This requires the staged distribution (no streaming derivation).
+     */
+    @Parameter(defaultValue = "none")
+    protected String pruneBundles;
+
+    /**
+     * The symbolic names (or locations under felix, e.g. bundle/x.jar) of the additional root bundles for the pruning
+     */
+    @Parameter
+    protected String[] rootBundles;
+
+    /**
+     * Whether to pre-warm the bundle cache (felix/felix-cache) of the distribution by installing the bundles in a forked JVM.
+     * This requires the resolution of the bundles (resolveBundles).
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean prewarmCache;
+
+    /**
+     * Whether to generate a class data sharing archive (felix/felix.jsa) for the Felix launcher and framework classes.
+     * The archive is dumped after a training start of the distribution in a forked JVM, it is only usable by the same Java runtime.
+     * This requires the staged distribution (no streaming derivation).
+     */
+    @Parameter(defaultValue = "false")
+    protected boolean classDataSharing;
+
+    /**
+     * The timeout in seconds for each forked JVM running the distribution (pre-warming, class data sharing)
+     */
+    @Parameter(defaultValue = "120")
+    protected int forkTimeout;
+
+    /**
+     * The Java executable of the runtime of the platform, used for the forked JVMs, by default the one running Maven
+     */
+    @Parameter
+    protected File runtimeJava;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        File targetDirectory = new File(project.getModel().getBuild().getDirectory());
+        final File targetDirectory = new File(project.getModel().getBuild().getDirectory());
         if (!targetDirectory.exists()) {
             if (!targetDirectory.mkdirs())
                 throw new MojoFailureException("Failed to create target directory");
         }
 
-        File[] fileDependencies = resolveDependencies();
-        // look for the base distribution
-        File fileBaseFelix = null;
-        File fileBasePlatform = null;
-        File toExclude = null;
-        int i = 0;
-        for (Dependency dependency : project.getModel().getDependencies()) {
-            if (dependency.getGroupId().equals(FELIX_DISTRIB_GROUP_ID) && dependency.getArtifactId().equals(FELIX_DISTRIB_ARTIFACT_ID)) {
-                fileBaseFelix = fileDependencies[i];
-                toExclude = fileBaseFelix;
-                break;
+        final List<Dependency> dependencies = project.getModel().getDependencies();
+        final int baseIndex = getBaseIndex();
+        if (baseIndex < 0)
+            throw new MojoFailureException("No specified base distribution (Felix or xOWL platform)");
+        final boolean isFelix = isFelixDistribution(dependencies.get(baseIndex));
+        if (resolveBundles && streamingDerivation)
+            throw new MojoFailureException("The resolution of the bundles (resolveBundles) requires the staged distribution, it is not supported with streamingDerivation");
+        if (prewarmCache && !resolveBundles)
+            throw new MojoFailureException("The pre-warming of the bundle cache (prewarmCache) requires the resolution of the bundles (resolveBundles)");
+        // fail before packaging on an unsupported codec or compression level
+        getCodec();
+        final PruningMode pruningMode = getPruningMode();
+        if (pruningMode != PruningMode.NONE && streamingDerivation)
+            throw new MojoFailureException("The pruning of the bundles (pruneBundles) requires the staged distribution, it is not supported with streamingDerivation");
+        if (classDataSharing && streamingDerivation)
+            throw new MojoFailureException("The class data sharing archive (classDataSharing) requires the staged distribution, it is not supported with streamingDerivation");
+        final File[] fileDependencies = new File[dependencies.size()];
+
+        InputDigest inputs = null;
+        if (incremental) {
+            // all the inputs are required to decide whether to package
+            resolveDependencies(fileDependencies, baseIndex, true);
+            resolveDependencies(fileDependencies, baseIndex, false);
+            inputs = digestInputs(fileDependencies);
+            File filePackage = new File(targetDirectory, getArtifactName() + "." + getCodec().getExtension());
+            File fileDescriptor = new File(targetDirectory, getArtifactName() + ".json");
+            if (isUpToDate(inputs, getOutputs(filePackage, fileDescriptor))) {
+                attachArtifacts(filePackage, fileDescriptor);
+                writeMetrics();
+                return;
             }
-            if ("xowl-platform".equals(dependency.getType())) {
-                fileBasePlatform = fileDependencies[i];
-                toExclude = fileBasePlatform;
-                break;
+        }
+
+        final BundleOverride override = overrideBundles ? getBundleOverride(isFelix, baseIndex) : null;
+        final ArchiveEntryFilter baseFilter = getBaseFilter(isFelix, override);
+        final File[] results = new File[4]; // descriptor, staged distribution, package, bundles index
+        StageScheduler scheduler = new StageScheduler(stageThreads);
+        StageScheduler.Stage stageResolveBase = scheduler.addStage("resolve-base", new StageScheduler.Action() {
+            @Override
+            public void run() throws MojoFailureException {
+                if (!incremental)
+                    resolveDependencies(fileDependencies, baseIndex, true);
             }
-            i++;
-        }
-        File targetDistribution;
-        if (fileBaseFelix != null)
-            targetDistribution = extractBaseFelix(targetDirectory, fileBaseFelix);
-        else if (fileBasePlatform != null)
-            targetDistribution = extractBaseXOWL(targetDirectory, fileBasePlatform);
-        else
-            throw new MojoFailureException("No specified base distribution (Felix or xOWL platform)");
+        });
+        StageScheduler.Stage stageResolveBundles = scheduler.addStage("resolve-bundles", new StageScheduler.Action() {
+            @Override
+            public void run() throws MojoFailureException {
+                if (!incremental)
+                    resolveDependencies(fileDependencies, baseIndex, false);
+            }
+        });
+        StageScheduler.Stage stageDescriptor = scheduler.addStage("descriptor", new StageScheduler.Action() {
+            @Override
+            public void run() throws MojoFailureException {
+                results[0] = writeDescriptor();
+            }
+        });
+        FileDeployer deployer = null;
+        if (streamingDerivation) {
+            StageScheduler.Stage stageBundlesIndex = scheduler.addStage("bundles-index", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    results[3] = indexStreamedBundles(fileDependencies[baseIndex], isFelix, fileDependencies, baseIndex, baseFilter);
+                }
+            }, stageResolveBase, stageResolveBundles);
+            scheduler.addStage("package", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    results[2] = packageStreaming(fileDependencies[baseIndex], isFelix, fileDependencies, fileDependencies[baseIndex], results[0], results[3], baseFilter);
+                }
+            }, stageResolveBase, stageResolveBundles, stageDescriptor, stageBundlesIndex);
+        } else {
+            final FileDeployer finalDeployer = deployer = new FileDeployer(getDeploymentStrategy(), false);
+            StageScheduler.Stage stageExtract = scheduler.addStage("extract", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    results[1] = isFelix ?
+                            extractBaseFelix(targetDirectory, fileDependencies[baseIndex], baseFilter) :
+                            extractBaseXOWL(targetDirectory, fileDependencies[baseIndex], baseFilter);
+                }
+            }, stageResolveBase);
+            StageScheduler.Stage stageBundles = scheduler.addStage("bundles", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    deployBundles(results[1], fileDependencies, fileDependencies[baseIndex], finalDeployer);
+                }
+            }, stageExtract, stageResolveBundles);
+            StageScheduler.Stage stageResources = scheduler.addStage("resources", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    deployResources(results[1], finalDeployer);
+                }
+            }, stageBundles); // after the bundles, so that the resources win on overlapping paths
+            StageScheduler.Stage stageDeployDescriptor = scheduler.addStage("deploy-descriptor", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    deployFile(results[0], new File(results[1], "descriptor.json"));
+                }
+            }, stageExtract, stageDescriptor);
+            StageScheduler.Stage stagePrune = scheduler.addStage("prune", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    if (pruningMode != PruningMode.NONE)
+                        pruneBundles(results[1], fileDependencies, fileDependencies[baseIndex], pruningMode);
+                }
+            }, stageBundles, stageResources);
+            StageScheduler.Stage stageBundlesIndex = scheduler.addStage("bundles-index", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    results[3] = indexStagedBundles(results[1]);
+                    deployFile(results[3], new File(results[1], BUNDLES_INDEX));
+                }
+            }, stagePrune);
+            StageScheduler.Stage stageStartLevels = scheduler.addStage("start-levels", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    if (resolveBundles)
+                        resolveStartLevels(results[1]);
+                }
+            }, stagePrune);
+            StageScheduler.Stage stagePrewarm = scheduler.addStage("prewarm", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    if (prewarmCache)
+                        prewarmCache(results[1]);
+                }
+            }, stageStartLevels);
+            StageScheduler.Stage stageClassData = scheduler.addStage("class-data", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    if (classDataSharing)
+                        dumpClassData(results[1], targetDirectory);
+                }
+            }, stagePrewarm);
+            scheduler.addStage("package", new StageScheduler.Action() {
+                @Override
+                public void run() throws MojoFailureException {
+                    results[2] = packageDistribution(results[1]);
+                }
+            }, stageClassData, stageDeployDescriptor, stageBundlesIndex);
+        }
+        scheduler.run();
+        scheduler.report(getLog());
 
-        deployBundles(targetDistribution, fileDependencies, toExclude);
-        deployResources(targetDistribution);
-        File fileDescriptor = writeDescriptor(targetDistribution);
-        packageDistribution(targetDistribution);
+        if (deployer != null) {
+            PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.DEPLOY);
+            phase.addEntries(deployer.getFileCount());
+            phase.addWritten(deployer.getByteCount());
+        }
+        if (deployer != null && deployer.hasFallenBack())
+            getLog().warn("The deployment strategy " + deploymentStrategy + " is not supported here, files have been copied");
+        if (override != null) {
+            for (String path : override.getSuperseded())
+                getLog().info("Left out superseded bundle from the base distribution: " + path);
+        }
+        attachArtifacts(results[2], results[0]);
+        if (inputs != null)
+            recordInputs(inputs);
+        writeMetrics();
+    }
 
+    /**
+     * Gets the index of the base distribution in the dependencies
+     *
+     * @return The index of the base distribution, or -1 if there is none
+     */
+    private int getBaseIndex() {
+        List<Dependency> dependencies = project.getModel().getDependencies();
+        for (int i = 0; i != dependencies.size(); i++) {
+            Dependency dependency = dependencies.get(i);
+            if (isFelixDistribution(dependency) || ArchiveCodec.isPlatformType(dependency.getType()))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets whether a dependency is the core Felix distribution
+     *
+     * @param dependency The dependency
+     * @return Whether this is the core Felix distribution
+     */
+    private static boolean isFelixDistribution(Dependency dependency) {
+        return dependency.getGroupId().equals(FELIX_DISTRIB_GROUP_ID) && dependency.getArtifactId().equals(FELIX_DISTRIB_ARTIFACT_ID);
+    }
+
+    /**
+     * Computes the digest of the inputs of this packaging
+     *
+     * @param fileDependencies The resolved dependencies
+     * @return The digest of the inputs
+     * @throws MojoFailureException When reading an input failed
+     */
+    private InputDigest digestInputs(File[] fileDependencies) throws MojoFailureException {
+        InputDigest digest = newInputDigest();
+        digest.addParameter("versionScmTag", versionScmTag);
+        digest.addParameter("versionBuildTag", versionBuildTag);
+        digest.addParameter("versionBuildTimestamp", versionBuildTimestamp);
+        digest.addParameter("distributionCodec", distributionCodec);
+        digest.addParameter("distributionLevel", distributionLevel);
+        digest.addParameter("overrideBundles", overrideBundles);
+        digest.addParameter("resolveBundles", resolveBundles);
+        digest.addParameter("pruneBundles", pruneBundles);
+        digest.addParameter("rootBundles", rootBundles == null ? null : Arrays.toString(rootBundles));
+        digest.addParameter("prewarmCache", prewarmCache);
+        digest.addParameter("classDataSharing", classDataSharing);
+        digest.addParameter("runtimeJava", getRuntimeJava().getAbsolutePath());
+        if (classDataSharing) {
+            // the archive can only be mapped by the runtime that dumped it
+            addInputFile(digest, "runtimeRelease", getRuntimeRelease());
+        }
+        addInputFile(digest, "icon", icon);
+        addInputFile(digest, "licenseFullText", licenseFullText);
+        if (resources != null) {
+            for (int i = 0; i != resources.length; i++)
+                addInputFile(digest, "resource." + i + "." + resources[i].getName(), resources[i]);
+        }
+        for (int i = 0; i != fileDependencies.length; i++)
+            addInputFile(digest, "dependency." + i, fileDependencies[i]);
+        return digest;
+    }
+
+    /**
+     * Attaches the produced artifacts to the project
+     *
+     * @param filePackage    The file for the distribution package
+     * @param fileDescriptor The file for the descriptor
+     * @throws MojoFailureException When the configured codec is not supported
+     */
+    private void attachArtifacts(File filePackage, File fileDescriptor) throws MojoFailureException {
+        ArchiveCodec codec = getCodec();
+        DefaultArtifactHandler artifactHandler = new DefaultArtifactHandler(codec.getArtifactType());
+        artifactHandler.setAddedToClasspath(false);
+        artifactHandler.setExtension(codec.getExtension());
+        artifactHandler.setLanguage("java");
+        artifactHandler.setIncludesDependencies(false);
+        DefaultArtifact mainArtifact = new DefaultArtifact(
+                project.getModel().getGroupId(),
+                project.getModel().getArtifactId(),
+                project.getModel().getVersion(),
+                "compile",
+                codec.getArtifactType(),
+                "",
+                artifactHandler
+        );
+        mainArtifact.setFile(filePackage);
+        project.setArtifact(mainArtifact);
         projectHelper.attachArtifact(
                 project,
                 "json",
                 "",
                 fileDescriptor
         );
+        attachChecksumFiles(filePackage, codec.getExtension());
     }
 
     /**
@@ -148,23 +505,29 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
      *
      * @param targetDirectory The current target directory
      * @param fileBaseFelix   The file for the felix distribution
+     * @param filter          The filter for the files of the base distribution, or null to keep all of them
      * @return The directory of the target distribution
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private File extractBaseFelix(File targetDirectory, File fileBaseFelix) throws MojoFailureException {
+    private File extractBaseFelix(File targetDirectory, File fileBaseFelix, ArchiveEntryFilter filter) throws MojoFailureException {
         File targetDistribution = new File(targetDirectory, "distribution");
         if (!targetDistribution.exists()) {
             if (!targetDistribution.mkdirs())
                 throw new MojoFailureException("Failed to create target directory");
         }
+        File targetDistributionFelix2 = new File(targetDistribution, "felix");
+
+        if (useBaseCache) {
+            populateFromCache(fileBaseFelix, targetDistributionFelix2, filter);
+            return targetDistribution;
+        }
 
-        extractTarGz(fileBaseFelix, targetDistribution);
+        extractArchive(fileBaseFelix, targetDistribution, filter);
         File[] content = targetDistribution.listFiles();
         if (content == null || content.length == 0)
             throw new MojoFailureException("Failed to extract " + fileBaseFelix.getAbsolutePath());
         File targetDistributionFelix1 = content[0];
-        File targetDistributionFelix2 = new File(targetDistribution, "felix");
         try {
             Files.move(targetDistributionFelix1.toPath(), targetDistributionFelix2.toPath());
         } catch (IOException exception) {
@@ -179,17 +542,24 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
      *
      * @param targetDirectory  The current target directory
      * @param fileBasePlatform The file for the xOWL platform distribution
+     * @param filter           The filter for the files of the base distribution, or null to keep all of them
      * @return The directory of the target distribution
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private File extractBaseXOWL(File targetDirectory, File fileBasePlatform) throws MojoFailureException {
+    private File extractBaseXOWL(File targetDirectory, File fileBasePlatform, ArchiveEntryFilter filter) throws MojoFailureException {
+        if (useBaseCache) {
+            File targetDistribution = new File(targetDirectory, "distribution");
+            populateFromCache(fileBasePlatform, targetDistribution, filter);
+            return targetDistribution;
+        }
+
         File temp = new File(targetDirectory, "temp");
         if (!temp.exists()) {
             if (!temp.mkdirs())
                 throw new MojoFailureException("Failed to create target directory");
         }
-        extractTarGz(fileBasePlatform, temp);
+        extractArchive(fileBasePlatform, temp, filter);
         File[] content = temp.listFiles();
         if (content == null || content.length == 0)
             throw new MojoFailureException("Failed to extract " + fileBasePlatform.getAbsolutePath());
@@ -206,20 +576,61 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
     }
 
     /**
-     * Resolves the dependencies for the distribution
+     * Populates a directory with the root folder of a base distribution, using the shared cache of extracted distributions
      *
-     * @return The files for the resolved dependency
+     * @param fileBase The file for the base distribution
+     * @param target   The directory to populate
+     * @param filter   The filter for the files of the base distribution, or null to keep all of them
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private File[] resolveDependencies() throws MojoFailureException {
-        File[] fileDependencies = new File[project.getModel().getDependencies().size()];
-        int i = 0;
-        for (Dependency dependency : project.getModel().getDependencies()) {
-            File file = resolveArtifact(dependency);
-            fileDependencies[i++] = file;
+    private void populateFromCache(File fileBase, File target, ArchiveEntryFilter filter) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.EXTRACT);
+        long start = phase.begin();
+        TarExtractor extractor = new TarExtractor(extractionThreads);
+        DistributionCache cache = new DistributionCache(baseCacheDirectory, extractor);
+        try {
+            File cached = cache.get(fileBase);
+            File[] content = cached.listFiles();
+            if (content == null || content.length == 0)
+                throw new MojoFailureException("Failed to extract " + fileBase.getAbsolutePath());
+            getLog().info("Using cached base distribution " + cached.getAbsolutePath());
+            long populated = cache.populate(content[0], target, filter);
+            phase.end(start);
+            phase.addEntries(populated);
+            if (extractor.getFileCount() > 0) {
+                // the archive was not in the cache yet
+                phase.addRead(fileBase.length());
+                phase.addWritten(extractor.getByteCount());
+            }
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to populate " + target.getAbsolutePath() + " from the cache for " + fileBase.getAbsolutePath(), exception);
+        }
+    }
+
+    /**
+     * Resolves either the base distribution, or the other dependencies
+     *
+     * @param fileDependencies The files for the dependencies, to be filled
+     * @param baseIndex        The index of the base distribution in the dependencies
+     * @param base             Whether to resolve the base distribution, or the other dependencies
+     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
+     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     */
+    private void resolveDependencies(File[] fileDependencies, int baseIndex, boolean base) throws MojoFailureException {
+        List<Dependency> dependencies = project.getModel().getDependencies();
+        List<Artifact> artifacts = new ArrayList<>(dependencies.size());
+        List<Integer> indices = new ArrayList<>(dependencies.size());
+        for (int i = 0; i != dependencies.size(); i++) {
+            if ((i == baseIndex) == base) {
+                artifacts.add(getArtifact(dependencies.get(i)));
+                indices.add(i);
+            }
         }
-        return fileDependencies;
+        File[] files = resolveArtifacts(artifacts);
+        for (int i = 0; i != files.length; i++)
+            fileDependencies[indices.get(i)] = files[i];
     }
 
     /**
@@ -228,11 +639,14 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
      * @param targetDistribution The directory of the distribution to build
      * @param fileDependencies   The file of the resolved dependencies
      * @param excludedDependency The file of the excluded dependency (base platform)
+     * @param deployer           The deployer for the files
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private void deployBundles(File targetDistribution, File[] fileDependencies, File excludedDependency) throws MojoFailureException {
+    private void deployBundles(File targetDistribution, File[] fileDependencies, File excludedDependency, FileDeployer deployer) throws MojoFailureException {
         getLog().info("Deploying new bundles");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.DEPLOY);
+        long start = phase.begin();
         File directoryFelix = new File(targetDistribution, "felix");
         File directoryBundles = new File(directoryFelix, "bundle");
         int i = 0;
@@ -240,259 +654,1029 @@ public class PlatformPackageMojo extends PackagingAbstractMojo {
             File bundleFileSource = fileDependencies[i++];
             if (bundleFileSource == excludedDependency)
                 continue;
-            File bundleFileTarget = dependency.getGroupId().equals(FELIX_DISTRIB_GROUP_ID) ?
-                    new File(directoryBundles, dependency.getArtifactId() + "-" + dependency.getVersion() + ".jar") :
-                    new File(directoryBundles, dependency.getGroupId() + "." + dependency.getArtifactId() + "-" + dependency.getVersion() + ".jar");
+            File bundleFileTarget = new File(directoryBundles, getBundleFileName(dependency));
             try {
-                Files.copy(bundleFileSource.toPath(), bundleFileTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                deployer.deploy(bundleFileSource.toPath(), bundleFileTarget.toPath());
             } catch (IOException exception) {
                 getLog().error(exception);
                 throw new MojoFailureException("Failed to copy " + bundleFileSource.getAbsolutePath() + " to " + bundleFileTarget.getAbsolutePath(), exception);
             }
         }
+        phase.end(start);
     }
 
     /**
-     * Deploys configured resources into the distribution to build
+     * Gets the name of the file for a bundle in the distribution
+     *
+     * @param dependency The dependency for the bundle
+     * @return The name of the file
+     */
+    private static String getBundleFileName(Dependency dependency) {
+        return getBundleKey(dependency) + "-" + dependency.getVersion() + ".jar";
+    }
+
+    /**
+     * Gets the key of a bundle in the distribution, i.e. the name of its file without the version
+     *
+     * @param dependency The dependency for the bundle
+     * @return The key of the bundle
+     */
+    private static String getBundleKey(Dependency dependency) {
+        return dependency.getGroupId().equals(FELIX_DISTRIB_GROUP_ID) ?
+                dependency.getArtifactId() :
+                dependency.getGroupId() + "." + dependency.getArtifactId();
+    }
+
+    /**
+     * Gets the filter for the bundles of the base distribution that are superseded by the dependencies
+     *
+     * @param isFelix   Whether the base distribution is the core Felix distribution
+     * @param baseIndex The index of the base distribution in the dependencies
+     * @return The filter
+     */
+    private BundleOverride getBundleOverride(boolean isFelix, int baseIndex) {
+        BundleOverride override = new BundleOverride(isFelix ? "bundle" : "felix/bundle");
+        List<Dependency> dependencies = project.getModel().getDependencies();
+        for (int i = 0; i != dependencies.size(); i++) {
+            if (i != baseIndex)
+                override.addBundle(getBundleKey(dependencies.get(i)));
+        }
+        return override;
+    }
+
+    /**
+     * Gets the filter for the files of the base distribution.
+     * The manifests of the checksums of a previous xOWL platform distribution are always left out, they are regenerated.
+     * The bundle cache of the base is always left out too, it is stale as soon as the bundles change.
+     *
+     * @param isFelix  Whether the base distribution is the core Felix distribution
+     * @param override The filter for the superseded bundles, if any
+     * @return The filter
+     */
+    private ArchiveEntryFilter getBaseFilter(boolean isFelix, BundleOverride override) {
+        BaseDistributionFilter filter = new BaseDistributionFilter(override);
+        filter.excludeTree(isFelix ? "felix-cache" : "felix/felix-cache");
+        if (!isFelix) {
+            filter.exclude(ContentDigests.MANIFEST_PREFIX + ContentDigests.getExtension(DigestUtils.SHA256));
+            filter.exclude(ContentDigests.MANIFEST_PREFIX + ContentDigests.getExtension(DigestUtils.SHA512));
+        }
+        return filter;
+    }
+
+    /**
+     * Resolves the wiring of the bundles in the distribution and writes their start levels into its configuration
      *
      * @param targetDistribution The directory of the distribution to build
-     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
-     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     * @throws MojoFailureException When a bundle could not be read, a requirement could not be resolved or the configuration could not be written
      */
-    private void deployResources(File targetDistribution) throws MojoFailureException {
-        getLog().info("Deploying new resources");
-        if (resources != null) {
-            for (int i = 0; i != resources.length; i++) {
-                File origin = resources[i];
-                File target = new File(targetDistribution, origin.getName());
-                copyResource(origin, target);
+    private void resolveStartLevels(File targetDistribution) throws MojoFailureException {
+        getLog().info("Resolving the bundles of the distribution");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.WIRING);
+        long start = phase.begin();
+        File directoryFelix = new File(targetDistribution, "felix");
+        BundleResolver resolver = newBundleResolver(directoryFelix, phase);
+        List<String> problems = resolver.resolve();
+        if (!problems.isEmpty()) {
+            for (String problem : problems)
+                getLog().error(problem);
+            throw new MojoFailureException("Failed to resolve the bundles of the distribution (" + problems.size() + " unresolved requirements)");
+        }
+        FelixConfiguration configuration = new FelixConfiguration(directoryFelix);
+        try {
+            configuration.writeStartLevels(resolver, "file:");
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to write the start levels into " + configuration.getConfigFile().getAbsolutePath(), exception);
+        }
+        getLog().info("Resolved the bundles on " + resolver.getLevelCount() + " start levels");
+        phase.end(start);
+    }
+
+    /**
+     * Creates a resolver for the bundles in the felix/bundle directory of a distribution and the packages exported by its framework
+     *
+     * @param directoryFelix The felix directory of the distribution
+     * @param phase          The metrics phase for counting the bundles
+     * @return The resolver, before resolution
+     * @throws MojoFailureException When a manifest could not be read
+     */
+    private BundleResolver newBundleResolver(File directoryFelix, PackagingMetrics.Phase phase) throws MojoFailureException {
+        BundleResolver resolver = new BundleResolver();
+        File[] files = new File(directoryFelix, "bundle").listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.getName().endsWith(".jar"))
+                    continue;
+                BundleManifest manifest;
+                try {
+                    manifest = BundleManifest.read(file);
+                } catch (IOException exception) {
+                    throw new MojoFailureException("Failed to read the manifest of bundle " + file.getAbsolutePath(), exception);
+                }
+                if (manifest == null) {
+                    getLog().warn("Not an OSGi bundle, left out of the resolution: " + file.getName());
+                    continue;
+                }
+                resolver.addBundle("bundle/" + file.getName(), manifest);
+                phase.addEntries(1);
             }
         }
+
+        try {
+            new FelixConfiguration(directoryFelix).addSystemPackages(resolver);
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to read the packages exported by the framework", exception);
+        }
+        return resolver;
     }
 
     /**
-     * Copy a resource for the distribution.
-     * If the resource is a directory, ir is recursively copied.
+     * Prunes the bundles of the distribution that are not reachable from the root bundles through their wiring
      *
-     * @param origin The origin file
-     * @param target The target file
-     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
-     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     * @param targetDistribution The directory of the distribution to build
+     * @param fileDependencies   The file of the resolved dependencies
+     * @param excludedDependency The file of the excluded dependency (base platform)
+     * @param mode               The pruning mode (report or remove)
+     * @throws MojoFailureException When the pruning failed
      */
-    private void copyResource(File origin, File target) throws MojoFailureException {
-        if (origin.isDirectory()) {
-            if (!target.exists()) {
-                if (!target.mkdirs())
-                    throw new MojoFailureException("Failed to copy " + origin.getAbsolutePath() + " to " + target.getAbsolutePath());
+    private void pruneBundles(File targetDistribution, File[] fileDependencies, File excludedDependency, PruningMode mode) throws MojoFailureException {
+        getLog().info("Looking for the unreachable bundles of the distribution");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.PRUNE);
+        long start = phase.begin();
+        File directoryFelix = new File(targetDistribution, "felix");
+        BundleResolver resolver = newBundleResolver(directoryFelix, phase);
+        List<String> problems = resolver.resolve();
+        if (!problems.isEmpty()) {
+            for (String problem : problems) {
+                if (mode == PruningMode.REMOVE)
+                    getLog().error(problem);
+                else
+                    getLog().warn(problem);
             }
-            File[] children = origin.listFiles();
-            if (children == null)
-                return;
-            for (int i = 0; i != children.length; i++) {
-                copyResource(children[i], new File(target, children[i].getName()));
+            if (mode == PruningMode.REMOVE)
+                throw new MojoFailureException("Failed to resolve the bundles of the distribution for pruning them (" + problems.size() + " unresolved requirements)");
+        }
+
+        List<String> roots = new ArrayList<>();
+        int i = 0;
+        for (Dependency dependency : project.getModel().getDependencies()) {
+            if (fileDependencies[i++] != excludedDependency)
+                roots.add("bundle/" + getBundleFileName(dependency));
+        }
+        if (rootBundles != null)
+            roots.addAll(Arrays.asList(rootBundles));
+        List<String> unreachable = resolver.getUnreachableLocations(roots);
+        long size = 0;
+        for (String location : unreachable) {
+            File file = new File(directoryFelix, location);
+            size += file.length();
+            if (mode == PruningMode.REPORT) {
+                getLog().info("Unreachable bundle (not removed): " + location);
+                continue;
             }
-        } else {
+            getLog().info("Removing unreachable bundle " + location);
             try {
-                Files.copy(origin.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.delete(file.toPath());
             } catch (IOException exception) {
-                getLog().error(exception);
-                throw new MojoFailureException("Failed to copy " + origin.getAbsolutePath() + " to " + target.getAbsolutePath(), exception);
+                throw new MojoFailureException("Failed to remove " + file.getAbsolutePath(), exception);
             }
         }
+        if (mode == PruningMode.REMOVE && !unreachable.isEmpty() && !resolveBundles)
+            checkPrunedReferences(directoryFelix, unreachable);
+        getLog().info((mode == PruningMode.REMOVE ? "Removed " : "Found ") + unreachable.size() + " unreachable bundles ("
+                + String.format(Locale.ROOT, "%.1f", size / (1024.0 * 1024.0)) + " MB)");
+        phase.end(start);
     }
 
     /**
-     * Writes the descriptor for the distribution
+     * Warns about the pruned bundles that are still referenced by the configuration of the framework
+     *
+     * @param directoryFelix The felix directory of the distribution
+     * @param pruned         The locations of the pruned bundles
+     * @throws MojoFailureException When the configuration could not be read
+     */
+    private void checkPrunedReferences(File directoryFelix, List<String> pruned) throws MojoFailureException {
+        File fileConfig = new FelixConfiguration(directoryFelix).getConfigFile();
+        if (!fileConfig.exists())
+            return;
+        String content;
+        try {
+            content = new String(Files.readAllBytes(fileConfig.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to read " + fileConfig.getAbsolutePath(), exception);
+        }
+        for (String location : pruned) {
+            if (content.contains(location))
+                getLog().warn("The pruned bundle " + location + " is still referenced in " + fileConfig.getAbsolutePath() + ", use resolveBundles to regenerate the start levels");
+        }
+    }
+
+    /**
+     * Pre-warms the bundle cache of the distribution by running the CachePrewarmer in a forked JVM
      *
      * @param targetDistribution The directory of the distribution to build
-     * @return The file for the descriptor
-     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
-     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     * @throws MojoFailureException When the pre-warming failed
      */
-    private File writeDescriptor(File targetDistribution) throws MojoFailureException {
-        String iconName = "";
-        String iconContent = "";
-        if (icon != null) {
-            try (InputStream stream = new FileInputStream(icon)) {
-                byte[] bytes = IOUtils.load(stream);
-                iconContent = Base64.encodeBase64(bytes);
-                iconName = icon.getName();
-            } catch (IOException exception) {
-                throw new MojoFailureException("Failed to read the specified icon (" + icon.getAbsolutePath() + ")", exception);
+    private void prewarmCache(File targetDistribution) throws MojoFailureException {
+        getLog().info("Pre-warming the bundle cache");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.PREWARM);
+        long start = phase.begin();
+        File directoryFelix = new File(targetDistribution, "felix");
+        List<String> output = new ArrayList<>();
+        int code = runFork("prewarm", directoryFelix, output,
+                "-cp",
+                "bin/felix.jar" + File.pathSeparator + getPluginFile().getAbsolutePath(),
+                CachePrewarmer.class.getName(),
+                Long.toString(forkTimeout * 1000L));
+        if (code == CachePrewarmer.EXIT_UNRESOLVED)
+            throw new MojoFailureException("Failed to pre-warm the bundle cache, some bundles could not be resolved by the framework");
+        if (code == CachePrewarmer.EXIT_TIMEOUT)
+            throw new MojoFailureException("Failed to pre-warm the bundle cache within " + forkTimeout + " seconds");
+        if (code != 0)
+            throw new MojoFailureException("Failed to pre-warm the bundle cache (exit code " + code + ")");
+        getLog().info(output.isEmpty() ? "Pre-warmed the bundle cache" : output.get(output.size() - 1));
+        phase.end(start);
+    }
+
+    /**
+     * Generates the class data sharing archive (felix/felix.jsa) of the distribution.
+     * The classes loaded by a training start are recorded, then dumped into the archive by the runtime JVM.
+     * The class path used for the dump (bin/felix.jar, relative to the felix directory) is the one of "java -jar bin/felix.jar".
+     * The starts run against a throwaway copy of the felix directory, so that the activators of the bundles
+     * cannot modify the distribution, or the shared cache of base distributions through hard links; only the archive is kept.
+     *
+     * @param targetDistribution The directory of the distribution to build
+     * @param targetDirectory    The target directory for the temporary files
+     * @throws MojoFailureException When the generation failed
+     */
+    private void dumpClassData(File targetDistribution, File targetDirectory) throws MojoFailureException {
+        getLog().info("Generating the class data sharing archive");
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.CLASS_DATA);
+        long start = phase.begin();
+        File directoryFelix = new File(targetDistribution, "felix");
+        File directoryTemp = new File(targetDirectory, getArtifactName() + "-class-data");
+        IOUtils.deleteFolder(directoryTemp);
+        if (!directoryTemp.mkdirs())
+            throw new MojoFailureException("Failed to create directory " + directoryTemp.getAbsolutePath());
+        File fileClassList = new File(directoryTemp, "felix.classlist");
+        File fileStorage = new File(directoryTemp, "felix-cache");
+        File directoryWork = new File(directoryTemp, "felix");
+        copyFelixDirectory(directoryFelix, directoryWork);
+        String classpath = "bin/felix.jar" + File.pathSeparator + getPluginFile().getAbsolutePath();
+
+        // training start
+        List<String> output = new ArrayList<>();
+        int code = runFork("class-data", directoryWork, output,
+                "-XX:DumpLoadedClassList=" + fileClassList.getAbsolutePath(),
+                "-cp", classpath,
+                ClassDataTrainer.class.getName(),
+                Long.toString(forkTimeout * 1000L),
+                fileStorage.getAbsolutePath());
+        if (code != 0)
+            throw new MojoFailureException("Failed to perform the training start of the distribution (exit code " + code + ")");
+        int count = filterClassList(fileClassList);
+        phase.addEntries(count);
+
+        // dump the archive
+        output.clear();
+        code = runFork("class-data", directoryWork, output,
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=" + fileClassList.getAbsolutePath(),
+                "-XX:SharedArchiveFile=" + FELIX_ARCHIVE,
+                "-cp", "bin/felix.jar");
+        if (code != 0)
+            throw new MojoFailureException("Failed to dump the class data sharing archive, this requires a Java runtime 10 or later (exit code " + code + ")");
+        File fileArchive = new File(directoryWork, FELIX_ARCHIVE);
+        phase.addWritten(fileArchive.length());
+
+        // measure the startup time with and without the archive
+        long timeWithout = System.nanoTime();
+        code = runFork("class-data", directoryWork, new ArrayList<String>(),
+                "-Xshare:auto",
+                "-cp", classpath,
+                ClassDataTrainer.class.getName(),
+                Long.toString(forkTimeout * 1000L),
+                fileStorage.getAbsolutePath());
+        timeWithout = System.nanoTime() - timeWithout;
+        if (code != 0)
+            throw new MojoFailureException("Failed to start the distribution without the class data sharing archive (exit code " + code + ")");
+        long timeWith = System.nanoTime();
+        code = runFork("class-data", directoryWork, new ArrayList<String>(),
+                "-XX:SharedArchiveFile=" + FELIX_ARCHIVE,
+                "-Xshare:on",
+                "-cp", classpath,
+                ClassDataTrainer.class.getName(),
+                Long.toString(forkTimeout * 1000L),
+                fileStorage.getAbsolutePath());
+        timeWith = System.nanoTime() - timeWith;
+        if (code != 0)
+            throw new MojoFailureException("Failed to start the distribution with the class data sharing archive (exit code " + code + ")");
+        File fileArchive2 = new File(directoryFelix, FELIX_ARCHIVE);
+        try {
+            Files.move(fileArchive.toPath(), fileArchive2.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to move " + fileArchive.getAbsolutePath() + " to " + fileArchive2.getAbsolutePath(), exception);
+        }
+        IOUtils.deleteFolder(directoryTemp);
+
+        writeClassDataScript(directoryFelix);
+        getLog().info("Archived " + count + " classes, startup with class data sharing: "
+                + (timeWith / 1000000) + " ms instead of " + (timeWithout / 1000000) + " ms ("
+                + String.format(Locale.ROOT, "%+.1f", (timeWith - timeWithout) * 100.0 / timeWithout) + "%)");
+        phase.end(start);
+    }
+
+    /**
+     * Copies the felix directory of the distribution for the starts of the class data sharing generation.
+     * The files are plain copies, never links, with their attributes so that the archive dumped in the copy
+     * matches bin/felix.jar in the distribution. The bundle cache is left out, the starts use their own.
+     *
+     * @param directoryFelix The felix directory of the distribution
+     * @param target         The directory of the copy
+     * @throws MojoFailureException When the copy failed
+     */
+    private void copyFelixDirectory(File directoryFelix, File target) throws MojoFailureException {
+        final Path sourcePath = directoryFelix.toPath();
+        final Path targetPath = target.toPath();
+        final Path cachePath = sourcePath.resolve("felix-cache");
+        final FileDeployer deployer = new FileDeployer(DeploymentStrategy.COPY, true);
+        try {
+            Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    if (directory.equals(cachePath))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    Files.createDirectories(targetPath.resolve(sourcePath.relativize(directory)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    deployer.deploy(file, targetPath.resolve(sourcePath.relativize(file)));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to copy " + directoryFelix.getAbsolutePath() + " to " + target.getAbsolutePath(), exception);
+        }
+    }
+
+    /**
+     * Removes the classes of the plugin from a class list recorded by a training start
+     *
+     * @param fileClassList The class list
+     * @return The number of remaining classes
+     * @throws MojoFailureException When rewriting the class list failed
+     */
+    private int filterClassList(File fileClassList) throws MojoFailureException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(fileClassList.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("org/xowl/"))
+                    lines.add(line);
             }
-        } else {
-            getLog().warn("No icon has been specified");
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to read the class list " + fileClassList.getAbsolutePath(), exception);
         }
-        String licenseText = project.getModel().getLicenses().get(0).getUrl();
-        if (licenseFullText != null) {
-            try (Reader reader = IOUtils.getReader(licenseFullText)) {
-                licenseText = IOUtils.read(reader);
-            } catch (IOException exception) {
-                throw new MojoFailureException("Failed to read the specified license (" + licenseFullText.getAbsolutePath() + ")", exception);
+        try (Writer writer = Files.newBufferedWriter(fileClassList.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to write the class list " + fileClassList.getAbsolutePath(), exception);
+        }
+        return lines.size();
+    }
+
+    /**
+     * Writes the felix/cds-opts.sh script that sets CDS_OPTS to the options for using the class data sharing archive.
+     * The options are only set when the Java runtime of the launch matches the one that dumped the archive,
+     * as recorded in the release file of the runtime.
+     *
+     * @param directoryFelix The felix directory of the distribution
+     * @throws MojoFailureException When the script could not be written
+     */
+    private void writeClassDataScript(File directoryFelix) throws MojoFailureException {
+        File fileRelease = getRuntimeRelease();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(fileRelease.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int index = line.indexOf('=');
+                if (index > 0 && Arrays.asList(RUNTIME_PROPERTIES).contains(line.substring(0, index)))
+                    lines.add(line);
+            }
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to read the release file " + fileRelease.getAbsolutePath(), exception);
+        }
+
+        // never write through an existing script, it may be a link to a file that must not be modified
+        File fileScript = new File(directoryFelix, FELIX_ARCHIVE_SCRIPT);
+        File fileTemp = new File(directoryFelix, FELIX_ARCHIVE_SCRIPT + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(fileTemp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# Sets CDS_OPTS to the options for using the class data sharing archive " + FELIX_ARCHIVE + "\n");
+            writer.write("# when the Java runtime (${JAVA:-java}) is the one that dumped it.\n");
+            writer.write("# Usage, from the felix directory: . ./" + FELIX_ARCHIVE_SCRIPT + " && ${JAVA:-java} $CDS_OPTS -jar bin/felix.jar\n");
+            writer.write("CDS_OPTS=\n");
+            writer.write("cds_java=$(command -v \"${JAVA:-java}\")\n");
+            writer.write("if [ -f " + FELIX_ARCHIVE + " ] && [ -n \"$cds_java\" ]; then\n");
+            writer.write("    cds_home=$(dirname \"$(dirname \"$(readlink -f \"$cds_java\")\")\")\n");
+            writer.write("    [ -f \"$cds_home/release\" ] || cds_home=$(dirname \"$cds_home\")\n");
+            writer.write("    if [ -f \"$cds_home/release\" ]");
+            for (String line : lines)
+                writer.write(" \\\n        && grep -qxF '" + line.replace("'", "'\\''") + "' \"$cds_home/release\"");
+            writer.write("; then\n");
+            writer.write("        CDS_OPTS=\"-XX:SharedArchiveFile=" + FELIX_ARCHIVE + " -Xshare:auto\"\n");
+            writer.write("    fi\n");
+            writer.write("    unset cds_home\n");
+            writer.write("fi\n");
+            writer.write("unset cds_java\n");
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to write " + fileTemp.getAbsolutePath(), exception);
+        }
+        try {
+            Files.move(fileTemp.toPath(), fileScript.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to move " + fileTemp.getAbsolutePath() + " to " + fileScript.getAbsolutePath(), exception);
+        }
+    }
+
+    /**
+     * Gets the Java executable of the runtime of the platform
+     *
+     * @return The Java executable
+     */
+    private File getRuntimeJava() {
+        return runtimeJava != null ? runtimeJava : new File(new File(System.getProperty("java.home"), "bin"), "java");
+    }
+
+    /**
+     * Gets the release file of the runtime of the platform, which identifies the runtime
+     *
+     * @return The release file
+     * @throws MojoFailureException When the release file could not be found
+     */
+    private File getRuntimeRelease() throws MojoFailureException {
+        File fileJava;
+        try {
+            fileJava = getRuntimeJava().getCanonicalFile();
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to locate the Java runtime", exception);
+        }
+        // bin/java in the runtime, or jre/bin/java for older JDKs
+        File fileRelease = new File(fileJava.getParentFile().getParentFile(), "release");
+        if (!fileRelease.exists())
+            fileRelease = new File(fileJava.getParentFile().getParentFile().getParentFile(), "release");
+        if (!fileRelease.exists())
+            throw new MojoFailureException("Failed to find the release file of the Java runtime " + fileJava.getAbsolutePath());
+        return fileRelease;
+    }
+
+    /**
+     * Gets the jar of this plugin, for the programs run in forked JVMs
+     *
+     * @return The jar of this plugin
+     * @throws MojoFailureException When the plugin could not be located
+     */
+    private File getPluginFile() throws MojoFailureException {
+        try {
+            return new File(CachePrewarmer.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException exception) {
+            throw new MojoFailureException("Failed to locate the plugin", exception);
+        }
+    }
+
+    /**
+     * Runs the Java runtime of the platform in a forked JVM.
+     * The output is logged at the debug level, and at the error level when the JVM fails.
+     *
+     * @param label     The label for the logged output
+     * @param directory The working directory
+     * @param output    The buffer for the output lines
+     * @param arguments The arguments for the JVM
+     * @return The exit code
+     * @throws MojoFailureException When the JVM could not be run
+     */
+    private int runFork(String label, File directory, List<String> output, String... arguments) throws MojoFailureException {
+        File fileJava = getRuntimeJava();
+        List<String> command = new ArrayList<>();
+        command.add(fileJava.getAbsolutePath());
+        command.addAll(Arrays.asList(arguments));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(directory);
+        builder.redirectErrorStream(true);
+        int code;
+        try {
+            Process process = builder.start();
+            process.getOutputStream().close();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    getLog().debug("[" + label + "] " + line);
+                    output.add(line);
+                }
             }
+            code = process.waitFor();
+        } catch (IOException exception) {
+            throw new MojoFailureException("Failed to run " + fileJava.getAbsolutePath(), exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MojoFailureException("Interrupted while running " + fileJava.getAbsolutePath(), exception);
+        }
+        if (code != 0) {
+            for (String line : output)
+                getLog().error("[" + label + "] " + line);
         }
+        return code;
+    }
 
+    /**
+     * Deploys configured resources into the distribution to build
+     *
+     * @param targetDistribution The directory of the distribution to build
+     * @param deployer           The deployer for the files
+     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
+     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     */
+    private void deployResources(File targetDistribution, FileDeployer deployer) throws MojoFailureException {
+        getLog().info("Deploying new resources");
+        if (resources == null)
+            return;
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.DEPLOY);
+        long start = phase.begin();
+        try {
+            new ResourceDeployer(deployer, resourceThreads).deploy(resources, targetDistribution);
+            phase.end(start);
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to deploy the resources into " + targetDistribution.getAbsolutePath(), exception);
+        }
+    }
 
+    /**
+     * Writes the descriptor for the distribution
+     *
+     * @return The file for the descriptor
+     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
+     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     */
+    private File writeDescriptor() throws MojoFailureException {
+        long start = metrics.getPhase(PackagingMetrics.DESCRIPTOR).begin();
         getLog().info("Writing manifest");
         File targetDirectory = new File(project.getModel().getBuild().getDirectory());
         File fileDescriptor = new File(targetDirectory, getArtifactName() + ".json");
-        try (Writer writer = IOUtils.getWriter(fileDescriptor)) {
+        String digest;
+        try (DescriptorWriter writer = new DescriptorWriter(fileDescriptor)) {
             writer.write("{\n");
-            writer.write("\t\"identifier\": \"" + TextUtils.escapeStringJSON(project.getModel().getGroupId() + "." + project.getModel().getArtifactId() + "-" + project.getModel().getVersion()) + "\",\n");
-            writer.write("\t\"name\": \"" + TextUtils.escapeStringJSON(project.getModel().getName()) + "\",\n");
-            writer.write("\t\"description\": \"" + TextUtils.escapeStringJSON(project.getModel().getDescription()) + "\",\n");
-            writer.write("\t\"version\": {\n");
-            writer.write("\t\t\"number\": \"" + TextUtils.escapeStringJSON(project.getModel().getVersion()) + "\",\n");
-            writer.write("\t\t\"scmTag\": \"" + (versionScmTag == null ? "" : TextUtils.escapeStringJSON(versionScmTag)) + "\",\n");
-            writer.write("\t\t\"buildUser\": \"" + TextUtils.escapeStringJSON(System.getProperty("user.name")) + "\",\n");
-            writer.write("\t\t\"buildTag\": \"" + (versionBuildTag == null ? "" : TextUtils.escapeStringJSON(versionBuildTag)) + "\",\n");
-            writer.write("\t\t\"buildTimestamp\": \"" + (versionBuildTimestamp == null ? "" : TextUtils.escapeStringJSON(versionBuildTimestamp)) + "\"\n");
-            writer.write("\t},\n");
-            writer.write("\t\"copyright\": \"Copyright (c) " + TextUtils.escapeStringJSON(project.getModel().getOrganization().getName()) + "\",\n");
-            writer.write("\t\"iconName\": \"" + iconName + "\",\n");
-            writer.write("\t\"iconContent\": \"" + iconContent + "\",\n");
-            writer.write("\t\"vendor\": \"" + TextUtils.escapeStringJSON(project.getModel().getOrganization().getName()) + "\",\n");
-            writer.write("\t\"vendorLink\": \"" + TextUtils.escapeStringJSON(project.getModel().getOrganization().getUrl()) + "\",\n");
-            writer.write("\t\"link\": \"" + TextUtils.escapeStringJSON(project.getModel().getUrl()) + "\",\n");
-            writer.write("\t\"license\": {\n");
-            if (!project.getModel().getLicenses().isEmpty()) {
-                writer.write("\t\t\"name\": \"" + TextUtils.escapeStringJSON(project.getModel().getLicenses().get(0).getName()) + "\",\n");
-                writer.write("\t\t\"fullText\": \"" + TextUtils.escapeStringJSON(licenseText) + "\"\n");
-            }
-            writer.write("\t}\n");
+            writeDescriptorCommons(writer, versionScmTag, versionBuildTag, versionBuildTimestamp, icon, licenseFullText);
+            writer.write("\n");
             writer.write("}\n");
-            writer.flush();
-            writer.close();
+            digest = writer.finish();
         } catch (IOException exception) {
             getLog().error(exception);
             throw new MojoFailureException("Failed to write descriptor " + fileDescriptor.getAbsolutePath(), exception);
         }
 
-        File fileDescriptor2 = new File(targetDistribution, "descriptor.json");
+        reportDescriptor(fileDescriptor, digest, start);
+        return fileDescriptor;
+    }
+
+    /**
+     * Indexes the OSGi manifests of all the bundles of the staged distribution, once they have been deployed, overridden and pruned
+     *
+     * @param targetDistribution The directory of the distribution to build
+     * @return The file for the index
+     * @throws MojoFailureException When a bundle could not be read or the index could not be written
+     */
+    private File indexStagedBundles(File targetDistribution) throws MojoFailureException {
+        File[] files = new File(targetDistribution, "felix/bundle").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".jar");
+            }
+        });
+        if (files == null)
+            files = new File[0];
+        Arrays.sort(files);
+        BundleManifest[] manifests = readBundleManifests(files);
+        SortedMap<String, BundleManifest> bundles = new TreeMap<>();
+        for (int i = 0; i != files.length; i++) {
+            if (manifests[i] != null)
+                bundles.put("felix/bundle/" + files[i].getName(), manifests[i]);
+        }
+        return writeBundlesIndex(bundles);
+    }
+
+    /**
+     * Indexes the OSGi manifests of all the bundles of a distribution derived by streaming,
+     * that is the bundles of the base distribution that are kept, and the bundles of the dependencies
+     *
+     * @param fileBase         The file for the base distribution
+     * @param isFelix          Whether the base distribution is the core Felix distribution
+     * @param fileDependencies The file of the resolved dependencies
+     * @param baseIndex        The index of the base distribution in the dependencies
+     * @param filter           The filter for the files of the base distribution, or null to keep all of them
+     * @return The file for the index
+     * @throws MojoFailureException When a bundle could not be read or the index could not be written
+     */
+    private File indexStreamedBundles(File fileBase, boolean isFelix, File[] fileDependencies, int baseIndex, ArchiveEntryFilter filter) throws MojoFailureException {
+        SortedMap<String, BundleManifest> bundles = readBaseBundleManifests(fileBase, isFelix ? "bundle/" : "felix/bundle/", filter);
+        List<Dependency> dependencies = project.getModel().getDependencies();
+        File[] files = fileDependencies.clone();
+        files[baseIndex] = null;
+        BundleManifest[] manifests = readBundleManifests(files);
+        for (int i = 0; i != manifests.length; i++) {
+            // a bundle of the base at the same path is overridden
+            if (manifests[i] != null)
+                bundles.put("felix/bundle/" + getBundleFileName(dependencies.get(i)), manifests[i]);
+        }
+        return writeBundlesIndex(bundles);
+    }
+
+    /**
+     * Reads the OSGi manifests of the bundles of a base distribution, directly from its archive.
+     * The bundles are read rather than the index of the base, which may not list all of them.
+     *
+     * @param fileBase  The file for the base distribution
+     * @param directory The directory of the bundles in the base distribution, relative to its root folder
+     * @param filter    The filter for the files of the base distribution, or null to keep all of them
+     * @return The manifests of the kept bundles, by path relative to the root of the distribution to build
+     * @throws MojoFailureException When the base distribution could not be read
+     */
+    private SortedMap<String, BundleManifest> readBaseBundleManifests(File fileBase, String directory, ArchiveEntryFilter filter) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.INDEX);
+        long start = phase.begin();
+        SortedMap<String, BundleManifest> result = new TreeMap<>();
+        try (TarArchiveInputStream input = new TarArchiveInputStream(ArchiveCodec.decompress(new FileInputStream(fileBase)))) {
+            while (true) {
+                TarArchiveEntry entry = input.getNextTarEntry();
+                if (entry == null)
+                    break;
+                String path = TarExtractor.getRelativePath(entry.getName());
+                if (!entry.isFile() || !path.startsWith(directory) || !path.endsWith(".jar") || path.indexOf('/', directory.length()) >= 0)
+                    continue;
+                if (filter != null && !filter.accept(path))
+                    continue;
+                BundleManifest manifest = BundleManifest.read(input);
+                if (manifest == null) {
+                    getLog().warn("Not an OSGi bundle: " + path);
+                    continue;
+                }
+                result.put("felix/bundle/" + path.substring(directory.length()), manifest);
+                phase.addEntries(1);
+            }
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to read the bundles of " + fileBase.getAbsolutePath(), exception);
+        }
+        phase.end(start);
+        phase.addRead(fileBase.length());
+        return result;
+    }
+
+    /**
+     * Writes the index of the OSGi manifests of the bundles of the distribution
+     *
+     * @param bundles The manifests of the bundles, by path relative to the root of the distribution
+     * @return The file for the index
+     * @throws MojoFailureException When the index could not be written
+     */
+    private File writeBundlesIndex(SortedMap<String, BundleManifest> bundles) throws MojoFailureException {
+        File fileIndex = new File(new File(project.getModel().getBuild().getDirectory()), getArtifactName() + "-" + BUNDLES_INDEX);
+        try (DescriptorWriter writer = new DescriptorWriter(fileIndex)) {
+            writer.write("{\n");
+            writer.write("\t\"bundles\": [\n");
+            boolean first = true;
+            for (Map.Entry<String, BundleManifest> bundle : bundles.entrySet()) {
+                if (!first)
+                    writer.write(",\n");
+                first = false;
+                writer.write("\t\t{\n");
+                writer.write("\t\t\t\"path\": ").writeString(bundle.getKey()).write(",\n");
+                writer.write("\t\t\t\"manifest\": ");
+                bundle.getValue().write(writer, "\t\t\t");
+                writer.write("\n\t\t}");
+            }
+            writer.write("\n\t]\n");
+            writer.write("}\n");
+            writer.finish();
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to write the bundles index " + fileIndex.getAbsolutePath(), exception);
+        }
+        return fileIndex;
+    }
+
+    /**
+     * Deploys a generated file, such as the descriptor, into the distribution to build
+     *
+     * @param file   The generated file
+     * @param target The file in the distribution to build
+     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
+     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     */
+    private void deployFile(File file, File target) throws MojoFailureException {
         try {
-            Files.copy(fileDescriptor.toPath(), fileDescriptor2.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException exception) {
             getLog().error(exception);
-            throw new MojoFailureException("Failed to copy " + fileDescriptor.getAbsolutePath() + " to " + fileDescriptor2.getAbsolutePath(), exception);
+            throw new MojoFailureException("Failed to copy " + file.getAbsolutePath() + " to " + target.getAbsolutePath(), exception);
         }
-        return fileDescriptor;
     }
 
     /**
-     * Packages the resulting distribution and builds the corresponding Maven artifact
+     * Packages the resulting distribution
      *
      * @param targetDistribution The directory of the distribution to build
+     * @return The file for the distribution package
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private void packageDistribution(File targetDistribution) throws MojoFailureException {
+    private File packageDistribution(File targetDistribution) throws MojoFailureException {
         getLog().info("Packaging ...");
-        File filePackage = new File(new File(project.getModel().getBuild().getDirectory()), getArtifactName() + ".tar.gz");
-        packageTarGz(targetDistribution, filePackage, project.getModel().getArtifactId());
+        File filePackage = new File(new File(project.getModel().getBuild().getDirectory()), getArtifactName() + "." + getCodec().getExtension());
+        packageTar(targetDistribution, filePackage, project.getModel().getArtifactId());
         IOUtils.deleteFolder(targetDistribution);
+        return filePackage;
+    }
 
-        DefaultArtifactHandler artifactHandler = new DefaultArtifactHandler("xowl-platform");
-        artifactHandler.setAddedToClasspath(false);
-        artifactHandler.setExtension("tar.gz");
-        artifactHandler.setLanguage("java");
-        artifactHandler.setIncludesDependencies(false);
-        DefaultArtifact mainArtifact = new DefaultArtifact(
-                project.getModel().getGroupId(),
-                project.getModel().getArtifactId(),
-                project.getModel().getVersion(),
-                "compile",
-                "xowl-platform",
-                "",
-                artifactHandler
-        );
-        mainArtifact.setFile(filePackage);
-        project.setArtifact(mainArtifact);
+    /**
+     * Packages the distribution by streaming the entries of the base distribution into the output archive
+     *
+     * @param fileBase           The file for the base distribution
+     * @param isFelix            Whether the base distribution is the core Felix distribution
+     * @param fileDependencies   The file of the resolved dependencies
+     * @param excludedDependency The file of the excluded dependency (base platform)
+     * @param fileDescriptor     The file for the descriptor
+     * @param fileIndex          The file for the bundles index
+     * @param filter             The filter for the files of the base distribution, or null to keep all of them
+     * @return The file for the distribution package
+     * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
+     *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
+     */
+    private File packageStreaming(File fileBase, boolean isFelix, File[] fileDependencies, File excludedDependency, File fileDescriptor, File fileIndex, ArchiveEntryFilter filter) throws MojoFailureException {
+        getLog().info("Packaging from the base distribution (streaming) ...");
+        TarDerivation derivation = new TarDerivation(project.getModel().getArtifactId(), isFelix ? "felix" : "", filter);
+        int i = 0;
+        for (Dependency dependency : project.getModel().getDependencies()) {
+            File bundleFileSource = fileDependencies[i++];
+            if (bundleFileSource == excludedDependency)
+                continue;
+            derivation.addFile("felix/bundle/" + getBundleFileName(dependency), bundleFileSource);
+        }
+        if (resources != null) {
+            for (int j = 0; j != resources.length; j++)
+                derivation.addTree(resources[j].getName(), resources[j]);
+        }
+        derivation.addFile("descriptor.json", fileDescriptor);
+        derivation.addFile(BUNDLES_INDEX, fileIndex);
+
+        File filePackage = new File(new File(project.getModel().getBuild().getDirectory()), getArtifactName() + "." + getCodec().getExtension());
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.COMPRESS);
+        long start = phase.begin();
+        ContentDigests digests = newContentDigests();
+        String[] packageDigests;
+        try {
+            MessageDigest[] packageDigest = digests.newDigests();
+            try (TarArchiveOutputStream outputStream = openTarPackage(filePackage, phase, digests, packageDigest)) {
+                derivation.write(fileBase, outputStream);
+                writeChecksumManifests(outputStream, digests, project.getModel().getArtifactId());
+            }
+            packageDigests = ContentDigests.complete(packageDigest);
+        } catch (IOException exception) {
+            getLog().error(exception);
+            throw new MojoFailureException("Failed to package " + filePackage.getAbsolutePath(), exception);
+        }
+        phase.end(start);
+        phase.addWritten(filePackage.length());
+        writeChecksumFiles(filePackage, packageDigests);
+        return filePackage;
+    }
+
+    /**
+     * Gets the strategy for deploying files into the staged distribution
+     *
+     * @return The strategy
+     * @throws MojoFailureException When the configured strategy is not supported
+     */
+    private DeploymentStrategy getDeploymentStrategy() throws MojoFailureException {
+        DeploymentStrategy strategy = DeploymentStrategy.fromName(deploymentStrategy);
+        if (strategy == null)
+            throw new MojoFailureException("Unsupported deployment strategy " + deploymentStrategy + " (expected copy, hardlink, symlink or reflink)");
+        return strategy;
+    }
+
+    /**
+     * Gets the mode for pruning the unreachable bundles
+     *
+     * @return The mode
+     * @throws MojoFailureException When the configured mode is not supported
+     */
+    private PruningMode getPruningMode() throws MojoFailureException {
+        PruningMode mode = PruningMode.fromName(pruneBundles);
+        if (mode == null)
+            throw new MojoFailureException("Unsupported bundle pruning mode " + pruneBundles + " (expected none, report or remove)");
+        return mode;
     }
 
     /**
-     * Creates an tar.gz archive from a directory
+     * Gets the codec for the platform distribution
+     *
+     * @return The codec
+     * @throws MojoFailureException When the configured codec or compression level is not supported
+     */
+    private ArchiveCodec getCodec() throws MojoFailureException {
+        ArchiveCodec codec = ArchiveCodec.fromName(distributionCodec);
+        if (codec == null)
+            throw new MojoFailureException("Unsupported distribution codec " + distributionCodec + " (expected gzip, zstd or xz)");
+        if (distributionLevel < -1 || distributionLevel > codec.getMaxLevel())
+            throw new MojoFailureException("Unsupported compression level " + distributionLevel + " for the " + codec.name().toLowerCase() + " codec (expected -1 for the default level, or 0 to " + codec.getMaxLevel() + ")");
+        return codec;
+    }
+
+    /**
+     * Creates a compressed tar archive from a directory
      *
      * @param input    The input directory
-     * @param output   The output tar.gz file
+     * @param output   The output archive file
      * @param rootName The name of the root folder in the package
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private void packageTarGz(File input, File output, String rootName) throws MojoFailureException {
-        try (TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(output)))) {
-            outputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-            packageTarGzDirectory(outputStream, input, rootName);
+    private void packageTar(File input, File output, String rootName) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.COMPRESS);
+        long start = phase.begin();
+        ContentDigests digests = newContentDigests();
+        String[] packageDigests;
+        try {
+            MessageDigest[] packageDigest = digests.newDigests();
+            try (TarArchiveOutputStream outputStream = openTarPackage(output, phase, digests, packageDigest)) {
+                new TarWriter(outputStream).writeTree(input.toPath(), rootName);
+                writeChecksumManifests(outputStream, digests, rootName);
+            }
+            packageDigests = ContentDigests.complete(packageDigest);
         } catch (IOException exception) {
             getLog().error(exception);
             throw new MojoFailureException("Failed to package " + output.getAbsolutePath(), exception);
         }
+        phase.end(start);
+        phase.addWritten(output.length());
+        writeChecksumFiles(output, packageDigests);
     }
 
     /**
-     * Adds a directory to a tar archive
+     * Writes the manifests of the checksums of the files in a distribution, as the last entries of its package.
+     * There is one manifest for each algorithm (checksums.sha256, checksums.sha512) at the root of the distribution,
+     * so that the distribution can be verified with the sha256sum tool once extracted.
+     * The manifests take the latest modification time of the entries, so that the package remains reproducible.
      *
-     * @param outputStream The stream to write to
-     * @param directory    The directory to put into the archive
-     * @param path         The current path in the archive
+     * @param output   The tar stream for the package
+     * @param digests  The digests of the entries written so far
+     * @param rootName The name of the root folder in the package
      * @throws IOException When an IO error occurs
      */
-    private void packageTarGzDirectory(TarArchiveOutputStream outputStream, File directory, String path) throws IOException {
-        TarArchiveEntry entry = new TarArchiveEntry(directory, path);
-        outputStream.putArchiveEntry(entry);
-        outputStream.closeArchiveEntry();
-        File[] files = directory.listFiles();
-        if (files == null)
-            return;
-        for (File child : files) {
-            if (child.isDirectory())
-                packageTarGzDirectory(outputStream, child, path + "/" + child.getName());
-            else {
-                entry = new TarArchiveEntry(child, path + "/" + child.getName());
-                if (child.canExecute()) {
-                    // set as executable
-                    entry.setMode(EXECUTABLE_MODE);
+    private void writeChecksumManifests(TarArchiveOutputStream output, ContentDigests digests, String rootName) throws IOException {
+        String[] algorithms = digests.getAlgorithms();
+        byte[][] manifests = new byte[algorithms.length][];
+        for (int i = 0; i != algorithms.length; i++) {
+            StringWriter writer = new StringWriter();
+            digests.writeManifest(writer, i, rootName + "/");
+            manifests[i] = writer.toString().getBytes("UTF-8");
+        }
+        for (int i = 0; i != algorithms.length; i++) {
+            TarArchiveEntry entry = new TarArchiveEntry(rootName + "/checksums." + ContentDigests.getExtension(algorithms[i]));
+            entry.setSize(manifests[i].length);
+            entry.setModTime(digests.getLastModified());
+            output.putArchiveEntry(entry);
+            output.write(manifests[i], 0, manifests[i].length);
+            output.closeArchiveEntry();
+        }
+    }
+
+    /**
+     * Opens a tar package for writing, recording the entries and the uncompressed size in a phase.
+     * The digests of the file entries are computed as their content goes through the stream.
+     *
+     * @param output        The output archive file
+     * @param phase         The phase to record into
+     * @param digests       The digests of the entries to update
+     * @param packageDigest The message digests to update with the content of the package file
+     * @return The tar stream
+     * @throws IOException          When an IO error occurs
+     * @throws MojoFailureException When the configured codec is not supported
+     */
+    private TarArchiveOutputStream openTarPackage(File output, final PackagingMetrics.Phase phase, final ContentDigests digests, MessageDigest[] packageDigest) throws IOException, MojoFailureException {
+        TarArchiveOutputStream stream = new TarArchiveOutputStream(openCompressor(ContentDigests.wrap(new FileOutputStream(output), packageDigest))) {
+            /**
+             * The name of the current file entry
+             */
+            private String entryName;
+            /**
+             * The message digests for the current file entry, if any
+             */
+            private MessageDigest[] entryDigests;
+
+            @Override
+            public void putArchiveEntry(ArchiveEntry entry) throws IOException {
+                super.putArchiveEntry(entry);
+                phase.addEntries(1);
+                digests.addModified(entry.getLastModifiedDate().getTime());
+                if (((TarArchiveEntry) entry).isFile() && !ContentDigests.isManifest(TarExtractor.getRelativePath(entry.getName()))) {
+                    entryName = entry.getName();
+                    entryDigests = digests.newDigests();
                 }
-                outputStream.putArchiveEntry(entry);
-                try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(child))) {
-                    org.apache.commons.compress.utils.IOUtils.copy(bis, outputStream);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                super.write(buffer, offset, length);
+                if (entryDigests != null)
+                    ContentDigests.update(entryDigests, buffer, offset, length);
+            }
+
+            @Override
+            public void closeArchiveEntry() throws IOException {
+                super.closeArchiveEntry();
+                if (entryDigests != null) {
+                    digests.put(entryName, entryDigests);
+                    entryDigests = null;
                 }
-                outputStream.closeArchiveEntry();
             }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                phase.addRead(getBytesWritten());
+            }
+        };
+        stream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        return stream;
+    }
+
+    /**
+     * Opens a compressing stream for writing a distribution
+     *
+     * @param output The stream to the output file
+     * @return The compressing stream
+     * @throws IOException          When an IO error occurs
+     * @throws MojoFailureException When the configured codec is not supported
+     */
+    private OutputStream openCompressor(OutputStream output) throws IOException, MojoFailureException {
+        OutputStream buffered = new BufferedOutputStream(output, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+        switch (getCodec()) {
+            case ZSTD:
+                return distributionLevel < 0 ?
+                        new ZstdCompressorOutputStream(buffered) :
+                        new ZstdCompressorOutputStream(buffered, distributionLevel);
+            case XZ:
+                return distributionLevel < 0 ?
+                        new XZCompressorOutputStream(buffered) :
+                        new XZCompressorOutputStream(buffered, distributionLevel);
+            default:
+                int level = distributionLevel < 0 ? Deflater.DEFAULT_COMPRESSION : distributionLevel;
+                int threads = gzipThreads <= 0 ? Runtime.getRuntime().availableProcessors() : gzipThreads;
+                if (threads == 1)
+                    return newGzipOutputStream(buffered, level);
+                return new ParallelGzipOutputStream(buffered, level, threads, gzipBlockSize);
         }
     }
 
     /**
-     * Extracts a tar.gz file
+     * Creates a single-threaded gzip stream with the specified compression level
+     *
+     * @param output The underlying stream
+     * @param level  The compression level
+     * @return The gzip stream
+     * @throws IOException When an IO error occurs
+     */
+    private static OutputStream newGzipOutputStream(OutputStream output, final int level) throws IOException {
+        return new GZIPOutputStream(output, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * Extracts a compressed tar file, the compression codec being detected from the content
      *
-     * @param input  The input tar.gz file
+     * @param input  The input archive file
      * @param output The output directory
+     * @param filter The filter for the files, or null to extract all of them
      * @throws MojoFailureException if an expected problem (such as a compilation failure) occurs.
      *                              Throwing this exception causes a "BUILD FAILURE" message to be displayed.
      */
-    private void extractTarGz(File input, File output) throws MojoFailureException {
-        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(input)))) {
-            while (true) {
-                TarArchiveEntry entry = inputStream.getNextTarEntry();
-                if (entry == null)
-                    break;
-                if (entry.isDirectory()) {
-                    File directory = new File(output, entry.getName());
-                    if (!directory.mkdirs())
-                        throw new MojoFailureException("Failed to extract " + input.getAbsolutePath());
-                } else {
-                    File target = new File(output, entry.getName());
-                    File directory = target.getParentFile();
-                    if (!directory.exists() && !directory.mkdirs())
-                        throw new MojoFailureException("Failed to extract " + input.getAbsolutePath());
-                    try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
-                        org.apache.commons.compress.utils.IOUtils.copy(inputStream, fileOutputStream);
-                    }
-                    if (entry.getMode() == EXECUTABLE_MODE) {
-                        if (!target.setExecutable(true, false))
-                            throw new MojoFailureException("Failed to set executable bit on " + target.getAbsolutePath());
-                    }
-                }
-            }
+    private void extractArchive(File input, File output, ArchiveEntryFilter filter) throws MojoFailureException {
+        PackagingMetrics.Phase phase = metrics.getPhase(PackagingMetrics.EXTRACT);
+        long start = phase.begin();
+        TarExtractor extractor = new TarExtractor(extractionThreads);
+        try {
+            extractor.extract(input, output, filter);
+            phase.end(start);
+            phase.addRead(input.length());
+            phase.addEntries(extractor.getFileCount());
+            phase.addWritten(extractor.getByteCount());
         } catch (IOException exception) {
             getLog().error(exception);
             throw new MojoFailureException("Failed to extract " + input.getAbsolutePath(), exception);
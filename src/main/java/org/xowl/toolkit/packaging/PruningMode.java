@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+/**
+ * The modes for pruning the bundles of a platform distribution that are not reachable from the root bundles
+ *
+ * @author Laurent Wouters
+ */
+public enum PruningMode {
+    /**
+     * The bundles are not pruned, the default
+     */
+    NONE,
+    /**
+     * The unreachable bundles are listed, without being removed (dry run)
+     */
+    REPORT,
+    /**
+     * The unreachable bundles are removed from the distribution
+     */
+    REMOVE;
+
+    /**
+     * Gets the mode for the specified name
+     *
+     * @param name The name of the mode (none, report or remove)
+     * @return The mode, or null if it is not known
+     */
+    public static PruningMode fromName(String name) {
+        if (name == null)
+            return NONE;
+        switch (name.toLowerCase()) {
+            case "none":
+                return NONE;
+            case "report":
+                return REPORT;
+            case "remove":
+                return REMOVE;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deploys resource trees into a distribution.
+ * Each directory is handled by a fork-join task that lists its content in a single pass,
+ * deploys its files and forks a task for each sub-directory.
+ * The failures are collected so that a single failure does not hide the others.
+ * When the deployer supports it (reflink), each resource directory is deployed at once instead.
+ *
+ * @author Laurent Wouters
+ */
+public class ResourceDeployer {
+    /**
+     * The deployer for the files
+     */
+    private final FileDeployer deployer;
+    /**
+     * The parallelism level
+     */
+    private final int parallelism;
+    /**
+     * The collected failures
+     */
+    private final Collection<IOException> failures;
+
+    /**
+     * Initializes this deployer
+     *
+     * @param deployer    The deployer for the files
+     * @param parallelism The parallelism level, 0 for all the available processors
+     */
+    public ResourceDeployer(FileDeployer deployer, int parallelism) {
+        this.deployer = deployer;
+        this.parallelism = parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+        this.failures = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Deploys resources into a directory.
+     * Each resource is deployed under its own name, directories being deployed recursively.
+     *
+     * @param resources The resources to deploy
+     * @param target    The target directory
+     * @throws IOException When the deployment of at least one file failed, the other failures being suppressed exceptions
+     */
+    public void deploy(File[] resources, File target) throws IOException {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int i = 0; i != resources.length; i++) {
+            Path source = resources[i].toPath();
+            Path destination = target.toPath().resolve(resources[i].getName());
+            if (Files.isDirectory(source)) {
+                if (!deployTree(source, destination))
+                    tasks.add(new DirectoryTask(source, destination));
+            } else
+                deployFile(source, destination);
+        }
+        if (!tasks.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (RecursiveAction task : tasks)
+                    pool.invoke(task);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        if (failures.isEmpty())
+            return;
+        IOException result = null;
+        for (IOException failure : failures) {
+            if (result == null)
+                result = new IOException(failures.size() + " resource(s) failed to deploy, first: " + failure.getMessage(), failure);
+            else
+                result.addSuppressed(failure);
+        }
+        throw result;
+    }
+
+    /**
+     * Deploys a directory tree at once, recording the failure if any
+     *
+     * @param source The source directory
+     * @param target The target directory
+     * @return Whether the tree was handled, otherwise its files must be deployed one by one
+     */
+    private boolean deployTree(Path source, Path target) {
+        try {
+            return deployer.deployTree(source, target);
+        } catch (IOException exception) {
+            failures.add(new IOException("Failed to copy " + source + " to " + target, exception));
+            return true;
+        }
+    }
+
+    /**
+     * Deploys a single file, recording the failure if any
+     *
+     * @param source The source file
+     * @param target The target file
+     */
+    private void deployFile(Path source, Path target) {
+        try {
+            deployer.deploy(source, target);
+        } catch (IOException exception) {
+            failures.add(new IOException("Failed to copy " + source + " to " + target, exception));
+        }
+    }
+
+    /**
+     * The task for deploying a directory
+     */
+    private class DirectoryTask extends RecursiveAction {
+        /**
+         * The version of this class for serialization
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The source directory
+         */
+        private final Path source;
+        /**
+         * The target directory
+         */
+        private final Path target;
+
+        /**
+         * Initializes this task
+         *
+         * @param source The source directory
+         * @param target The target directory
+         */
+        public DirectoryTask(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            final List<Path> files = new ArrayList<>();
+            final List<DirectoryTask> children = new ArrayList<>();
+            try {
+                Files.createDirectories(target);
+                // list the content with the attributes in a single pass, following links as File.isDirectory does
+                Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isDirectory())
+                            children.add(new DirectoryTask(file, target.resolve(file.getFileName().toString())));
+                        else
+                            files.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exception) {
+                        failures.add(new IOException("Failed to read " + file, exception));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException exception) {
+                failures.add(new IOException("Failed to copy " + source + " to " + target, exception));
+                return;
+            }
+            // fork the sub-directories first so that they are processed while the files are deployed
+            for (DirectoryTask child : children)
+                child.fork();
+            for (Path file : files)
+                deployFile(file, target.resolve(file.getFileName().toString()));
+            for (DirectoryTask child : children)
+                child.join();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the stages of a packaging as a dependency graph on a pool of threads.
+ * A stage starts as soon as all the stages it depends on are completed.
+ * When a stage fails, no other stage is started, the running ones are interrupted and the first failure is reported.
+ *
+ * @author Laurent Wouters
+ */
+public class StageScheduler {
+    /**
+     * The action of a stage
+     */
+    public interface Action {
+        /**
+         * Runs this action
+         *
+         * @throws MojoFailureException When the action failed
+         */
+        void run() throws MojoFailureException;
+    }
+
+    /**
+     * A stage in the graph
+     */
+    public static class Stage {
+        /**
+         * The name of this stage
+         */
+        private final String name;
+        /**
+         * The action of this stage
+         */
+        private final Action action;
+        /**
+         * The stages this one depends on
+         */
+        private final Stage[] dependencies;
+        /**
+         * The stages that depend on this one
+         */
+        private final List<Stage> dependents;
+        /**
+         * The number of dependencies that are not completed yet
+         */
+        private int remaining;
+        /**
+         * The start time of this stage, in nanoseconds
+         */
+        private long start;
+        /**
+         * The end time of this stage, in nanoseconds
+         */
+        private long end;
+
+        /**
+         * Initializes this stage
+         *
+         * @param name         The name of this stage
+         * @param action       The action of this stage
+         * @param dependencies The stages this one depends on
+         */
+        private Stage(String name, Action action, Stage[] dependencies) {
+            this.name = name;
+            this.action = action;
+            this.dependencies = dependencies;
+            this.dependents = new ArrayList<>();
+            this.remaining = dependencies.length;
+        }
+    }
+
+    /**
+     * The maximum number of stages running at the same time
+     */
+    private final int threads;
+    /**
+     * The stages, in the order of their declaration
+     */
+    private final List<Stage> stages;
+    /**
+     * The start time of the graph, in nanoseconds
+     */
+    private long origin;
+    /**
+     * The number of completed stages
+     */
+    private int completed;
+    /**
+     * The first failure
+     */
+    private MojoFailureException failure;
+
+    /**
+     * Initializes this scheduler
+     *
+     * @param threads The maximum number of stages running at the same time, 0 for all the available processors
+     */
+    public StageScheduler(int threads) {
+        this.threads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.stages = new ArrayList<>();
+    }
+
+    /**
+     * Adds a stage to the graph
+     *
+     * @param name         The name of the stage
+     * @param action       The action of the stage
+     * @param dependencies The stages the new one depends on, they must have been added before
+     * @return The new stage
+     */
+    public Stage addStage(String name, Action action, Stage... dependencies) {
+        Stage stage = new Stage(name, action, dependencies);
+        for (Stage dependency : dependencies)
+            dependency.dependents.add(stage);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Runs all the stages
+     *
+     * @throws MojoFailureException When a stage failed
+     */
+    public void run() throws MojoFailureException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            synchronized (this) {
+                origin = System.nanoTime();
+                for (Stage stage : stages) {
+                    if (stage.remaining == 0)
+                        submit(executor, stage);
+                }
+                while (completed < stages.size() && failure == null)
+                    wait();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            onFailure(new MojoFailureException("Interrupted while packaging", exception));
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            // let the interrupted stages terminate before reporting
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Submits a stage for execution
+     *
+     * @param executor The executor
+     * @param stage    The stage
+     */
+    private void submit(final ExecutorService executor, final Stage stage) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stage.start = System.nanoTime();
+                try {
+                    stage.action.run();
+                } catch (MojoFailureException exception) {
+                    onFailure(exception);
+                    return;
+                } catch (Throwable exception) {
+                    // errors too (out of memory, missing class, etc.), otherwise the scheduler would wait forever
+                    onFailure(new MojoFailureException("Failed to run stage " + stage.name, exception));
+                    return;
+                }
+                onCompleted(executor, stage);
+            }
+        });
+    }
+
+    /**
+     * When a stage completed successfully
+     *
+     * @param executor The executor
+     * @param stage    The stage
+     */
+    private synchronized void onCompleted(ExecutorService executor, Stage stage) {
+        stage.end = System.nanoTime();
+        completed++;
+        if (failure == null) {
+            for (Stage dependent : stage.dependents) {
+                dependent.remaining--;
+                if (dependent.remaining == 0)
+                    submit(executor, dependent);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * When a stage failed
+     *
+     * @param exception The failure
+     */
+    private synchronized void onFailure(MojoFailureException exception) {
+        if (failure == null)
+            failure = exception;
+        notifyAll();
+    }
+
+    /**
+     * Logs the timings of the stages and the critical path
+     *
+     * @param log The log to use
+     */
+    public synchronized void report(Log log) {
+        Stage last = null;
+        for (Stage stage : stages) {
+            log.info("Stage " + stage.name + ": started at +" + toMillis(stage.start - origin) + " ms, took " + toMillis(stage.end - stage.start) + " ms");
+            if (last == null || stage.end > last.end)
+                last = stage;
+        }
+        if (last == null)
+            return;
+        // walk back from the last stage to finish, through the dependency that finished last
+        List<Stage> path = new ArrayList<>();
+        for (Stage current = last; current != null; ) {
+            path.add(0, current);
+            Stage next = null;
+            for (Stage dependency : current.dependencies) {
+                if (next == null || dependency.end > next.end)
+                    next = dependency;
+            }
+            current = next;
+        }
+        StringBuilder builder = new StringBuilder("Critical path (" + toMillis(last.end - origin) + " ms):");
+        for (int i = 0; i != path.size(); i++) {
+            builder.append(i == 0 ? " " : " > ");
+            builder.append(path.get(i).name);
+            builder.append(" (");
+            builder.append(toMillis(path.get(i).end - path.get(i).start));
+            builder.append(" ms)");
+        }
+        log.info(builder.toString());
+    }
+
+    /**
+     * Converts a duration in nanoseconds to milliseconds
+     *
+     * @param nanos The duration in nanoseconds
+     * @return The duration in milliseconds
+     */
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
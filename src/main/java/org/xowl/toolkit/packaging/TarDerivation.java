@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Derives a distribution archive from a base archive by streaming the entries of the base
+ * into the output archive, without staging the distribution on disk.
+ * The root of the base is renamed, the entries overridden by the new content are dropped
+ * and the new content is appended at the end of the archive.
+ *
+ * @author Laurent Wouters
+ */
+class TarDerivation {
+    /**
+     * The name of the root folder in the output archive
+     */
+    private final String rootName;
+    /**
+     * The path (relative to the root) at which the content of the base is placed, empty for the root itself
+     */
+    private final String basePath;
+    /**
+     * The filter for the files of the base, if any
+     */
+    private final ArchiveEntryFilter filter;
+    /**
+     * The new directories, as paths relative to the root
+     */
+    private final SortedMap<String, File> directories;
+    /**
+     * The new files, as paths relative to the root
+     */
+    private final SortedMap<String, File> files;
+
+    /**
+     * Initializes this derivation
+     *
+     * @param rootName The name of the root folder in the output archive
+     * @param basePath The path (relative to the root) at which the content of the base is placed, empty for the root itself
+     * @param filter   The filter for the files of the base, or null to keep all of them
+     */
+    public TarDerivation(String rootName, String basePath, ArchiveEntryFilter filter) {
+        this.rootName = rootName;
+        this.basePath = basePath;
+        this.filter = filter;
+        this.directories = new TreeMap<>();
+        this.files = new TreeMap<>();
+    }
+
+    /**
+     * Adds a new file, overriding any entry at the same path in the base
+     *
+     * @param path The path relative to the root
+     * @param file The file
+     */
+    public void addFile(String path, File file) {
+        files.put(path, file);
+    }
+
+    /**
+     * Adds a new file or directory, recursively
+     *
+     * @param path The path relative to the root
+     * @param file The file or directory
+     */
+    public void addTree(String path, File file) {
+        if (!file.isDirectory()) {
+            files.put(path, file);
+            return;
+        }
+        directories.put(path, file);
+        File[] children = file.listFiles();
+        if (children == null)
+            return;
+        for (int i = 0; i != children.length; i++)
+            addTree(path + "/" + children[i].getName(), children[i]);
+    }
+
+    /**
+     * Writes the derived distribution
+     *
+     * @param base   The base archive
+     * @param output The output archive
+     * @throws IOException When an IO error occurs
+     */
+    public void write(File base, TarArchiveOutputStream output) throws IOException {
+        TarWriter writer = new TarWriter(output);
+        Set<String> existing = new HashSet<>();
+        if (!basePath.isEmpty()) {
+            writeDirectory(output, writer, "", null);
+            existing.add("");
+        }
+        try (TarArchiveInputStream input = new TarArchiveInputStream(ArchiveCodec.decompress(new FileInputStream(base)))) {
+            while (true) {
+                TarArchiveEntry entry = input.getNextTarEntry();
+                if (entry == null)
+                    break;
+                String path = rebase(entry.getName());
+                if (filter != null && !filter.accept(TarExtractor.getRelativePath(entry.getName()))) {
+                    continue;
+                } else if (entry.isDirectory()) {
+                    if (!existing.add(path))
+                        continue;
+                } else if (files.containsKey(path)) {
+                    // overridden by a new file
+                    continue;
+                }
+                entry.setName(getFullName(path) + (entry.isDirectory() ? "/" : ""));
+                if (entry.isLink())
+                    entry.setLinkName(getFullName(rebase(entry.getLinkName())));
+                output.putArchiveEntry(entry);
+                if (entry.isFile())
+                    org.apache.commons.compress.utils.IOUtils.copy(input, output);
+                output.closeArchiveEntry();
+            }
+        }
+        for (Map.Entry<String, File> directory : directories.entrySet()) {
+            if (existing.add(directory.getKey()))
+                writeDirectory(output, writer, directory.getKey(), directory.getValue());
+        }
+        for (Map.Entry<String, File> file : files.entrySet())
+            writer.writeFile(file.getValue().toPath(), getFullName(file.getKey()));
+    }
+
+    /**
+     * Maps the name of an entry in the base archive to a path relative to the output root
+     *
+     * @param name The name of the entry in the base archive
+     * @return The path relative to the output root
+     */
+    private String rebase(String name) {
+        String path = TarExtractor.getRelativePath(name);
+        if (basePath.isEmpty())
+            return path;
+        return path.isEmpty() ? basePath : basePath + "/" + path;
+    }
+
+    /**
+     * Gets the full name in the output archive for a path relative to the root
+     *
+     * @param path The path relative to the root
+     * @return The full name in the output archive
+     */
+    private String getFullName(String path) {
+        return path.isEmpty() ? rootName : rootName + "/" + path;
+    }
+
+    /**
+     * Writes an entry for a new directory
+     *
+     * @param output    The output archive
+     * @param writer    The writer for the files
+     * @param path      The path relative to the root
+     * @param directory The source directory, if any
+     * @throws IOException When an IO error occurs
+     */
+    private void writeDirectory(TarArchiveOutputStream output, TarWriter writer, String path, File directory) throws IOException {
+        if (directory != null) {
+            writer.writeDirectory(directory.toPath(), getFullName(path));
+            return;
+        }
+        output.putArchiveEntry(new TarArchiveEntry(getFullName(path) + "/"));
+        output.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Extracts compressed tar archives, the compression codec being detected from the content.
+ * When multiple threads are used, the extraction is pipelined:
+ * the calling thread decompresses the archive and reads the content of the small entries into pooled buffers,
+ * while a pool of workers creates and writes the files.
+ * Large entries are streamed directly to their file by the calling thread so that they are never buffered whole.
+ * The POSIX permissions of the entries are restored when the file system supports them,
+ * only the executable bit otherwise.
+ *
+ * @author Laurent Wouters
+ */
+public class TarExtractor {
+    /**
+     * File mode for executable files in a tar package, when the actual permissions are not known
+     */
+    public static final int EXECUTABLE_MODE = 0100755;
+    /**
+     * The size of the pooled buffers, i.e. the maximum size of the entries handed to the workers
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The number of threads for writing the files
+     */
+    private final int threads;
+    /**
+     * The number of extracted files
+     */
+    private long fileCount;
+    /**
+     * The total size of the extracted files
+     */
+    private long byteCount;
+    /**
+     * Whether the file system supports POSIX permissions
+     */
+    private volatile boolean posixSupported;
+
+    /**
+     * Initializes this extractor for a sequential extraction
+     */
+    public TarExtractor() {
+        this(1);
+    }
+
+    /**
+     * Initializes this extractor
+     *
+     * @param threads The number of threads for writing the files, 0 for all the available processors
+     */
+    public TarExtractor(int threads) {
+        this.threads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.posixSupported = true;
+    }
+
+    /**
+     * Gets the number of files extracted by this extractor
+     *
+     * @return The number of extracted files
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Gets the total size of the files extracted by this extractor
+     *
+     * @return The total size of the extracted files
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Extracts an archive
+     *
+     * @param input  The input archive file
+     * @param output The output directory
+     * @throws IOException When an IO error occurs
+     */
+    public void extract(File input, File output) throws IOException {
+        extract(input, output, null);
+    }
+
+    /**
+     * Extracts an archive, skipping the files that are not accepted by a filter
+     *
+     * @param input  The input archive file
+     * @param output The output directory
+     * @param filter The filter for the files, or null to extract all of them
+     * @throws IOException When an IO error occurs
+     */
+    public void extract(File input, File output, ArchiveEntryFilter filter) throws IOException {
+        if (threads == 1) {
+            extractSequential(input, output, filter);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            extractPipelined(input, output, filter, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Extracts an archive on the calling thread
+     *
+     * @param input  The input archive file
+     * @param output The output directory
+     * @param filter The filter for the files, or null to extract all of them
+     * @throws IOException When an IO error occurs
+     */
+    private void extractSequential(File input, File output, ArchiveEntryFilter filter) throws IOException {
+        Set<File> directories = new HashSet<>();
+        Map<File, Integer> directoryModes = new LinkedHashMap<>();
+        byte[] buffer = new byte[64 * 1024];
+        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(ArchiveCodec.decompress(new FileInputStream(input)))) {
+            while (true) {
+                TarArchiveEntry entry = inputStream.getNextTarEntry();
+                if (entry == null)
+                    break;
+                File target = new File(output, entry.getName());
+                if (filter != null && !filter.accept(getRelativePath(entry.getName())))
+                    continue;
+                if (entry.isDirectory()) {
+                    ensureDirectory(directories, target);
+                    directoryModes.put(target, entry.getMode());
+                    continue;
+                }
+                ensureDirectory(directories, target.getParentFile());
+                fileCount++;
+                byteCount += entry.getSize();
+                try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
+                    org.apache.commons.compress.utils.IOUtils.copy(inputStream, fileOutputStream, buffer.length);
+                }
+                setMode(target, entry.getMode());
+            }
+        }
+        setDirectoryModes(directoryModes);
+    }
+
+    /**
+     * Extracts an archive with a pool of workers for writing the files
+     *
+     * @param input    The input archive file
+     * @param output   The output directory
+     * @param filter   The filter for the files, or null to extract all of them
+     * @param executor The pool of workers
+     * @throws IOException When an IO error occurs
+     */
+    private void extractPipelined(File input, File output, ArchiveEntryFilter filter, ExecutorService executor) throws IOException {
+        Set<File> directories = new HashSet<>();
+        Map<File, Integer> directoryModes = new LinkedHashMap<>();
+        final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(threads * 4);
+        for (int i = 0; i != threads * 4; i++)
+            buffers.add(new byte[BUFFER_SIZE]);
+        // the last pending write for each file, so that repeated entries are written in order
+        Map<File, Future<?>> pending = new HashMap<>();
+        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(ArchiveCodec.decompress(new FileInputStream(input)))) {
+            while (true) {
+                TarArchiveEntry entry = inputStream.getNextTarEntry();
+                if (entry == null)
+                    break;
+                final File target = new File(output, entry.getName());
+                if (filter != null && !filter.accept(getRelativePath(entry.getName())))
+                    continue;
+                if (entry.isDirectory()) {
+                    ensureDirectory(directories, target);
+                    directoryModes.put(target, entry.getMode());
+                    continue;
+                }
+                ensureDirectory(directories, target.getParentFile());
+                fileCount++;
+                byteCount += entry.getSize();
+                Future<?> previous = pending.remove(target);
+                if (previous != null)
+                    await(previous);
+                if (entry.getSize() > BUFFER_SIZE) {
+                    // large entry, stream it directly
+                    try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
+                        org.apache.commons.compress.utils.IOUtils.copy(inputStream, fileOutputStream, 64 * 1024);
+                    }
+                    setMode(target, entry.getMode());
+                    continue;
+                }
+                final byte[] buffer = takeBuffer(buffers);
+                final int length = org.apache.commons.compress.utils.IOUtils.readFully(inputStream, buffer, 0, (int) entry.getSize());
+                if (length != entry.getSize()) {
+                    buffers.add(buffer);
+                    throw new IOException("Truncated entry " + entry.getName() + " in " + input.getAbsolutePath());
+                }
+                final TarArchiveEntry finalEntry = entry;
+                pending.put(target, executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
+                            fileOutputStream.write(buffer, 0, length);
+                        } finally {
+                            buffers.add(buffer);
+                        }
+                        setMode(target, finalEntry.getMode());
+                        return null;
+                    }
+                }));
+                // fail fast when a worker failed, the pending writes being bounded by the pool of buffers
+                checkCompleted(pending);
+            }
+        }
+        for (Future<?> future : pending.values())
+            await(future);
+        setDirectoryModes(directoryModes);
+    }
+
+    /**
+     * Gets the path of an entry relative to the root folder of the archive
+     *
+     * @param name The name of the entry
+     * @return The path relative to the root folder
+     */
+    public static String getRelativePath(String name) {
+        if (name.endsWith("/"))
+            name = name.substring(0, name.length() - 1);
+        int index = name.indexOf('/');
+        return index < 0 ? "" : name.substring(index + 1);
+    }
+
+    /**
+     * Takes a buffer from the pool, waiting for a worker to release one if necessary
+     *
+     * @param buffers The pool of buffers
+     * @return The buffer
+     * @throws IOException When the thread is interrupted
+     */
+    private static byte[] takeBuffer(BlockingQueue<byte[]> buffers) throws IOException {
+        try {
+            return buffers.take();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Removes the completed writes, checking whether they failed
+     *
+     * @param pending The pending writes
+     * @throws IOException When a write failed
+     */
+    private static void checkCompleted(Map<File, Future<?>> pending) throws IOException {
+        Iterator<Future<?>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Future<?> future = iterator.next();
+            if (future.isDone()) {
+                iterator.remove();
+                await(future);
+            }
+        }
+    }
+
+    /**
+     * Waits for a write to complete
+     *
+     * @param future The pending write
+     * @throws IOException When the write failed
+     */
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException)
+                throw (IOException) exception.getCause();
+            throw new IOException(exception.getCause());
+        }
+    }
+
+    /**
+     * Makes sure a directory exists, remembering the directories that are known to exist
+     *
+     * @param directories The directories that are known to exist
+     * @param directory   The directory
+     * @throws IOException When the directory could not be created
+     */
+    private static void ensureDirectory(Set<File> directories, File directory) throws IOException {
+        if (directories.contains(directory))
+            return;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create directory " + directory.getAbsolutePath());
+        // the parents now exist as well
+        File current = directory;
+        while (current != null && directories.add(current))
+            current = current.getParentFile();
+    }
+
+    /**
+     * Applies the modes of the extracted directories, once their content has been written.
+     * The directories are handled in the reverse order of the archive, so that the children come before their parent.
+     * The directories are kept accessible to the owner, so that the extracted distribution can be staged.
+     *
+     * @param directoryModes The modes of the extracted directories, in the order of the archive
+     * @throws IOException When a mode could not be applied
+     */
+    private void setDirectoryModes(Map<File, Integer> directoryModes) throws IOException {
+        if (!posixSupported)
+            return;
+        List<Map.Entry<File, Integer>> entries = new ArrayList<>(directoryModes.entrySet());
+        for (int i = entries.size() - 1; i >= 0; i--)
+            setMode(entries.get(i).getKey(), entries.get(i).getValue() | 0700);
+    }
+
+    /**
+     * Applies the mode of an entry to the extracted file.
+     * The POSIX permissions are restored when supported, only the executable bit otherwise.
+     *
+     * @param target The extracted file
+     * @param mode   The mode of the entry
+     * @throws IOException When the mode could not be applied
+     */
+    private void setMode(File target, int mode) throws IOException {
+        if (posixSupported) {
+            try {
+                Files.setPosixFilePermissions(target.toPath(), getPermissions(mode));
+                return;
+            } catch (UnsupportedOperationException exception) {
+                posixSupported = false;
+            }
+        }
+        if ((mode & 0100) != 0 && !target.isDirectory()) {
+            if (!target.setExecutable(true, false))
+                throw new IOException("Failed to set executable bit on " + target.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Gets the POSIX permissions for the mode of a tar entry
+     *
+     * @param mode The mode of the entry
+     * @return The permissions
+     */
+    private static Set<PosixFilePermission> getPermissions(int mode) {
+        Set<PosixFilePermission> result = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()) {
+            // the permissions are declared from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+            if ((mode & (0400 >> permission.ordinal())) != 0)
+                result.add(permission);
+        }
+        return result;
+    }
+}
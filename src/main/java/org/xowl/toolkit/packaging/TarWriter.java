@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+
+/**
+ * Writes files and directory trees into a tar archive.
+ * The attributes of each file are read with a single call, the POSIX permissions being kept when available.
+ * Directory trees are walked iteratively in the order of the names, so that the archives are reproducible.
+ *
+ * @author Laurent Wouters
+ */
+public class TarWriter {
+    /**
+     * The size of the buffer for the content of the files
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /**
+     * The tar type bits for regular files
+     */
+    private static final int TYPE_FILE = 0100000;
+    /**
+     * The tar type bits for directories
+     */
+    private static final int TYPE_DIRECTORY = 040000;
+
+    /**
+     * The output archive
+     */
+    private final TarArchiveOutputStream output;
+    /**
+     * The buffer for the content of the files
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Whether the file system supports POSIX attributes
+     */
+    private boolean posixSupported;
+
+    /**
+     * Initializes this writer
+     *
+     * @param output The output archive
+     */
+    public TarWriter(TarArchiveOutputStream output) {
+        this.output = output;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.posixSupported = true;
+    }
+
+    /**
+     * Writes a directory tree
+     *
+     * @param root The root directory
+     * @param name The name of the root directory in the archive
+     * @throws IOException When an IO error occurs
+     */
+    public void writeTree(Path root, String name) throws IOException {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(new Node(root, name, readAttributes(root)));
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!node.attributes.isDirectory()) {
+                writeFile(node.path, node.name, node.attributes);
+                continue;
+            }
+            writeDirectory(node.path, node.name, node.attributes);
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(node.path)) {
+                for (Path child : stream)
+                    children.add(child);
+            }
+            Collections.sort(children);
+            // push in reverse order so that the children are written in order, depth-first
+            for (int i = children.size() - 1; i >= 0; i--) {
+                Path child = children.get(i);
+                stack.push(new Node(child, node.name + "/" + child.getFileName().toString(), readAttributes(child)));
+            }
+        }
+    }
+
+    /**
+     * Writes the entry for a single file
+     *
+     * @param file The file
+     * @param name The name of the entry in the archive
+     * @throws IOException When an IO error occurs
+     */
+    public void writeFile(Path file, String name) throws IOException {
+        writeFile(file, name, readAttributes(file));
+    }
+
+    /**
+     * Writes the entry for a directory, without its content
+     *
+     * @param directory The directory
+     * @param name      The name of the entry in the archive
+     * @throws IOException When an IO error occurs
+     */
+    public void writeDirectory(Path directory, String name) throws IOException {
+        writeDirectory(directory, name, readAttributes(directory));
+    }
+
+    /**
+     * Writes the entry for a directory, without its content
+     *
+     * @param directory  The directory
+     * @param name       The name of the entry in the archive
+     * @param attributes The attributes of the directory
+     * @throws IOException When an IO error occurs
+     */
+    private void writeDirectory(Path directory, String name, BasicFileAttributes attributes) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name + "/");
+        entry.setModTime(attributes.lastModifiedTime().toMillis());
+        entry.setMode(getMode(directory, attributes));
+        output.putArchiveEntry(entry);
+        output.closeArchiveEntry();
+    }
+
+    /**
+     * Writes the entry for a single file
+     *
+     * @param file       The file
+     * @param name       The name of the entry in the archive
+     * @param attributes The attributes of the file
+     * @throws IOException When an IO error occurs
+     */
+    private void writeFile(Path file, String name, BasicFileAttributes attributes) throws IOException {
+        long size = attributes.size();
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(size);
+        entry.setModTime(attributes.lastModifiedTime().toMillis());
+        entry.setMode(getMode(file, attributes));
+        output.putArchiveEntry(entry);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long remaining = size;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity())
+                    buffer.limit((int) remaining);
+                int read = channel.read(buffer);
+                if (read < 0)
+                    throw new IOException("File " + file + " has been truncated while being archived");
+                output.write(buffer.array(), 0, read);
+                remaining -= read;
+            }
+        }
+        output.closeArchiveEntry();
+    }
+
+    /**
+     * Reads the attributes of a file, in a single call
+     *
+     * @param file The file
+     * @return The attributes
+     * @throws IOException When an IO error occurs
+     */
+    private BasicFileAttributes readAttributes(Path file) throws IOException {
+        if (posixSupported) {
+            try {
+                return Files.readAttributes(file, PosixFileAttributes.class);
+            } catch (UnsupportedOperationException exception) {
+                posixSupported = false;
+            }
+        }
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    /**
+     * Gets the tar mode for a file
+     *
+     * @param file       The file
+     * @param attributes The attributes of the file
+     * @return The tar mode
+     */
+    private static int getMode(Path file, BasicFileAttributes attributes) {
+        int type = attributes.isDirectory() ? TYPE_DIRECTORY : TYPE_FILE;
+        if (attributes instanceof PosixFileAttributes)
+            return type | getPermissions(((PosixFileAttributes) attributes).permissions());
+        if (attributes.isDirectory())
+            return TarArchiveEntry.DEFAULT_DIR_MODE;
+        return Files.isExecutable(file) ? TarExtractor.EXECUTABLE_MODE : TarArchiveEntry.DEFAULT_FILE_MODE;
+    }
+
+    /**
+     * Gets the permission bits for a set of POSIX permissions
+     *
+     * @param permissions The POSIX permissions
+     * @return The permission bits
+     */
+    private static int getPermissions(Set<PosixFilePermission> permissions) {
+        int result = 0;
+        for (PosixFilePermission permission : permissions) {
+            // the permissions are declared from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+            result |= 0400 >> permission.ordinal();
+        }
+        return result;
+    }
+
+    /**
+     * A file or directory waiting to be written
+     */
+    private static class Node {
+        /**
+         * The path to the file
+         */
+        public final Path path;
+        /**
+         * The name of the entry in the archive
+         */
+        public final String name;
+        /**
+         * The attributes of the file
+         */
+        public final BasicFileAttributes attributes;
+
+        /**
+         * Initializes this node
+         *
+         * @param path       The path to the file
+         * @param name       The name of the entry in the archive
+         * @param attributes The attributes of the file
+         */
+        public Node(Path path, String name, BasicFileAttributes attributes) {
+            this.path = path;
+            this.name = name;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import fr.cenotelie.commons.utils.IOUtils;
+import org.apache.commons.compress.archivers.zip.StreamCompressor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes the entries of a zip package.
+ * In sequential mode, the entries are compressed one after the other on the calling thread.
+ * In parallel mode, each entry is compressed on a worker pool into its own scatter file,
+ * then the compressed entries are merged into the package in the order they were added,
+ * so that the resulting package does not depend on the scheduling of the workers.
+ * The digests of the entries can be computed while they are read for compression.
+ *
+ * @author Laurent Wouters
+ */
+public class ZipPackageWriter implements Closeable {
+    /**
+     * The size of the buffer used to stream files into the package
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Represents an entry that has been compressed into a scatter file
+     */
+    private static class ScatteredEntry {
+        /**
+         * The entry to write
+         */
+        public final ZipArchiveEntry entry;
+        /**
+         * The backing store with the compressed content
+         */
+        public final FileBasedScatterGatherBackingStore store;
+
+        /**
+         * Initializes this entry
+         *
+         * @param entry The entry to write
+         * @param store The backing store with the compressed content
+         */
+        public ScatteredEntry(ZipArchiveEntry entry, FileBasedScatterGatherBackingStore store) {
+            this.entry = entry;
+            this.store = store;
+        }
+    }
+
+    /**
+     * The stream to the zip package
+     */
+    private final ZipArchiveOutputStream output;
+    /**
+     * The compression policy
+     */
+    private final CompressionPolicy policy;
+    /**
+     * The statistics to update
+     */
+    private final CompressionStatistics statistics;
+    /**
+     * The digests of the entries to update, if any
+     */
+    private final ContentDigests digests;
+    /**
+     * The buffer reused for streaming files into the package in sequential mode
+     */
+    private final byte[] buffer;
+    /**
+     * The executor for the compression of entries, null in sequential mode
+     */
+    private final ExecutorService executor;
+    /**
+     * The directory for the scatter files, null in sequential mode
+     */
+    private final File scatterDirectory;
+    /**
+     * The entries being compressed, in the order they must be written
+     */
+    private final Deque<Future<ScatteredEntry>> pending;
+    /**
+     * The counter for the names of scatter files
+     */
+    private int scatterCounter;
+
+    /**
+     * Initializes this writer
+     *
+     * @param output           The stream to the zip package
+     * @param policy           The compression policy
+     * @param statistics       The statistics to update
+     * @param digests          The digests of the entries to update, or null to not compute them
+     * @param threads          The number of threads for compressing entries, 1 for the sequential mode
+     * @param scatterDirectory The parent directory for the scatter files in parallel mode
+     * @throws IOException When an IO operation failed
+     */
+    public ZipPackageWriter(OutputStream output, CompressionPolicy policy, CompressionStatistics statistics, ContentDigests digests, int threads, File scatterDirectory) throws IOException {
+        this.output = new ZipArchiveOutputStream(output);
+        this.output.setLevel(policy.getLevel());
+        this.policy = policy;
+        this.statistics = statistics;
+        this.digests = digests;
+        this.pending = new ArrayDeque<>();
+        if (threads > 1) {
+            this.buffer = null;
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.scatterDirectory = Files.createTempDirectory(scatterDirectory.toPath(), "scatter").toFile();
+        } else {
+            this.buffer = new byte[BUFFER_SIZE];
+            this.executor = null;
+            this.scatterDirectory = null;
+        }
+    }
+
+    /**
+     * Adds a file to the zip package
+     *
+     * @param file      The file to add
+     * @param entryName The name of the zip entry
+     * @throws IOException When an IO operation failed
+     */
+    public void addFile(File file, String entryName) throws IOException {
+        if (!file.canRead())
+            throw new FileNotFoundException("Cannot read file " + file.getAbsolutePath());
+        if (executor == null)
+            writeSequential(file, entryName);
+        else
+            submitParallel(file, entryName);
+    }
+
+    /**
+     * Writes a file to the package on the calling thread
+     *
+     * @param file      The file to add
+     * @param entryName The name of the zip entry
+     * @throws IOException When an IO operation failed
+     */
+    private void writeSequential(File file, String entryName) throws IOException {
+        long start = System.nanoTime();
+        ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+        if (policy.isStored(file, entryName)) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.length());
+            entry.setCompressedSize(file.length());
+            entry.setCrc(computeCrc(file));
+            output.putArchiveEntry(entry);
+            writeContent(file, entryName);
+            output.closeArchiveEntry();
+            statistics.onStored(entry.getSize(), System.nanoTime() - start);
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+            output.putArchiveEntry(entry);
+            writeContent(file, entryName);
+            output.closeArchiveEntry();
+            statistics.onDeflated(entry.getSize(), entry.getCompressedSize(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes the content of a file to the current entry of the package
+     *
+     * @param file      The file to write
+     * @param entryName The name of the zip entry
+     * @throws IOException When an IO operation failed
+     */
+    private void writeContent(File file, String entryName) throws IOException {
+        MessageDigest[] entryDigests = digests == null ? null : digests.newDigests();
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+            while (true) {
+                int read = fileInputStream.read(buffer, 0, buffer.length);
+                if (read < 0)
+                    break;
+                if (entryDigests != null)
+                    ContentDigests.update(entryDigests, buffer, 0, read);
+                output.write(buffer, 0, read);
+            }
+        }
+        if (entryDigests != null)
+            digests.put(entryName, entryDigests);
+    }
+
+    /**
+     * Computes the CRC-32 of a file
+     *
+     * @param file The file
+     * @return The CRC-32 of the file
+     * @throws IOException When an IO operation failed
+     */
+    private long computeCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+            while (true) {
+                int read = fileInputStream.read(buffer, 0, buffer.length);
+                if (read < 0)
+                    break;
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Submits the compression of a file to the worker pool
+     *
+     * @param file      The file to add
+     * @param entryName The name of the zip entry
+     * @throws IOException When an IO operation failed
+     */
+    private void submitParallel(final File file, final String entryName) throws IOException {
+        final File scatterFile = new File(scatterDirectory, Integer.toString(scatterCounter++));
+        pending.add(executor.submit(new Callable<ScatteredEntry>() {
+            @Override
+            public ScatteredEntry call() throws IOException {
+                return compress(file, entryName, scatterFile);
+            }
+        }));
+        // merge the entries that are already compressed to release their scatter files early
+        while (!pending.isEmpty() && pending.peekFirst().isDone())
+            merge(pending.removeFirst());
+    }
+
+    /**
+     * Compresses a file into a scatter file
+     *
+     * @param file        The file to compress
+     * @param entryName   The name of the zip entry
+     * @param scatterFile The scatter file to compress into
+     * @return The compressed entry
+     * @throws IOException When an IO operation failed
+     */
+    private ScatteredEntry compress(File file, String entryName, File scatterFile) throws IOException {
+        long start = System.nanoTime();
+        ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+        entry.setMethod(policy.isStored(file, entryName) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+        MessageDigest[] entryDigests = digests == null ? null : digests.newDigests();
+        FileBasedScatterGatherBackingStore store = new FileBasedScatterGatherBackingStore(scatterFile);
+        try (StreamCompressor compressor = StreamCompressor.create(policy.getLevel(), store)) {
+            InputStream fileInput = new FileInputStream(file);
+            try (InputStream input = entryDigests == null ? fileInput : ContentDigests.wrap(fileInput, entryDigests)) {
+                compressor.deflate(input, entry.getMethod());
+            }
+            store.closeForWriting();
+            entry.setCrc(compressor.getCrc32());
+            entry.setSize(compressor.getBytesRead());
+            entry.setCompressedSize(compressor.getBytesWrittenForLastEntry());
+        } catch (IOException | RuntimeException exception) {
+            store.close();
+            throw exception;
+        }
+        if (entryDigests != null)
+            digests.put(entryName, entryDigests);
+        if (entry.getMethod() == ZipEntry.STORED)
+            statistics.onStored(entry.getSize(), System.nanoTime() - start);
+        else
+            statistics.onDeflated(entry.getSize(), entry.getCompressedSize(), System.nanoTime() - start);
+        return new ScatteredEntry(entry, store);
+    }
+
+    /**
+     * Merges a compressed entry into the package
+     *
+     * @param future The future for the compressed entry
+     * @throws IOException When an IO operation failed
+     */
+    private void merge(Future<ScatteredEntry> future) throws IOException {
+        ScatteredEntry scattered;
+        try {
+            scattered = future.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException)
+                throw (IOException) exception.getCause();
+            throw new IOException(exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing entries");
+        }
+        try (InputStream input = scattered.store.getInputStream()) {
+            output.addRawArchiveEntry(scattered.entry, input);
+        } finally {
+            scattered.store.close();
+        }
+    }
+
+    /**
+     * Waits for the entries being compressed and writes them to the package.
+     * When this returns, the digests of all the entries added so far are available.
+     *
+     * @throws IOException When an IO operation failed
+     */
+    public void flush() throws IOException {
+        while (!pending.isEmpty())
+            merge(pending.removeFirst());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            output.finish();
+        } finally {
+            try {
+                output.close();
+            } finally {
+                if (executor != null) {
+                    for (Future<ScatteredEntry> future : pending)
+                        future.cancel(true);
+                    executor.shutdownNow();
+                    IOUtils.deleteFolder(scatterDirectory);
+                }
+            }
+        }
+    }
+}
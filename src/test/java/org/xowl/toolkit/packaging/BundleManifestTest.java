@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests for the reading of the OSGi headers of bundles streamed out of an archive
+ *
+ * @author Laurent Wouters
+ */
+public class BundleManifestTest {
+    /**
+     * Tests reading the manifest when it is the first entry of the jar
+     *
+     * @throws IOException When the jar could not be read
+     */
+    @Test
+    public void testReadStream() throws IOException {
+        BundleManifest manifest = BundleManifest.read(new ByteArrayInputStream(newJar(false, "org.test.bundle")));
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals("org.test.bundle", manifest.getHeader(BundleManifest.SYMBOLIC_NAME));
+        Assert.assertEquals("1.0.0", manifest.getHeader(BundleManifest.VERSION));
+        Assert.assertEquals("org.test.api", manifest.getHeader(BundleManifest.IMPORT_PACKAGE));
+        Assert.assertNull(manifest.getHeader(BundleManifest.FRAGMENT_HOST));
+    }
+
+    /**
+     * Tests reading the manifest when it comes after other entries of the jar
+     *
+     * @throws IOException When the jar could not be read
+     */
+    @Test
+    public void testReadStreamManifestNotFirst() throws IOException {
+        BundleManifest manifest = BundleManifest.read(new ByteArrayInputStream(newJar(true, "org.test.bundle")));
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals("org.test.bundle", manifest.getHeader(BundleManifest.SYMBOLIC_NAME));
+    }
+
+    /**
+     * Tests that a jar without a symbolic name is not a bundle
+     *
+     * @throws IOException When the jar could not be read
+     */
+    @Test
+    public void testReadStreamNotBundle() throws IOException {
+        Assert.assertNull(BundleManifest.read(new ByteArrayInputStream(newJar(false, null))));
+    }
+
+    /**
+     * Tests that the stream is left open, so that the following entries of an archive can be read
+     *
+     * @throws IOException When the jar could not be read
+     */
+    @Test
+    public void testReadStreamLeftOpen() throws IOException {
+        final boolean[] closed = new boolean[1];
+        InputStream input = new ByteArrayInputStream(newJar(false, "org.test.bundle")) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        Assert.assertNotNull(BundleManifest.read(input));
+        Assert.assertFalse(closed[0]);
+    }
+
+    /**
+     * Writes a jar in memory
+     *
+     * @param manifestLast Whether to write the manifest after a class entry, instead of first
+     * @param symbolicName The symbolic name of the bundle, or null for a plain jar
+     * @return The content of the jar
+     * @throws IOException When the jar could not be written
+     */
+    private static byte[] newJar(boolean manifestLast, String symbolicName) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (symbolicName != null) {
+            attributes.putValue(BundleManifest.SYMBOLIC_NAME, symbolicName);
+            attributes.putValue(BundleManifest.VERSION, "1.0.0");
+            attributes.putValue(BundleManifest.IMPORT_PACKAGE, "org.test.api");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JarOutputStream output = new JarOutputStream(buffer)) {
+            if (manifestLast) {
+                output.putNextEntry(new ZipEntry("org/test/Main.class"));
+                output.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+                output.closeEntry();
+            }
+            output.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            manifest.write(output);
+            output.closeEntry();
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import fr.cenotelie.commons.utils.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Tests for the resolution of the bundles and the computation of their start levels
+ *
+ * @author Laurent Wouters
+ */
+public class BundleResolverTest {
+    /**
+     * The directory for the test bundles
+     */
+    private File directory;
+    /**
+     * The resolver to test
+     */
+    private BundleResolver resolver;
+
+    /**
+     * Creates the directory for the test bundles and the resolver
+     *
+     * @throws IOException When the directory could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bundle-resolver").toFile();
+        resolver = new BundleResolver();
+    }
+
+    /**
+     * Deletes the directory for the test bundles
+     */
+    @After
+    public void tearDown() {
+        IOUtils.deleteFolder(directory);
+    }
+
+    /**
+     * Tests that the bundles are leveled after the bundles they import from
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testLevels() throws IOException {
+        addBundle("c", "1.0", "Import-Package", "org.b", "Export-Package", "org.c");
+        addBundle("a", "1.0", "Export-Package", "org.a;version=1.0", "Import-Package", "javax.xml.parsers,java.util");
+        addBundle("b", "1.0", "Import-Package", "org.a;version=\"[1.0,2.0)\"", "Export-Package", "org.b");
+        resolver.addSystemPackages("javax.xml.parsers");
+        assertResolved();
+        Assert.assertEquals(3, resolver.getLevelCount());
+        Assert.assertEquals(Collections.singletonList("a"), resolver.getStartLocations(1));
+        Assert.assertEquals(Collections.singletonList("b"), resolver.getStartLocations(2));
+        Assert.assertEquals(Collections.singletonList("c"), resolver.getStartLocations(3));
+    }
+
+    /**
+     * Tests that the bundles in a cycle are put on the same level, and their dependents on the next one
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testCycleLevels() throws IOException {
+        addBundle("base", "1.0", "Export-Package", "org.base");
+        addBundle("x", "1.0", "Export-Package", "org.x", "Import-Package", "org.y,org.base");
+        addBundle("y", "1.0", "Export-Package", "org.y", "Import-Package", "org.z");
+        addBundle("z", "1.0", "Export-Package", "org.z", "Require-Bundle", "x");
+        addBundle("top", "1.0", "Import-Package", "org.z");
+        assertResolved();
+        Assert.assertEquals(3, resolver.getLevelCount());
+        Assert.assertEquals(Collections.singletonList("base"), resolver.getStartLocations(1));
+        Assert.assertEquals(Arrays.asList("x", "y", "z"), resolver.getStartLocations(2));
+        Assert.assertEquals(Collections.singletonList("top"), resolver.getStartLocations(3));
+    }
+
+    /**
+     * Tests that a fragment is installed on the level of its host, and that its imports and exports are the ones of its host
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testFragmentHosting() throws IOException {
+        addBundle("api", "1.0", "Export-Package", "org.api");
+        addBundle("host", "1.0", "Export-Package", "org.host");
+        addBundle("fragment", "1.0", "Fragment-Host", "host;bundle-version=\"[1.0,2.0)\"", "Import-Package", "org.api", "Export-Package", "org.fragment");
+        addBundle("user", "1.0", "Import-Package", "org.fragment");
+        assertResolved();
+        Assert.assertEquals(3, resolver.getLevelCount());
+        Assert.assertEquals(Collections.singletonList("api"), resolver.getStartLocations(1));
+        Assert.assertEquals(Collections.singletonList("host"), resolver.getStartLocations(2));
+        Assert.assertEquals(Collections.singletonList("fragment"), resolver.getInstallLocations(2));
+        Assert.assertEquals(Collections.singletonList("user"), resolver.getStartLocations(3));
+        Assert.assertTrue(resolver.getInstallLocations(1).isEmpty());
+    }
+
+    /**
+     * Tests that a fragment without a matching host is a problem
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testFragmentWithoutHost() throws IOException {
+        addBundle("host", "1.0");
+        addBundle("fragment", "1.0", "Fragment-Host", "host;bundle-version=2.0");
+        List<String> problems = resolver.resolve();
+        Assert.assertEquals(1, problems.size());
+        Assert.assertTrue(problems.get(0), problems.get(0).startsWith("fragment: no host bundle host"));
+    }
+
+    /**
+     * Tests that the missing optional imports and required bundles are not problems, while the mandatory ones are
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testOptionalRequirements() throws IOException {
+        addBundle("a", "1.0",
+                "Import-Package", "org.missing;resolution:=optional,org.other;version=\"[2,3)\"",
+                "Require-Bundle", "missing;resolution:=optional,system.bundle,absent");
+        addBundle("b", "1.0", "Export-Package", "org.other;version=1.5");
+        List<String> problems = resolver.resolve();
+        Assert.assertEquals(2, problems.size());
+        Assert.assertEquals("a: no bundle exports the imported package org.other [2,3)", problems.get(0));
+        Assert.assertEquals("a: no bundle matches the required bundle absent", problems.get(1));
+    }
+
+    /**
+     * Tests that an optional import is wired when a bundle exports the package
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testOptionalImportWired() throws IOException {
+        addBundle("a", "1.0", "Import-Package", "org.b;resolution:=optional");
+        addBundle("b", "1.0", "Export-Package", "org.b");
+        assertResolved();
+        Assert.assertEquals(Collections.singletonList("b"), resolver.getStartLocations(1));
+        Assert.assertEquals(Collections.singletonList("a"), resolver.getStartLocations(2));
+    }
+
+    /**
+     * Tests that an import is wired to the highest version in its range, the other versions being unreachable
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testHighestVersionInRange() throws IOException {
+        addBundle("api-1.0", "1.0", "Bundle-SymbolicName", "api", "Export-Package", "org.api;version=1.0");
+        addBundle("api-1.1", "1.1", "Bundle-SymbolicName", "api", "Export-Package", "org.api;version=1.1");
+        addBundle("api-2.0", "2.0", "Bundle-SymbolicName", "api", "Export-Package", "org.api;version=2.0");
+        addBundle("impl", "1.0", "Import-Package", "org.api;version=\"[1.0,2.0)\"");
+        addBundle("other", "1.0");
+        assertResolved();
+        Assert.assertEquals(Arrays.asList("api-1.0", "api-2.0", "other"), resolver.getUnreachableLocations(Collections.singletonList("impl")));
+    }
+
+    /**
+     * Tests that two bundles with the same symbolic name and version are a problem
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testDuplicateBundles() throws IOException {
+        addBundle("first", "1.0", "Bundle-SymbolicName", "same");
+        addBundle("second", "1.0.0", "Bundle-SymbolicName", "same");
+        List<String> problems = resolver.resolve();
+        Assert.assertEquals(1, problems.size());
+        Assert.assertTrue(problems.get(0), problems.get(0).startsWith("second: same symbolic name and version as first"));
+    }
+
+    /**
+     * Tests the reachability of the bundles from roots given by location or symbolic name, including the fragments
+     *
+     * @throws IOException When a bundle could not be written
+     */
+    @Test
+    public void testUnreachable() throws IOException {
+        addBundle("base", "1.0", "Export-Package", "org.base");
+        addBundle("app", "1.0", "Import-Package", "org.base");
+        addBundle("app-fragment", "1.0", "Fragment-Host", "app");
+        addBundle("tool", "1.0", "Require-Bundle", "base");
+        addBundle("unused", "1.0", "Export-Package", "org.unused");
+        assertResolved();
+        Assert.assertEquals(Arrays.asList("tool", "unused"), resolver.getUnreachableLocations(Collections.singletonList("app")));
+        Assert.assertEquals(Collections.singletonList("unused"), resolver.getUnreachableLocations(Arrays.asList("app-fragment", "tool")));
+        Assert.assertEquals(Arrays.asList("app", "app-fragment", "base", "tool", "unused"), resolver.getUnreachableLocations(Collections.<String>emptyList()));
+    }
+
+    /**
+     * Asserts that the bundles are resolved without problems
+     */
+    private void assertResolved() {
+        Assert.assertEquals(Collections.<String>emptyList(), resolver.resolve());
+    }
+
+    /**
+     * Writes a bundle and adds it to the resolver, the location being the symbolic name by default
+     *
+     * @param location The location of the bundle
+     * @param version  The version of the bundle
+     * @param headers  The other headers, as pairs of name and value
+     * @throws IOException When the bundle could not be written
+     */
+    private void addBundle(String location, String version, String... headers) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue(BundleManifest.SYMBOLIC_NAME, location);
+        attributes.putValue(BundleManifest.VERSION, version);
+        for (int i = 0; i < headers.length; i += 2)
+            attributes.putValue(headers[i], headers[i + 1]);
+        File file = new File(directory, location + ".jar");
+        new JarOutputStream(new FileOutputStream(file), manifest).close();
+        BundleManifest bundleManifest = BundleManifest.read(file);
+        Assert.assertNotNull(bundleManifest);
+        resolver.addBundle(location, bundleManifest);
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the parsing of manifest headers and the comparison of versions
+ *
+ * @author Laurent Wouters
+ */
+public class ManifestHeaderTest {
+    /**
+     * Tests the parsing of clauses with attributes and directives
+     */
+    @Test
+    public void testParseClauses() {
+        List<ManifestHeader.Clause> clauses = ManifestHeader.parse("org.a;version=\"1.2\", org.b ;resolution:=optional; vendor = x");
+        Assert.assertEquals(2, clauses.size());
+        Assert.assertEquals(Arrays.asList("org.a"), clauses.get(0).getNames());
+        Assert.assertEquals("1.2", clauses.get(0).getAttribute("version"));
+        Assert.assertFalse(clauses.get(0).isOptional());
+        Assert.assertEquals(Arrays.asList("org.b"), clauses.get(1).getNames());
+        Assert.assertEquals("optional", clauses.get(1).getDirective("resolution"));
+        Assert.assertNull(clauses.get(1).getAttribute("resolution"));
+        Assert.assertEquals("x", clauses.get(1).getAttribute("vendor"));
+        Assert.assertTrue(clauses.get(1).isOptional());
+    }
+
+    /**
+     * Tests that the commas and semicolons within quotes do not split the clauses
+     */
+    @Test
+    public void testParseQuotedSeparators() {
+        List<ManifestHeader.Clause> clauses = ManifestHeader.parse("org.a;version=\"[1.0,2.0)\";uses:=\"org.b,org.c;x\",org.d;version=\"[1,2]\"");
+        Assert.assertEquals(2, clauses.size());
+        Assert.assertEquals("[1.0,2.0)", clauses.get(0).getAttribute("version"));
+        Assert.assertEquals("org.b,org.c;x", clauses.get(0).getDirective("uses"));
+        Assert.assertEquals(Arrays.asList("org.d"), clauses.get(1).getNames());
+        Assert.assertEquals("[1,2]", clauses.get(1).getAttribute("version"));
+    }
+
+    /**
+     * Tests the clauses with several names sharing the same parameters
+     */
+    @Test
+    public void testParseSeveralNames() {
+        List<ManifestHeader.Clause> clauses = ManifestHeader.parse("org.a;org.b;version=1.0");
+        Assert.assertEquals(1, clauses.size());
+        Assert.assertEquals(Arrays.asList("org.a", "org.b"), clauses.get(0).getNames());
+        Assert.assertEquals("1.0", clauses.get(0).getAttribute("version"));
+    }
+
+    /**
+     * Tests the missing and empty headers
+     */
+    @Test
+    public void testParseEmpty() {
+        Assert.assertTrue(ManifestHeader.parse(null).isEmpty());
+        Assert.assertTrue(ManifestHeader.parse("").isEmpty());
+        Assert.assertTrue(ManifestHeader.parse(" , ").isEmpty());
+    }
+
+    /**
+     * Tests the comparison of versions, including the missing parts and the qualifiers
+     */
+    @Test
+    public void testCompareVersions() {
+        Assert.assertEquals(0, ManifestHeader.compareVersions("1", "1.0.0"));
+        Assert.assertTrue(ManifestHeader.compareVersions("1.10", "1.9") > 0);
+        Assert.assertTrue(ManifestHeader.compareVersions("1.0.0", "1.0.0.beta") < 0);
+        Assert.assertTrue(ManifestHeader.compareVersions("1.0.0.beta", "1.0.0.rc1") < 0);
+        Assert.assertTrue(ManifestHeader.compareVersions("2.0.0.a", "1.9.9.z") > 0);
+        Assert.assertEquals(0, ManifestHeader.compareVersions(" 1.2.3 ", "1.2.3"));
+    }
+
+    /**
+     * Tests the closed and open bounds of version ranges
+     */
+    @Test
+    public void testIsInRangeBounds() {
+        Assert.assertTrue(ManifestHeader.isInRange("1.0", "[1.0,2.0)"));
+        Assert.assertTrue(ManifestHeader.isInRange("1.9.9", "[1.0,2.0)"));
+        Assert.assertFalse(ManifestHeader.isInRange("2.0", "[1.0,2.0)"));
+        Assert.assertFalse(ManifestHeader.isInRange("0.9", "[1.0,2.0)"));
+        Assert.assertFalse(ManifestHeader.isInRange("1.0", "(1.0,2.0]"));
+        Assert.assertTrue(ManifestHeader.isInRange("1.0.1", "(1.0,2.0]"));
+        Assert.assertTrue(ManifestHeader.isInRange("2.0", "(1.0,2.0]"));
+        Assert.assertTrue(ManifestHeader.isInRange("1.2.3", "[1.2.3,1.2.3]"));
+        Assert.assertFalse(ManifestHeader.isInRange("1.2.4", "[1.2.3,1.2.3]"));
+    }
+
+    /**
+     * Tests the bare versions, which are minimums, and the missing ranges and versions
+     */
+    @Test
+    public void testIsInRangeBareVersions() {
+        Assert.assertTrue(ManifestHeader.isInRange("1.0", "1.0"));
+        Assert.assertTrue(ManifestHeader.isInRange("5.0", "1.0"));
+        Assert.assertFalse(ManifestHeader.isInRange("0.9", "1.0"));
+        Assert.assertTrue(ManifestHeader.isInRange("0.1", null));
+        Assert.assertTrue(ManifestHeader.isInRange("0.1", " "));
+        Assert.assertTrue(ManifestHeader.isInRange(null, "0.0"));
+        Assert.assertFalse(ManifestHeader.isInRange(null, "[1.0,2.0)"));
+    }
+
+    /**
+     * Tests the qualifiers at the bounds of version ranges
+     */
+    @Test
+    public void testIsInRangeQualifiers() {
+        Assert.assertTrue(ManifestHeader.isInRange("1.0.0.SNAPSHOT", "[1.0,2.0)"));
+        // a qualifier makes a version greater than the same version without qualifier
+        Assert.assertTrue(ManifestHeader.isInRange("1.0.0.SNAPSHOT", "(1.0,2.0)"));
+        Assert.assertFalse(ManifestHeader.isInRange("2.0.0.SNAPSHOT", "[1.0,2.0)"));
+        Assert.assertTrue(ManifestHeader.isInRange("2.0.0.SNAPSHOT", "[1.0,2.0.0.SNAPSHOT]"));
+        Assert.assertTrue(ManifestHeader.isInRange("1.0.0.v2017", "1.0.0.v2016"));
+    }
+}
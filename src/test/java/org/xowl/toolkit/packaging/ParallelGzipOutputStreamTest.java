@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for the parallel gzip output stream.
+ * The output must be a standard gzip stream whatever the boundaries of the blocks and of the writes.
+ *
+ * @author Laurent Wouters
+ */
+public class ParallelGzipOutputStreamTest {
+    /**
+     * The size of the blocks for the tests (the minimum, the size of the dictionary)
+     */
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    /**
+     * Tests an empty stream
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        assertRoundTrip(new byte[0], 4, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+    }
+
+    /**
+     * Tests the sizes around the boundaries of the blocks
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testBlockBoundaries() throws IOException {
+        int[] sizes = new int[]{1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE + 17};
+        for (int size : sizes)
+            assertRoundTrip(newText(size, 1), 4, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+    }
+
+    /**
+     * Tests the compression levels, including the stored blocks of level 0
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testLevels() throws IOException {
+        byte[] data = newText(5 * BLOCK_SIZE + 5, 2);
+        for (int level = 0; level <= 9; level++)
+            assertRoundTrip(data, 3, level, BLOCK_SIZE);
+    }
+
+    /**
+     * Tests a single thread and blocks larger than the minimum
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testSingleThread() throws IOException {
+        assertRoundTrip(newText(1000 * 1000, 3), 1, Deflater.DEFAULT_COMPRESSION, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Tests that each block is primed with the end of the previous one.
+     * Each block repeats the second half of the previous one twice, so that only its first half refers to the previous block.
+     * With the priming, all the blocks but the first one (random) compress to almost nothing.
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testDictionaryPriming() throws IOException {
+        int half = BLOCK_SIZE / 2;
+        byte[] data = new byte[4 * BLOCK_SIZE];
+        byte[] random = new byte[BLOCK_SIZE];
+        new Random(4).nextBytes(random);
+        System.arraycopy(random, 0, data, 0, BLOCK_SIZE);
+        for (int i = 1; i != 4; i++) {
+            System.arraycopy(data, i * BLOCK_SIZE - half, data, i * BLOCK_SIZE, half);
+            System.arraycopy(data, i * BLOCK_SIZE - half, data, i * BLOCK_SIZE + half, half);
+        }
+        byte[] compressed = assertRoundTrip(data, 4, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE);
+        // without the priming, the first half of each block after the first would be incompressible
+        Assert.assertTrue("Compressed size " + compressed.length, compressed.length < BLOCK_SIZE + half / 2);
+    }
+
+    /**
+     * Compresses data with varying write sizes, checks that a standard gzip decoder restores it and returns the compressed data
+     *
+     * @param data      The data to compress
+     * @param threads   The number of threads
+     * @param level     The compression level
+     * @param blockSize The size of the blocks
+     * @return The compressed data
+     * @throws IOException When an IO operation failed
+     */
+    private static byte[] assertRoundTrip(byte[] data, int threads, int level, int blockSize) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream stream = new ParallelGzipOutputStream(output, level, threads, blockSize)) {
+            // mix single bytes and writes of sizes that are not aligned with the blocks
+            int offset = 0;
+            int step = 1;
+            while (offset < data.length) {
+                int length = Math.min(step, data.length - offset);
+                if (length == 1)
+                    stream.write(data[offset]);
+                else
+                    stream.write(data, offset, length);
+                offset += length;
+                step = step * 7 % 10007 + 1;
+            }
+        }
+        byte[] compressed = output.toByteArray();
+        Assert.assertArrayEquals("Round trip of " + data.length + " bytes at level " + level, data, decompress(compressed));
+        return compressed;
+    }
+
+    /**
+     * Decompresses gzip data with the standard decoder, which checks the CRC-32 and the size in the trailer
+     *
+     * @param compressed The compressed data
+     * @return The decompressed data
+     * @throws IOException When the data is not a valid gzip stream
+     */
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer))
+                result.write(buffer, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Creates compressible text-like data
+     *
+     * @param size The size of the data
+     * @param seed The seed of the generator
+     * @return The data
+     */
+    private static byte[] newText(int size, long seed) {
+        String[] words = new String[]{"bundle", "felix", "platform", "xowl", "manifest", "package", "version", "\n"};
+        Random random = new Random(seed);
+        byte[] result = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+            String word = words[random.nextInt(words.length)];
+            for (int i = 0; i != word.length() && offset < size; i++)
+                result[offset++] = (byte) word.charAt(i);
+            if (offset < size)
+                result[offset++] = ' ';
+        }
+        return result;
+    }
+}
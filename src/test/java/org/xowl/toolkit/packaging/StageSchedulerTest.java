@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the scheduler of the packaging stages
+ *
+ * @author Laurent Wouters
+ */
+public class StageSchedulerTest {
+    /**
+     * Tests that the stages run after their dependencies
+     *
+     * @throws MojoFailureException When a stage failed
+     */
+    @Test(timeout = 10000)
+    public void testDependencies() throws MojoFailureException {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        StageScheduler scheduler = new StageScheduler(4);
+        StageScheduler.Stage first = scheduler.addStage("first", newAction(order, "first"));
+        StageScheduler.Stage second = scheduler.addStage("second", newAction(order, "second"), first);
+        scheduler.addStage("third", newAction(order, "third"), first, second);
+        scheduler.run();
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), order);
+    }
+
+    /**
+     * Tests that a failing stage fails the run and that its dependents do not run
+     */
+    @Test(timeout = 10000)
+    public void testFailure() {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        StageScheduler scheduler = new StageScheduler(2);
+        StageScheduler.Stage failing = scheduler.addStage("failing", new StageScheduler.Action() {
+            @Override
+            public void run() throws MojoFailureException {
+                throw new MojoFailureException("Failed to do something");
+            }
+        });
+        scheduler.addStage("dependent", newAction(order, "dependent"), failing);
+        try {
+            scheduler.run();
+            Assert.fail("Expected a failure");
+        } catch (MojoFailureException exception) {
+            Assert.assertEquals("Failed to do something", exception.getMessage());
+        }
+        Assert.assertTrue(order.isEmpty());
+    }
+
+    /**
+     * Tests that an error thrown by a stage fails the run instead of blocking it
+     */
+    @Test(timeout = 10000)
+    public void testError() {
+        StageScheduler scheduler = new StageScheduler(2);
+        final StackOverflowError error = new StackOverflowError();
+        scheduler.addStage("error", new StageScheduler.Action() {
+            @Override
+            public void run() {
+                throw error;
+            }
+        });
+        try {
+            scheduler.run();
+            Assert.fail("Expected a failure");
+        } catch (MojoFailureException exception) {
+            Assert.assertEquals("Failed to run stage error", exception.getMessage());
+            Assert.assertSame(error, exception.getCause());
+        }
+    }
+
+    /**
+     * Creates an action that records its execution
+     *
+     * @param order The list of the executed actions
+     * @param name  The name of the action
+     * @return The action
+     */
+    private static StageScheduler.Action newAction(final List<String> order, final String name) {
+        return new StageScheduler.Action() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+}
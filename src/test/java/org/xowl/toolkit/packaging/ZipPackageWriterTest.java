@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Association Cénotélie (cenotelie.fr)
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this program.
+ * If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package org.xowl.toolkit.packaging;
+
+import fr.cenotelie.commons.utils.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests for the writer of zip packages.
+ * The tests run in their own surefire execution with a small heap, so that an entry larger than the heap fails them when it is loaded in memory.
+ *
+ * @author Laurent Wouters
+ */
+public class ZipPackageWriterTest {
+    /**
+     * The directory for the test files
+     */
+    private File directory;
+
+    /**
+     * Creates the directory for the test files
+     *
+     * @throws IOException When the directory could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("zip-package-writer").toFile();
+    }
+
+    /**
+     * Deletes the directory for the test files
+     */
+    @After
+    public void tearDown() {
+        IOUtils.deleteFolder(directory);
+    }
+
+    /**
+     * Tests that a deflated entry larger than the heap is streamed
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testDeflatedEntryLargerThanHeap() throws IOException {
+        testEntryLargerThanHeap("large.bin", 1, ZipEntry.DEFLATED);
+    }
+
+    /**
+     * Tests that a stored entry larger than the heap is streamed
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testStoredEntryLargerThanHeap() throws IOException {
+        testEntryLargerThanHeap("large.jar", 1, ZipEntry.STORED);
+    }
+
+    /**
+     * Tests that an entry larger than the heap is streamed in the parallel mode
+     *
+     * @throws IOException When an IO operation failed
+     */
+    @Test
+    public void testParallelEntryLargerThanHeap() throws IOException {
+        testEntryLargerThanHeap("large.bin", 2, ZipEntry.DEFLATED);
+    }
+
+    /**
+     * Packages an entry larger than the heap and checks the resulting package
+     *
+     * @param entryName The name of the entry
+     * @param threads   The number of threads for the writer
+     * @param method    The expected compression method of the entry
+     * @throws IOException When an IO operation failed
+     */
+    private void testEntryLargerThanHeap(String entryName, int threads, int method) throws IOException {
+        long size = Runtime.getRuntime().maxMemory() + 8 * 1024 * 1024;
+        File input = new File(directory, entryName);
+        long crc = writeContent(input, size);
+        File output = new File(directory, "package.zip");
+        CompressionStatistics statistics = new CompressionStatistics();
+        ContentDigests digests = new ContentDigests(false);
+        try (ZipPackageWriter writer = new ZipPackageWriter(new FileOutputStream(output), new CompressionPolicy(1, 1024), statistics, digests, threads, directory)) {
+            writer.addFile(input, entryName);
+        }
+        Assert.assertEquals(1, statistics.getEntries());
+        Assert.assertEquals(size, statistics.getUncompressedBytes());
+        Assert.assertNotNull(digests.get(entryName));
+        try (ZipFile zipFile = new ZipFile(output)) {
+            ZipEntry entry = zipFile.getEntry(entryName);
+            Assert.assertNotNull(entry);
+            Assert.assertEquals(method, entry.getMethod());
+            Assert.assertEquals(size, entry.getSize());
+            Assert.assertEquals(crc, entry.getCrc());
+            Assert.assertEquals(crc, readCrc(zipFile.getInputStream(entry)));
+        }
+    }
+
+    /**
+     * Writes a file of compressible, but not repetitive, content
+     *
+     * @param file The file to write
+     * @param size The size of the file
+     * @return The CRC-32 of the content
+     * @throws IOException When an IO operation failed
+     */
+    private static long writeContent(File file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long seed = 42;
+        try (OutputStream stream = new FileOutputStream(file)) {
+            for (long written = 0; written < size; ) {
+                for (int i = 0; i != buffer.length; i++) {
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    buffer[i] = (byte) ('a' + ((seed >>> 60) & 0x7));
+                }
+                int length = (int) Math.min(buffer.length, size - written);
+                stream.write(buffer, 0, length);
+                crc.update(buffer, 0, length);
+                written += length;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Computes the CRC-32 of a stream
+     *
+     * @param stream The stream to read
+     * @return The CRC-32 of the content
+     * @throws IOException When an IO operation failed
+     */
+    private static long readCrc(InputStream stream) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = stream) {
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer))
+                crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+}